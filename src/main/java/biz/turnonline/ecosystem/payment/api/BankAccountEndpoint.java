@@ -21,6 +21,7 @@ package biz.turnonline.ecosystem.payment.api;
 import biz.turnonline.ecosystem.payment.api.model.BankAccount;
 import biz.turnonline.ecosystem.payment.api.model.Certificate;
 import biz.turnonline.ecosystem.payment.api.model.Transaction;
+import biz.turnonline.ecosystem.payment.api.model.TransactionBatchItem;
 import biz.turnonline.ecosystem.payment.service.BankAccountNotFound;
 import biz.turnonline.ecosystem.payment.service.BankCodeNotFound;
 import biz.turnonline.ecosystem.payment.service.PaymentConfig;
@@ -36,6 +37,7 @@ import com.google.api.server.spi.config.DefaultValue;
 import com.google.api.server.spi.config.Named;
 import com.google.api.server.spi.config.Nullable;
 import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
 import com.google.api.server.spi.response.InternalServerErrorException;
 import com.google.api.server.spi.response.NotFoundException;
 import com.google.common.base.MoreObjects;
@@ -49,10 +51,14 @@ import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import static biz.turnonline.ecosystem.payment.api.EndpointsCommon.bankAccountNotFoundMessage;
 import static biz.turnonline.ecosystem.payment.api.EndpointsCommon.bankCodeNotFoundMessage;
@@ -69,6 +75,8 @@ import static biz.turnonline.ecosystem.payment.api.EndpointsCommon.tryAgainLater
 @ApiReference( EndpointsApiProfile.class )
 public class BankAccountEndpoint
 {
+    static final int BATCH_GET_MAX_SIZE = 200;
+
     private static final Logger LOGGER = LoggerFactory.getLogger( BankAccountEndpoint.class );
 
     private final EndpointsCommon common;
@@ -483,8 +491,51 @@ public class BankAccountEndpoint
             throws Exception
     {
         LocalAccount account = common.checkAccount( authUser, request );
-        List<Transaction> result;
+        PaymentConfig.Filter filter = newFilter( account, limit, operation, accountId, invoiceId, orderId,
+                type, status, createdDateFrom, createdDateTo )
+                .offset( offset );
+
+        return new ArrayList<>( queryTransactions( account, filter, false ).getItems() );
+    }
+
+    /**
+     * Same as {@code transactions.list}, but instead of offset it pages through the transactions
+     * by the cursor. The returned next page token is {@code null} once there are no more transactions.
+     */
+    @ApiMethod( name = "transactions.page", path = "transaction-pages", httpMethod = ApiMethod.HttpMethod.GET )
+    public CollectionResponse<Transaction> pageTransactions( @Nullable @Named( "pageToken" ) String pageToken,
+                                                             @DefaultValue( "20" ) @Nullable @Named( "limit" ) Integer limit,
+                                                             @DefaultValue( "both" ) @Nullable @Named( "operation" ) String operation,
+                                                             @Nullable @Named( "accountId" ) Long accountId,
+                                                             @Nullable @Named( "invoiceId" ) Long invoiceId,
+                                                             @Nullable @Named( "orderId" ) Long orderId,
+                                                             @Nullable @Named( "type" ) String type,
+                                                             @Nullable @Named( "status" ) String status,
+                                                             @Nullable @Named( "from" ) Date createdDateFrom,
+                                                             @Nullable @Named( "to" ) Date createdDateTo,
+                                                             HttpServletRequest request,
+                                                             User authUser )
+            throws Exception
+    {
+        LocalAccount account = common.checkAccount( authUser, request );
+        PaymentConfig.Filter filter = newFilter( account, limit, operation, accountId, invoiceId, orderId,
+                type, status, createdDateFrom, createdDateTo )
+                .pageToken( pageToken );
 
+        return queryTransactions( account, filter, true );
+    }
+
+    private PaymentConfig.Filter newFilter( LocalAccount account,
+                                            Integer limit,
+                                            String operation,
+                                            Long accountId,
+                                            Long invoiceId,
+                                            Long orderId,
+                                            String type,
+                                            String status,
+                                            Date createdDateFrom,
+                                            Date createdDateTo )
+    {
         // fix 'create date from' time to 00:00:00
         if ( createdDateFrom != null )
         {
@@ -498,37 +549,65 @@ public class BankAccountEndpoint
             createdDateTo = Date.from( endOfDay.atZone( account.getZoneId() ).toInstant() );
         }
 
+        return new PaymentConfig.Filter()
+                .limit( limit )
+                .accountId( accountId )
+                .operation( operation )
+                .invoiceId( invoiceId )
+                .orderId( orderId )
+                .type( type )
+                .status( status )
+                .createdDateFrom( createdDateFrom )
+                .createdDateTo( createdDateTo );
+    }
+
+    /**
+     * Retrieves the transactions either by the offset, or by the cursor if {@code byCursor} is {@code true}.
+     */
+    private CollectionResponse<Transaction> queryTransactions( LocalAccount account,
+                                                               PaymentConfig.Filter filter,
+                                                               boolean byCursor )
+            throws Exception
+    {
+        CollectionResponse<Transaction> result;
+
         try
         {
-            PaymentConfig.Filter filter = new PaymentConfig.Filter()
-                    .offset( offset )
-                    .limit( limit )
-                    .accountId( accountId )
-                    .operation( operation )
-                    .invoiceId( invoiceId )
-                    .orderId( orderId )
-                    .type( type )
-                    .status( status )
-                    .createdDateFrom( createdDateFrom )
-                    .createdDateTo( createdDateTo );
-
             List<CommonTransaction> transactions;
-            transactions = config.filterTransactions( filter );
+            String nextPageToken = null;
+            if ( byCursor )
+            {
+                PaymentConfig.TransactionPage page = config.pageTransactions( filter );
+                transactions = page.getItems();
+                nextPageToken = page.getNextPageToken();
+            }
+            else
+            {
+                transactions = config.filterTransactions( filter );
+            }
 
-            result = mapper.mapAsList( transactions, Transaction.class );
+            // bank accounts loaded in single batch instead of a get per transaction
+            MappingContext context = new MappingContext( new HashMap<>() );
+            context.setProperty( CompanyBankAccount.class, CommonTransaction.loadBankAccounts( transactions ) );
+
+            result = CollectionResponse.<Transaction>builder()
+                    .setItems( mapper.mapAsList( transactions, Transaction.class, context ) )
+                    .setNextPageToken( nextPageToken )
+                    .build();
         }
         catch ( ApiValidationException e )
         {
             LOGGER.warn( "Transaction query params are invalid: "
                     + MoreObjects.toStringHelper( "Input" )
                     .add( "Account", account.getId() )
-                    .add( "Bank account ID", accountId )
-                    .add( "operation", operation )
-                    .add( "invoiceId", invoiceId )
-                    .add( "orderId", orderId )
-                    .add( "type", type )
-                    .add( "offset", offset )
-                    .add( "limit", limit )
+                    .add( "Bank account ID", filter.getAccountId() )
+                    .add( "operation", filter.getOperation() )
+                    .add( "invoiceId", filter.getInvoiceId() )
+                    .add( "orderId", filter.getOrderId() )
+                    .add( "type", filter.getType() )
+                    .add( "offset", filter.getOffset() )
+                    .add( "limit", filter.getLimit() )
+                    .add( "pageToken", filter.getPageToken() )
                     .toString(), e );
 
             throw new BadRequestException( e.getMessage() );
@@ -538,13 +617,73 @@ public class BankAccountEndpoint
             LOGGER.error( "Transaction list retrieval has failed: "
                     + MoreObjects.toStringHelper( "Input" )
                     .add( "Account", account.getId() )
-                    .add( "Bank account ID", accountId )
-                    .add( "credit", operation )
-                    .add( "invoiceId", invoiceId )
-                    .add( "orderId", orderId )
-                    .add( "type", type )
-                    .add( "offset", offset )
-                    .add( "limit", limit )
+                    .add( "Bank account ID", filter.getAccountId() )
+                    .add( "credit", filter.getOperation() )
+                    .add( "invoiceId", filter.getInvoiceId() )
+                    .add( "orderId", filter.getOrderId() )
+                    .add( "type", filter.getType() )
+                    .add( "offset", filter.getOffset() )
+                    .add( "limit", filter.getLimit() )
+                    .add( "pageToken", filter.getPageToken() )
+                    .toString(), e );
+
+            throw new InternalServerErrorException( tryAgainLaterMessage() );
+        }
+
+        return result;
+    }
+
+    @ApiMethod( name = "transactions.batchGet",
+            path = "transactions-batch",
+            httpMethod = ApiMethod.HttpMethod.GET )
+    public List<TransactionBatchItem> getTransactions( @Named( "id" ) List<Long> ids,
+                                                       HttpServletRequest request,
+                                                       User authUser )
+            throws Exception
+    {
+        LocalAccount account = common.checkAccount( authUser, request );
+        List<TransactionBatchItem> result = new ArrayList<>();
+
+        // keeps the requested order, without duplicates
+        Set<Long> distinct = ids == null ? new LinkedHashSet<>() : new LinkedHashSet<>( ids );
+        distinct.remove( null );
+
+        if ( distinct.size() > BATCH_GET_MAX_SIZE )
+        {
+            String key = "errors.validation.query.ids.limit";
+            throw new BadRequestException( ApiValidationException.prepare( key, BATCH_GET_MAX_SIZE ).getMessage() );
+        }
+
+        try
+        {
+            Map<Long, CommonTransaction> transactions = config.getTransactions( distinct );
+
+            // bank accounts loaded in single batch instead of a get per transaction
+            MappingContext context = new MappingContext( new HashMap<>() );
+            context.setProperty( CompanyBankAccount.class, CommonTransaction.loadBankAccounts( transactions.values() ) );
+
+            for ( Long id : distinct )
+            {
+                CommonTransaction transaction = transactions.get( id );
+                TransactionBatchItem item = new TransactionBatchItem().transactionId( id );
+
+                if ( transaction == null )
+                {
+                    item.setError( transactionNotFoundMessage( id ) );
+                }
+                else
+                {
+                    item.setTransaction( mapper.map( transaction, Transaction.class, context ) );
+                }
+                result.add( item );
+            }
+        }
+        catch ( Exception e )
+        {
+            LOGGER.error( "Transaction batch retrieval has failed: "
+                    + MoreObjects.toStringHelper( "Input" )
+                    .add( "Account", account.getId() )
+                    .add( "Transaction IDs", distinct )
                     .toString(), e );
 
             throw new InternalServerErrorException( tryAgainLaterMessage() );
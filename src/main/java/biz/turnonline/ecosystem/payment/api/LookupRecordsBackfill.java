@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.api;
+
+import biz.turnonline.ecosystem.payment.service.LookupRecordsBackfillTask;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Starts the one-off backfill of the lookup records, processed by {@link LookupRecordsBackfillTask}.
+ * Safe to be run repeatedly, the lookup records are being overwritten by the same content.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Singleton
+public class LookupRecordsBackfill
+        extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( LookupRecordsBackfill.class );
+
+    private final TaskExecutor executor;
+
+    @Inject
+    public LookupRecordsBackfill( TaskExecutor executor )
+    {
+        this.executor = executor;
+    }
+
+    @Override
+    protected void doPost( HttpServletRequest request, HttpServletResponse response ) throws IOException
+    {
+        executor.schedule( new LookupRecordsBackfillTask() );
+        LOGGER.info( "Backfill of the lookup records has been scheduled" );
+
+        response.setStatus( HttpServletResponse.SC_ACCEPTED );
+        response.setContentType( "text/plain" );
+        response.getWriter().write( "Backfill of the lookup records has been scheduled" );
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.api;
+
+import biz.turnonline.ecosystem.payment.api.model.CounterpartyBankAccount;
+import biz.turnonline.ecosystem.payment.api.model.Transaction;
+import biz.turnonline.ecosystem.payment.api.model.TransactionBank;
+import biz.turnonline.ecosystem.payment.api.model.TransactionCategory;
+import biz.turnonline.ecosystem.payment.service.LocalAccountProvider;
+import biz.turnonline.ecosystem.payment.service.PaymentConfig;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
+import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.util.StdDateFormat;
+import com.google.common.base.Strings;
+import ma.glasnost.orika.MapperFacade;
+import ma.glasnost.orika.MappingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.stream.Collectors;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Streaming bulk export of the transactions either as NDJSON (default) or CSV ({@code format=csv}).
+ * <p>
+ * Supported query parameters follow the semantics of {@link PaymentConfig.Filter}
+ * (and of the {@code transactions.list} API), except of offset and limit:
+ * {@code operation}, {@code accountId}, {@code invoiceId}, {@code orderId}, {@code type}, {@code status},
+ * {@code from} and {@code to} as ISO date (yyyy-MM-dd) in the account's time zone.
+ * <p>
+ * Transactions are read in cursor chunks and written straight to the response output stream,
+ * so the memory consumption stays constant regardless of the size of the result set.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Singleton
+public class TransactionExport
+        extends HttpServlet
+{
+    static final int CHUNK_SIZE = 200;
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( TransactionExport.class );
+
+    private static final String[] CSV_HEADER = {"transactionId", "key", "bankCode", "iban", "credit", "amount",
+            "currency", "billAmount", "billCurrency", "balance", "status", "type", "reference", "completedAt",
+            "counterpartyName", "counterpartyIban", "counterpartyBic", "categories"};
+
+    private final PaymentConfig config;
+
+    private final LocalAccountProvider lap;
+
+    private final MapperFacade mapper;
+
+    private final ObjectMapper objectMapper;
+
+    @Inject
+    public TransactionExport( PaymentConfig config,
+                              LocalAccountProvider lap,
+                              MapperFacade mapper,
+                              ObjectMapper objectMapper )
+    {
+        this.config = config;
+        this.lap = lap;
+        this.mapper = mapper;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response )
+            throws IOException
+    {
+        LocalAccount account = lap.get();
+        if ( account == null )
+        {
+            LOGGER.warn( "Local account has not been configured yet" );
+            response.sendError( HttpServletResponse.SC_NOT_FOUND, "Account not found" );
+            return;
+        }
+
+        ZoneId zone = account.getZoneId();
+        PaymentConfig.Filter filter;
+        boolean csv = "csv".equalsIgnoreCase( request.getParameter( "format" ) );
+
+        try
+        {
+            LocalDate from = parseDate( request.getParameter( "from" ) );
+            LocalDate to = parseDate( request.getParameter( "to" ) );
+
+            filter = new PaymentConfig.Filter()
+                    .limit( CHUNK_SIZE )
+                    .operation( request.getParameter( "operation" ) )
+                    .accountId( parseLong( request.getParameter( "accountId" ) ) )
+                    .invoiceId( parseLong( request.getParameter( "invoiceId" ) ) )
+                    .orderId( parseLong( request.getParameter( "orderId" ) ) )
+                    .type( request.getParameter( "type" ) )
+                    .status( request.getParameter( "status" ) )
+                    .createdDateFrom( from == null ? null : Date.from( from.atStartOfDay( zone ).toInstant() ) )
+                    .createdDateTo( to == null ? null : Date.from( to.atTime( LocalTime.MAX ).atZone( zone ).toInstant() ) );
+        }
+        catch ( NumberFormatException | DateTimeParseException e )
+        {
+            LOGGER.warn( "Transaction export query params are invalid: " + request.getQueryString(), e );
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST, e.getMessage() );
+            return;
+        }
+
+        // the first chunk is read before anything is written to let the validation failure to be reported
+        PaymentConfig.TransactionPage chunk;
+        try
+        {
+            chunk = config.pageTransactions( filter );
+        }
+        catch ( ApiValidationException e )
+        {
+            LOGGER.warn( "Transaction export query params are invalid: " + request.getQueryString(), e );
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST, e.getMessage() );
+            return;
+        }
+
+        response.setStatus( HttpServletResponse.SC_OK );
+        response.setCharacterEncoding( StandardCharsets.UTF_8.name() );
+        response.setContentType( csv ? "text/csv" : "application/x-ndjson" );
+        response.setHeader( "Content-Disposition", "attachment; filename=\"transactions." + ( csv ? "csv" : "ndjson" ) + "\"" );
+
+        int count = 0;
+        Writer writer = new BufferedWriter( new OutputStreamWriter( response.getOutputStream(), StandardCharsets.UTF_8 ) );
+
+        try ( SequenceWriter json = csv ? null : objectMapper.writerFor( Transaction.class )
+                .with( new StdDateFormat().withTimeZone( TimeZone.getTimeZone( zone ) ) )
+                .withRootValueSeparator( "\n" )
+                .writeValues( writer ) )
+        {
+            DateTimeFormatter formatter = DateTimeFormatter.ISO_OFFSET_DATE_TIME.withZone( zone );
+            if ( csv )
+            {
+                writeCsvLine( writer, CSV_HEADER );
+            }
+
+            while ( true )
+            {
+                // bank accounts of the whole chunk loaded in single batch
+                List<CommonTransaction> items = chunk.getItems();
+                MappingContext context = new MappingContext( new HashMap<>() );
+                context.setProperty( CompanyBankAccount.class, CommonTransaction.loadBankAccounts( items ) );
+
+                for ( CommonTransaction next : items )
+                {
+                    Transaction transaction = mapper.map( next, Transaction.class, context );
+                    if ( csv )
+                    {
+                        writeCsvLine( writer, csvValues( transaction, formatter ) );
+                    }
+                    else
+                    {
+                        json.write( transaction );
+                    }
+                    count++;
+                }
+
+                if ( json != null )
+                {
+                    json.flush();
+                }
+                writer.flush();
+
+                // releases already written entities from the session cache, keeps the memory constant
+                ofy().clear();
+
+                if ( chunk.getNextPageToken() == null )
+                {
+                    break;
+                }
+
+                filter.pageToken( chunk.getNextPageToken() );
+                chunk = config.pageTransactions( filter );
+            }
+        }
+        catch ( Exception e )
+        {
+            // the response has been already committed, the client gets a truncated content
+            LOGGER.error( "Transaction export has failed after " + count + " transactions: " + request.getQueryString(), e );
+            throw new IOException( e );
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        LOGGER.info( count + " transactions has been exported" );
+    }
+
+    private static Long parseLong( String value )
+    {
+        return Strings.isNullOrEmpty( value ) ? null : Long.valueOf( value );
+    }
+
+    private static LocalDate parseDate( String value )
+    {
+        return Strings.isNullOrEmpty( value ) ? null : LocalDate.parse( value );
+    }
+
+    private static Object[] csvValues( Transaction transaction, DateTimeFormatter formatter )
+    {
+        TransactionBank bank = transaction.getBankAccount();
+        CounterpartyBankAccount counterparty = transaction.getCounterparty();
+        Date completedAt = transaction.getCompletedAt();
+        List<TransactionCategory> categories = transaction.getCategories();
+
+        return new Object[]{
+                transaction.getTransactionId(),
+                transaction.getKey(),
+                bank == null ? null : bank.getCode(),
+                bank == null ? null : bank.getIban(),
+                transaction.getCredit(),
+                transaction.getAmount(),
+                transaction.getCurrency(),
+                transaction.getBillAmount(),
+                transaction.getBillCurrency(),
+                transaction.getBalance(),
+                transaction.getStatus(),
+                transaction.getType(),
+                transaction.getReference(),
+                completedAt == null ? null : formatter.format( completedAt.toInstant() ),
+                counterparty == null ? null : counterparty.getName(),
+                counterparty == null ? null : counterparty.getIban(),
+                counterparty == null ? null : counterparty.getBic(),
+                categories == null ? null : categories.stream()
+                        .map( TransactionCategory::getName )
+                        .collect( Collectors.joining( "|" ) )
+        };
+    }
+
+    static void writeCsvLine( Writer writer, Object[] values ) throws IOException
+    {
+        for ( int index = 0; index < values.length; index++ )
+        {
+            if ( index > 0 )
+            {
+                writer.write( ',' );
+            }
+
+            Object value = values[index];
+            if ( value != null )
+            {
+                String text = value.toString();
+                if ( text.indexOf( ',' ) >= 0
+                        || text.indexOf( '"' ) >= 0
+                        || text.indexOf( '\n' ) >= 0
+                        || text.indexOf( '\r' ) >= 0 )
+                {
+                    writer.write( '"' );
+                    writer.write( text.replace( "\"", "\"\"" ) );
+                    writer.write( '"' );
+                }
+                else
+                {
+                    writer.write( text );
+                }
+            }
+        }
+        writer.write( "\r\n" );
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.api;
+
+import biz.turnonline.ecosystem.payment.service.model.ReplayCheckpoint;
+import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionReplayTask;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Starts the replay of all transactions from their stored origins, processed by {@link TransactionReplayTask}.
+ * The replay runs in dry-run mode unless {@code dryRun=false} query parameter has been provided.
+ * The progress and the differences found are available in {@link ReplayCheckpoint}.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Singleton
+public class TransactionReplay
+        extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( TransactionReplay.class );
+
+    private final TaskExecutor executor;
+
+    @Inject
+    public TransactionReplay( TaskExecutor executor )
+    {
+        this.executor = executor;
+    }
+
+    @Override
+    protected void doPost( HttpServletRequest request, HttpServletResponse response ) throws IOException
+    {
+        boolean dryRun = !"false".equalsIgnoreCase( request.getParameter( "dryRun" ) );
+
+        ReplayCheckpoint checkpoint = ReplayCheckpoint.next( dryRun );
+        executor.schedule( new TransactionReplayTask( checkpoint.getGeneration() ) );
+        LOGGER.info( "Replay of transactions has been scheduled: " + checkpoint );
+
+        response.setStatus( HttpServletResponse.SC_ACCEPTED );
+        response.setContentType( "text/plain" );
+        response.getWriter().write( "Replay generation " + checkpoint.getGeneration()
+                + ( dryRun ? " (dry-run)" : "" ) + " has been scheduled" );
+    }
+}
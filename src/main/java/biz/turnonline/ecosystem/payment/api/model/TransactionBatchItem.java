@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.api.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+/**
+ * The single item of the transactions batch get, either the transaction or an error if not found.
+ */
+public class TransactionBatchItem
+{
+    @JsonProperty( "transactionId" )
+    private Long transactionId;
+
+    @JsonProperty( "transaction" )
+    private Transaction transaction;
+
+    @JsonProperty( "error" )
+    private String error;
+
+    public TransactionBatchItem transactionId( Long transactionId )
+    {
+        this.transactionId = transactionId;
+        return this;
+    }
+
+    /**
+     * The requested transaction identification.
+     **/
+    @JsonProperty( "transactionId" )
+    public Long getTransactionId()
+    {
+        return transactionId;
+    }
+
+    public void setTransactionId( Long transactionId )
+    {
+        this.transactionId = transactionId;
+    }
+
+    public TransactionBatchItem transaction( Transaction transaction )
+    {
+        this.transaction = transaction;
+        return this;
+    }
+
+    /**
+     * The transaction, {@code null} if not found.
+     **/
+    @JsonProperty( "transaction" )
+    public Transaction getTransaction()
+    {
+        return transaction;
+    }
+
+    public void setTransaction( Transaction transaction )
+    {
+        this.transaction = transaction;
+    }
+
+    public TransactionBatchItem error( String error )
+    {
+        this.error = error;
+        return this;
+    }
+
+    /**
+     * The error message if the transaction has not been found.
+     **/
+    @JsonProperty( "error" )
+    public String getError()
+    {
+        return error;
+    }
+
+    public void setError( String error )
+    {
+        this.error = error;
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        if ( this == o )
+        {
+            return true;
+        }
+        if ( o == null || getClass() != o.getClass() )
+        {
+            return false;
+        }
+        TransactionBatchItem item = ( TransactionBatchItem ) o;
+        return Objects.equals( this.transactionId, item.transactionId ) &&
+                Objects.equals( this.transaction, item.transaction ) &&
+                Objects.equals( this.error, item.error );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash( transactionId, transaction, error );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "class TransactionBatchItem {\n" +
+                "    transactionId: " + toIndentedString( transactionId ) + "\n" +
+                "    transaction: " + toIndentedString( transaction ) + "\n" +
+                "    error: " + toIndentedString( error ) + "\n" +
+                "}";
+    }
+
+    /**
+     * Convert the given object to string with each line indented by 4 spaces
+     * (except the first line).
+     */
+    private String toIndentedString( Object o )
+    {
+        if ( o == null )
+        {
+            return "null";
+        }
+        return o.toString().replace( "\n", "\n    " );
+    }
+}
@@ -1,5 +1,6 @@
 package biz.turnonline.ecosystem.payment.service;
 
+import biz.turnonline.ecosystem.payment.service.category.CategoryRuleSet;
 import biz.turnonline.ecosystem.payment.service.model.Category;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 import biz.turnonline.ecosystem.payment.service.model.TransactionCategory;
@@ -59,4 +60,21 @@ public interface CategoryService
      * @return list of applied {@link Category}
      */
     List<TransactionCategory> resolveCategories( CommonTransaction transaction );
+
+    /**
+     * Apply categories for {@link CommonTransaction} by the specified rules
+     *
+     * @param transaction {@link CommonTransaction}
+     * @param rules       the rules to be evaluated, see {@link #compileRules()}
+     * @return list of applied {@link Category}
+     */
+    List<TransactionCategory> resolveCategories( CommonTransaction transaction, @Nonnull CategoryRuleSet rules );
+
+    /**
+     * Compiles the rules of the current categories, regardless of the rules cached within this instance.
+     * Intended for background processing, that has to take the changes made by any instance into account.
+     *
+     * @return the freshly compiled rules
+     */
+    CategoryRuleSet compileRules();
 }
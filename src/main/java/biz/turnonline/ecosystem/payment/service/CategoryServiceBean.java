@@ -1,5 +1,6 @@
 package biz.turnonline.ecosystem.payment.service;
 
+import biz.turnonline.ecosystem.payment.service.category.CategoryRuleSet;
 import biz.turnonline.ecosystem.payment.service.category.TransactionCategoryPredicate;
 import biz.turnonline.ecosystem.payment.service.category.TransactionCategoryPredicateForAmount;
 import biz.turnonline.ecosystem.payment.service.category.TransactionCategoryPredicateForCounterpartyIban;
@@ -9,10 +10,12 @@ import biz.turnonline.ecosystem.payment.service.category.TransactionCategoryPred
 import biz.turnonline.ecosystem.payment.service.category.TransactionCategoryPredicateForReference;
 import biz.turnonline.ecosystem.payment.service.model.Category;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.RecategorisationCheckpoint;
 import biz.turnonline.ecosystem.payment.service.model.TransactionCategory;
 import ma.glasnost.orika.MapperFacade;
 import org.ctoolkit.services.storage.EntityExecutor;
 import org.ctoolkit.services.storage.criteria.Criteria;
+import org.ctoolkit.services.task.TaskExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,7 +33,6 @@ import static com.googlecode.objectify.ObjectifyService.ofy;
  *
  * @author <a href="mailto:pohorelec@turnonline.biz">Jozef Pohorelec</a>
  */
-// TODO: cache categories
 @Singleton
 public class CategoryServiceBean
         implements CategoryService
@@ -41,13 +43,18 @@ public class CategoryServiceBean
 
     private final EntityExecutor datastore;
 
+    private final TaskExecutor executor;
+
     private List<TransactionCategoryPredicate> predicates = new ArrayList<>();
 
+    private volatile CategoryRuleSet rules;
+
     @Inject
-    CategoryServiceBean( MapperFacade mapper, EntityExecutor datastore )
+    CategoryServiceBean( MapperFacade mapper, EntityExecutor datastore, TaskExecutor executor )
     {
         this.mapper = mapper;
         this.datastore = datastore;
+        this.executor = executor;
 
         predicates.add( new TransactionCategoryPredicateForName() );
         predicates.add( new TransactionCategoryPredicateForAmount() );
@@ -73,6 +80,7 @@ public class CategoryServiceBean
     public Category create( @Nonnull Category category )
     {
         category.save();
+        recategorise();
         return category;
     }
 
@@ -80,6 +88,7 @@ public class CategoryServiceBean
     public Category update( @Nonnull Category category )
     {
         category.save();
+        recategorise();
         return category;
     }
 
@@ -87,40 +96,58 @@ public class CategoryServiceBean
     public void delete( @Nonnull Category category )
     {
         category.delete();
+        recategorise();
     }
 
     @Override
     public List<TransactionCategory> resolveCategories( CommonTransaction transaction )
     {
-        return getCategories().stream()
-                .filter( category -> filterCategory( category, transaction ) )
+        return resolveCategories( transaction, categoryRules() );
+    }
+
+    @Override
+    public List<TransactionCategory> resolveCategories( CommonTransaction transaction,
+                                                        @Nonnull CategoryRuleSet rules )
+    {
+        return rules.resolve( transaction ).stream()
                 .map( category -> mapper.map( category, TransactionCategory.class ) )
                 .collect( Collectors.toList() );
     }
 
-    private boolean filterCategory( Category category, CommonTransaction transaction )
+    @Override
+    public CategoryRuleSet compileRules()
+    {
+        long version = Category.version();
+        List<Category> categories = getCategories();
+        LOGGER.info( "Rules of " + categories.size() + " categories has been compiled." );
+
+        return new CategoryRuleSet( version, categories, predicates );
+    }
+
+    /**
+     * Starts a new generation of the background re-categorisation of all transactions,
+     * the one in progress (if any) will be discarded.
+     */
+    private void recategorise()
+    {
+        RecategorisationCheckpoint checkpoint = RecategorisationCheckpoint.next();
+        executor.schedule( new TransactionRecategorisationTask( checkpoint.getGeneration() ) );
+        LOGGER.info( "Re-categorisation of transactions has been scheduled: " + checkpoint );
+    }
+
+    /**
+     * Returns the compiled category rules, compiled again only if outdated.
+     * The rules are bound to the category version read prior to the categories,
+     * so a category saved while compiling invalidates them right away.
+     */
+    private CategoryRuleSet categoryRules()
     {
-        return category.getFilters().stream()
-                .filter( filter ->
-                        predicates.stream()
-                                .filter( predicate -> predicate.apply( filter, transaction ) )
-                                .filter( predicate -> {
-                                    try
-                                    {
-                                        return predicate.resolve( filter, transaction );
-                                    }
-                                    catch ( Exception e )
-                                    {
-                                        LOGGER.warn( "Unable to resolve category predicate", e );
-                                        return false;
-                                    }
-                                } )
-                                .map( predicate -> true )
-                                .findAny()
-                                .orElse( false )
-                )
-                .map( predicate -> true )
-                .findAny()
-                .orElse( false );
+        CategoryRuleSet rules = this.rules;
+        if ( rules == null || !rules.isValid() )
+        {
+            rules = compileRules();
+            this.rules = rules;
+        }
+        return rules;
     }
 }
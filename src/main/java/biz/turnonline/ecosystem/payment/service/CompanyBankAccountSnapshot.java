@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service;
+
+import biz.turnonline.ecosystem.payment.service.model.BankAccount;
+import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The immutable snapshot of all company bank accounts, indexed by country for the primary bank account lookup.
+ * The primary bank account per country is resolved in the natural order of the bank accounts.
+ * <p>
+ * The snapshot is bound to the {@link BankAccount#version()} taken before the bank accounts were loaded,
+ * thus any bank account saved or deleted within this instance makes the snapshot outdated.
+ * The changes made by another instance are taken into account once the snapshot expires.
+ * <p>
+ * The bank accounts of the snapshot are shared across requests, thus only copies are being handed out.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+final class CompanyBankAccountSnapshot
+{
+    static final long EXPIRATION_MILLIS = 60 * 1000;
+
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private final long generation;
+
+    private final long version;
+
+    private final long created;
+
+    private final List<CompanyBankAccount> bankAccounts;
+
+    private final Map<String, CompanyBankAccount> primaryByCountry;
+
+    private final CompanyBankAccount primary;
+
+    /**
+     * Creates the snapshot.
+     *
+     * @param version      the bank account version taken before the bank accounts has been loaded
+     * @param bankAccounts the list of all company bank accounts
+     */
+    CompanyBankAccountSnapshot( long version, @Nonnull List<CompanyBankAccount> bankAccounts )
+    {
+        this.generation = GENERATION.get();
+        this.version = version;
+        this.created = System.currentTimeMillis();
+
+        List<CompanyBankAccount> list = new ArrayList<>( checkNotNull( bankAccounts, "Bank accounts cannot be null" ) );
+        Collections.sort( list );
+
+        Map<String, CompanyBankAccount> byCountry = new HashMap<>();
+        CompanyBankAccount first = null;
+
+        for ( CompanyBankAccount next : list )
+        {
+            if ( next.isPrimary() )
+            {
+                if ( first == null )
+                {
+                    first = next;
+                }
+                if ( next.getCountry() != null )
+                {
+                    byCountry.putIfAbsent( next.getCountry(), next );
+                }
+            }
+        }
+
+        this.bankAccounts = ImmutableList.copyOf( bankAccounts );
+        this.primaryByCountry = ImmutableMap.copyOf( byCountry );
+        this.primary = first;
+    }
+
+    /**
+     * Makes all of the snapshots taken so far outdated.
+     */
+    @VisibleForTesting
+    static void invalidateAll()
+    {
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * Returns {@code true} if there was no change of any bank account since the snapshot has been taken
+     * and the snapshot has not expired yet.
+     */
+    boolean isValid()
+    {
+        return generation == GENERATION.get()
+                && version == BankAccount.version()
+                && System.currentTimeMillis() - created < EXPIRATION_MILLIS;
+    }
+
+    /**
+     * Returns the copies of all company bank accounts in the order as they have been loaded.
+     * The returned list and bank accounts might be modified by the caller, without impact on the snapshot.
+     */
+    List<CompanyBankAccount> getBankAccounts()
+    {
+        List<CompanyBankAccount> copies = new ArrayList<>( bankAccounts.size() );
+        bankAccounts.forEach( bankAccount -> copies.add( bankAccount.copy() ) );
+        return copies;
+    }
+
+    /**
+     * Returns the primary bank account for the given country.
+     * If there is no primary bank account for the country, any primary bank account will be returned.
+     *
+     * @param country the ISO 3166 alpha-2 country code
+     * @return the copy of the primary bank account or {@code null} if none
+     */
+    CompanyBankAccount getPrimary( @Nullable String country )
+    {
+        CompanyBankAccount bankAccount = country == null ? null : primaryByCountry.get( country );
+        bankAccount = bankAccount == null ? primary : bankAccount;
+        return bankAccount == null ? null : bankAccount.copy();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service;
+
+import biz.turnonline.ecosystem.payment.service.model.TaskPayloadBlob;
+import biz.turnonline.ecosystem.payment.service.model.TransactionSyncSequence;
+import biz.turnonline.ecosystem.payment.service.model.WebhookDelivery;
+import com.googlecode.objectify.Key;
+import org.ctoolkit.services.task.Task;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.Date;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Deletes the records past their expiration, identified by the indexed 'expireAt' property.
+ * Records are being deleted in chunks by keys only query, one chunk per task, kind by kind.
+ * A full chunk means there might be more expired records, thus the same kind is scheduled again.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ * @see WebhookDelivery
+ * @see TransactionSyncSequence
+ * @see TaskPayloadBlob
+ */
+public class ExpiredRecordsPurgeTask
+        extends Task<WebhookDelivery>
+{
+    static final int CHUNK_SIZE = 500;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( ExpiredRecordsPurgeTask.class );
+
+    private static final long serialVersionUID = 6404185623306961947L;
+
+    private final Kind kind;
+
+    @Inject
+    transient private TaskExecutor executor;
+
+    /**
+     * Constructor to purge all of the kinds.
+     */
+    public ExpiredRecordsPurgeTask()
+    {
+        this( Kind.values()[0] );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param kind the kind of the records to be purged
+     */
+    ExpiredRecordsPurgeTask( @Nonnull Kind kind )
+    {
+        super( "Expired-Records-Purge" );
+        this.kind = checkNotNull( kind, "Kind can't be null" );
+    }
+
+    @Override
+    protected void execute()
+    {
+        List<? extends Key<?>> expired = ofy().load()
+                .type( kind.type )
+                .filter( "expireAt <", new Date() )
+                .limit( CHUNK_SIZE )
+                .keys()
+                .list();
+
+        ofy().delete().keys( expired ).now();
+        LOGGER.info( expired.size() + " expired records of " + kind + " has been purged" );
+
+        if ( expired.size() == CHUNK_SIZE )
+        {
+            executor.schedule( new ExpiredRecordsPurgeTask( kind ) );
+        }
+        else if ( kind.ordinal() + 1 < Kind.values().length )
+        {
+            executor.schedule( new ExpiredRecordsPurgeTask( Kind.values()[kind.ordinal() + 1] ) );
+        }
+    }
+
+    /**
+     * The kinds with expiring records, purged in the order of declaration.
+     */
+    enum Kind
+    {
+        WEBHOOK_DELIVERY( WebhookDelivery.class ),
+        TRANSACTION_SYNC_SEQUENCE( TransactionSyncSequence.class ),
+        TASK_PAYLOAD_BLOB( TaskPayloadBlob.class );
+
+        private final Class<?> type;
+
+        Kind( @Nonnull Class<?> type )
+        {
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service;
+
+import biz.turnonline.ecosystem.payment.service.model.BankAccount;
+import biz.turnonline.ecosystem.payment.service.model.BankAccountExternalId;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.TransactionInvoiceId;
+import com.google.cloud.datastore.Cursor;
+import com.google.common.base.Strings;
+import com.googlecode.objectify.cmd.Query;
+import com.googlecode.objectify.cmd.QueryResultIterator;
+import org.ctoolkit.services.task.Task;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * One-off backfill of the lookup records for the entities saved before the lookup records have been introduced
+ * or re-keyed. The read paths resolve the entities by lookup records only, a missing record means not found.
+ * <p>
+ * Entities are being processed in chunks, one chunk per task, stage by stage. Once a chunk has been processed
+ * the task for the next chunk (or for the next stage) is being scheduled.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ * @see BankAccountExternalId
+ * @see TransactionInvoiceId
+ */
+public class LookupRecordsBackfillTask
+        extends Task<BankAccount>
+{
+    static final int CHUNK_SIZE = 200;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( LookupRecordsBackfillTask.class );
+
+    private static final long serialVersionUID = 2716458033175140542L;
+
+    private final Stage stage;
+
+    private final String cursor;
+
+    @Inject
+    transient private TaskExecutor executor;
+
+    /**
+     * Constructor to start the backfill from the very beginning.
+     */
+    public LookupRecordsBackfillTask()
+    {
+        this( Stage.values()[0], null );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stage  the stage to be processed
+     * @param cursor the cursor the chunk starts at, {@code null} to start at the beginning of the stage
+     */
+    LookupRecordsBackfillTask( @Nonnull Stage stage, @Nullable String cursor )
+    {
+        super( "Lookup-Records-Backfill" );
+        this.stage = checkNotNull( stage, "Stage can't be null" );
+        this.cursor = cursor;
+    }
+
+    @Override
+    protected void execute()
+    {
+        Query<?> query = ofy().load().type( stage.type ).limit( CHUNK_SIZE );
+        if ( !Strings.isNullOrEmpty( cursor ) )
+        {
+            query = query.startAt( Cursor.fromUrlSafe( cursor ) );
+        }
+
+        QueryResultIterator<?> iterator = query.iterator();
+        int count = 0;
+        while ( iterator.hasNext() )
+        {
+            stage.backfill( iterator.next() );
+            count++;
+        }
+
+        // release the processed entities from the session cache
+        ofy().clear();
+        LOGGER.info( "Lookup records of " + count + " entities at stage " + stage + " has been backfilled" );
+
+        if ( count == CHUNK_SIZE )
+        {
+            executor.schedule( new LookupRecordsBackfillTask( stage, iterator.getCursor().toUrlSafe() ) );
+        }
+        else if ( stage.ordinal() + 1 < Stage.values().length )
+        {
+            executor.schedule( new LookupRecordsBackfillTask( Stage.values()[stage.ordinal() + 1], null ) );
+        }
+        else
+        {
+            LOGGER.info( "Backfill of the lookup records has finished" );
+        }
+    }
+
+    /**
+     * The backfill stages, processed in the order of declaration.
+     */
+    enum Stage
+    {
+        BANK_ACCOUNTS( BankAccount.class )
+                {
+                    @Override
+                    void backfill( @Nonnull Object entity )
+                    {
+                        ( ( BankAccount ) entity ).backfillExternalIdRecords();
+                    }
+                },
+        TRANSACTIONS( CommonTransaction.class )
+                {
+                    @Override
+                    void backfill( @Nonnull Object entity )
+                    {
+                        ( ( CommonTransaction ) entity ).backfillLookupRecords();
+                    }
+                };
+
+        private final Class<?> type;
+
+        Stage( @Nonnull Class<?> type )
+        {
+            this.type = type;
+        }
+
+        /**
+         * Creates or re-keys the lookup records of the given entity.
+         *
+         * @param entity the entity of the type of this stage
+         */
+        abstract void backfill( @Nonnull Object entity );
+    }
+}
@@ -25,6 +25,7 @@ import biz.turnonline.ecosystem.billing.model.Transaction;
 import biz.turnonline.ecosystem.payment.oauth.RevolutCertMetadata;
 import biz.turnonline.ecosystem.payment.oauth.RevolutCredentialAdministration;
 import biz.turnonline.ecosystem.payment.service.model.BankAccount;
+import biz.turnonline.ecosystem.payment.service.model.BankAccountExternalId;
 import biz.turnonline.ecosystem.payment.service.model.BankCode;
 import biz.turnonline.ecosystem.payment.service.model.BeneficiaryBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.Category;
@@ -36,10 +37,22 @@ import biz.turnonline.ecosystem.payment.service.model.LocalAccountProviderImpl;
 import biz.turnonline.ecosystem.payment.service.model.LocalDeputyAccount;
 import biz.turnonline.ecosystem.payment.service.model.PaymentBeanMapperConfig;
 import biz.turnonline.ecosystem.payment.service.model.PaymentLocalAccount;
+import biz.turnonline.ecosystem.payment.service.model.RecategorisationCheckpoint;
+import biz.turnonline.ecosystem.payment.service.model.ReconciliationCheckpoint;
+import biz.turnonline.ecosystem.payment.service.model.ReplayCheckpoint;
+import biz.turnonline.ecosystem.payment.service.model.TaskPayloadBlob;
 import biz.turnonline.ecosystem.payment.service.model.Timestamp;
+import biz.turnonline.ecosystem.payment.service.model.TransactionExternalId;
 import biz.turnonline.ecosystem.payment.service.model.TransactionInvoice;
+import biz.turnonline.ecosystem.payment.service.model.TransactionInvoiceId;
+import biz.turnonline.ecosystem.payment.service.model.TransactionOrigin;
+import biz.turnonline.ecosystem.payment.service.model.TransactionOutbox;
 import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
+import biz.turnonline.ecosystem.payment.service.model.TransactionSyncSequence;
+import biz.turnonline.ecosystem.payment.service.model.WebhookDelivery;
 import biz.turnonline.ecosystem.payment.subscription.SubscriptionsModule;
+import biz.turnonline.ecosystem.payment.subscription.TransactionBatch;
+import biz.turnonline.ecosystem.payment.subscription.TransactionBatchAdaptee;
 import biz.turnonline.ecosystem.revolut.business.facade.RevolutBusinessAdapterModule;
 import biz.turnonline.ecosystem.revolut.business.facade.RevolutBusinessClientModule;
 import biz.turnonline.ecosystem.revolut.business.oauth.JwtFactory;
@@ -136,6 +149,11 @@ public class MicroserviceModule
         {
         } ).to( TransactionAdaptee.class );
 
+        // bulk insert of the transactions for Ecosystem Product Billing service
+        bind( new TypeLiteral<InsertExecutorAdaptee<TransactionBatch>>()
+        {
+        } ).to( TransactionBatchAdaptee.class );
+
         bind( new TypeLiteral<GetExecutorAdaptee<Transaction>>()
         {
         } ).to( TransactionGetAdaptee.class );
@@ -196,12 +214,23 @@ public class MicroserviceModule
             factory.register( BankAccount.class );
             factory.register( CompanyBankAccount.class );
             factory.register( BeneficiaryBankAccount.class );
+            factory.register( BankAccountExternalId.class );
             factory.register( Timestamp.class );
             factory.register( RevolutCertMetadata.class );
             factory.register( CommonTransaction.class );
             factory.register( TransactionInvoice.class );
+            factory.register( TransactionInvoiceId.class );
+            factory.register( TransactionExternalId.class );
+            factory.register( TransactionOrigin.class );
             factory.register( TransactionReceipt.class );
             factory.register( Category.class );
+            factory.register( RecategorisationCheckpoint.class );
+            factory.register( WebhookDelivery.class );
+            factory.register( TransactionSyncSequence.class );
+            factory.register( ReconciliationCheckpoint.class );
+            factory.register( ReplayCheckpoint.class );
+            factory.register( TransactionOutbox.class );
+            factory.register( TaskPayloadBlob.class );
         }
     }
 
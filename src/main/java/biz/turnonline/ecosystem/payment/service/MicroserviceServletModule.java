@@ -18,8 +18,14 @@
 
 package biz.turnonline.ecosystem.payment.service;
 
+import biz.turnonline.ecosystem.payment.api.LookupRecordsBackfill;
+import biz.turnonline.ecosystem.payment.api.TransactionExport;
+import biz.turnonline.ecosystem.payment.api.TransactionReplay;
 import biz.turnonline.ecosystem.payment.oauth.RevolutOauth2AuthRedirect;
+import biz.turnonline.ecosystem.payment.subscription.ExpiredRecordsPurgeCron;
 import biz.turnonline.ecosystem.payment.subscription.RevolutWebhookSubscription;
+import biz.turnonline.ecosystem.payment.subscription.TransactionOutboxCron;
+import biz.turnonline.ecosystem.payment.subscription.TransactionReconciliationCron;
 import com.google.inject.servlet.ServletModule;
 
 /**
@@ -28,9 +34,33 @@ import com.google.inject.servlet.ServletModule;
  * Path '/revolut/oauth2' mapped to servlet that processes OAuth2
  * redirection to authorise access to Revolut Business API.
  * </p>
+ * <p>
+ * Path '/export/transactions' mapped to servlet that streams the transactions as NDJSON or CSV.
+ * </p>
+ * <p>
+ * Path '/cron/revolut/reconciliation' mapped to cron handler that reconciles Revolut transactions.
+ * </p>
+ * <p>
+ * Path '/cron/transactions/replay' mapped to admin handler that replays transactions from their origins.
+ * </p>
+ * <p>
+ * Path '/cron/billing/outbox' mapped to cron handler that flushes transactions waiting to be pushed to product-billing.
+ * </p>
+ * <p>
+ * Path '/cron/lookup/backfill' mapped to admin handler that backfills the lookup records of the legacy entities.
+ * </p>
+ * <p>
+ * Path '/cron/purge/expired' mapped to cron handler that purges the records past their expiration.
+ * </p>
  *
  * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ * @see ExpiredRecordsPurgeCron
+ * @see LookupRecordsBackfill
  * @see RevolutOauth2AuthRedirect
+ * @see TransactionExport
+ * @see TransactionOutboxCron
+ * @see TransactionReconciliationCron
+ * @see TransactionReplay
  */
 public class MicroserviceServletModule
         extends ServletModule
@@ -40,5 +70,11 @@ public class MicroserviceServletModule
     {
         serve( "/revolut/oauth2" ).with( RevolutOauth2AuthRedirect.class );
         serve( "/revolut/webhook" ).with( RevolutWebhookSubscription.class );
+        serve( "/export/transactions" ).with( TransactionExport.class );
+        serve( "/cron/revolut/reconciliation" ).with( TransactionReconciliationCron.class );
+        serve( "/cron/transactions/replay" ).with( TransactionReplay.class );
+        serve( "/cron/billing/outbox" ).with( TransactionOutboxCron.class );
+        serve( "/cron/lookup/backfill" ).with( LookupRecordsBackfill.class );
+        serve( "/cron/purge/expired" ).with( ExpiredRecordsPurgeCron.class );
     }
 }
@@ -27,12 +27,17 @@ import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.FormOfPayment;
 import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
 import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
+import com.google.common.collect.ImmutableList;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Payment configuration and execution.
@@ -44,6 +49,7 @@ public interface PaymentConfig
     String TRUST_PAY_BANK_CODE = "9952";
     String REVOLUT_BANK_CODE = "REVO";
     String REVOLUT_BANK_EU_CODE = "32500";
+    List<String> REVOLUT_BANK_CODES = ImmutableList.of( REVOLUT_BANK_CODE, REVOLUT_BANK_EU_CODE );
 
     /**
      * Enables API access to bank account.
@@ -73,12 +79,13 @@ public interface PaymentConfig
     CompanyBankAccount getBankAccount( @Nonnull Long id );
 
     /**
-     * Returns the bank account for given external ID.
+     * Returns the bank account for given external ID issued by any of the specified banks.
      *
+     * @param bankCodes  the codes of the banks the external ID might belong to
      * @param externalId the external ID of the bank account to be found
      * @return the bank account or {@code null} if not found
      */
-    CompanyBankAccount getBankAccount( @Nonnull String externalId );
+    CompanyBankAccount getBankAccount( @Nonnull Collection<String> bankCodes, @Nonnull String externalId );
 
     /**
      * Returns the list of filtered bank accounts that's being owned by specified owner.
@@ -182,6 +189,17 @@ public interface PaymentConfig
      */
     BeneficiaryBankAccount getBeneficiary( @Nonnull String iban );
 
+    /**
+     * Returns the beneficiary bank account for specified external ID, the identification of the counterparty
+     * within the bank it has been synced to.
+     *
+     * @param bankCodes  the codes of the banks the beneficiary might have been synced to
+     * @param externalId the external identification of the beneficiary bank account
+     * @return the beneficiary bank account or {@code null} if not found
+     */
+    BeneficiaryBankAccount getBeneficiaryByExternalId( @Nonnull Collection<String> bankCodes,
+                                                       @Nonnull String externalId );
+
     /**
      * Checks whether the beneficiary bank account for specified IBAN already exists.
      *
@@ -231,6 +249,14 @@ public interface PaymentConfig
      */
     CommonTransaction getTransaction( @Nonnull Long id );
 
+    /**
+     * Get transactions for specified Ids within a single datastore round trip.
+     *
+     * @param ids the identifications of the transactions
+     * @return the found transactions keyed by Id, the missing Ids are not present
+     */
+    Map<Long, CommonTransaction> getTransactions( @Nonnull Collection<Long> ids );
+
     /**
      * Searches a transaction for specified external Id.
      *
@@ -249,6 +275,16 @@ public interface PaymentConfig
      */
     List<CommonTransaction> filterTransactions( @Nonnull Filter filter );
 
+    /**
+     * Pages through the transactions based on the filter criteria by the cursor, see {@link Filter#pageToken(String)}.
+     * The offset of the filter is being ignored.
+     *
+     * @param filter convenient filter criteria builder
+     * @return the page of transactions that meets the filter criteria, along with the next page token
+     * @throws ApiValidationException if some of the filter criteria has an invalid value
+     */
+    TransactionPage pageTransactions( @Nonnull Filter filter );
+
     enum Operation
     {
         CREDIT,
@@ -278,6 +314,8 @@ public interface PaymentConfig
 
         private Integer limit;
 
+        private String pageToken;
+
         public Long getAccountId()
         {
             return accountId;
@@ -418,5 +456,51 @@ public interface PaymentConfig
             this.limit = limit;
             return this;
         }
+
+        public String getPageToken()
+        {
+            return pageToken;
+        }
+
+        /**
+         * The cursor (web safe string) of the position to continue with the next page of transactions,
+         * taken from {@link TransactionPage#getNextPageToken()}.
+         * Used only by {@link PaymentConfig#pageTransactions(Filter)}.
+         */
+        public Filter pageToken( String pageToken )
+        {
+            this.pageToken = pageToken;
+            return this;
+        }
+    }
+
+    /**
+     * The page of the transactions, see {@link PaymentConfig#pageTransactions(Filter)}.
+     */
+    class TransactionPage
+    {
+        private final List<CommonTransaction> items;
+
+        private final String nextPageToken;
+
+        public TransactionPage( @Nonnull List<CommonTransaction> items, @Nullable String nextPageToken )
+        {
+            this.items = checkNotNull( items, "Transactions can't be null" );
+            this.nextPageToken = nextPageToken;
+        }
+
+        public List<CommonTransaction> getItems()
+        {
+            return items;
+        }
+
+        /**
+         * Returns the cursor to retrieve the next page of transactions.
+         * {@code null} means there are no more transactions to retrieve.
+         */
+        public String getNextPageToken()
+        {
+            return nextPageToken;
+        }
     }
 }
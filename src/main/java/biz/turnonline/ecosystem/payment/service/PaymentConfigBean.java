@@ -23,6 +23,8 @@ import biz.turnonline.ecosystem.payment.api.ApiValidationException;
 import biz.turnonline.ecosystem.payment.api.model.Certificate;
 import biz.turnonline.ecosystem.payment.oauth.RevolutCertMetadata;
 import biz.turnonline.ecosystem.payment.oauth.RevolutCredentialAdministration;
+import biz.turnonline.ecosystem.payment.service.model.BankAccount;
+import biz.turnonline.ecosystem.payment.service.model.BankAccountExternalId;
 import biz.turnonline.ecosystem.payment.service.model.BankCode;
 import biz.turnonline.ecosystem.payment.service.model.BeneficiaryBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
@@ -31,14 +33,23 @@ import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.FormOfPayment;
 import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
 import biz.turnonline.ecosystem.payment.service.model.PaymentLocalAccount;
+import biz.turnonline.ecosystem.payment.service.model.TransactionExternalId;
 import biz.turnonline.ecosystem.payment.service.model.TransactionInvoice;
+import biz.turnonline.ecosystem.payment.service.model.TransactionInvoiceId;
 import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
 import biz.turnonline.ecosystem.payment.service.revolut.RevolutDebtorBankAccountsInit;
 import com.google.cloud.ServiceOptions;
+import com.google.cloud.datastore.Cursor;
+import com.google.cloud.datastore.DatastoreException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Ordering;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+import com.googlecode.objectify.cmd.QueryResultIterator;
 import nl.garvelink.iban.IBAN;
 import org.ctoolkit.services.storage.EntityExecutor;
 import org.ctoolkit.services.storage.criteria.Criteria;
@@ -60,7 +71,9 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -94,6 +107,16 @@ class PaymentConfigBean
 
     private final LocalAccountProvider lap;
 
+    /**
+     * Bounded cache of the bank account keys identified by external ID, shared across requests on the instance.
+     */
+    private final Cache<String, Key<?>> extIdCache = CacheBuilder.newBuilder()
+            .maximumSize( 500 )
+            .expireAfterAccess( 1, TimeUnit.HOURS )
+            .build();
+
+    private volatile CompanyBankAccountSnapshot snapshot;
+
     @Inject
     PaymentConfigBean( EntityExecutor datastore,
                        CodeBook codeBook,
@@ -173,19 +196,45 @@ class PaymentConfigBean
     }
 
     @Override
-    public CompanyBankAccount getBankAccount( @Nonnull String externalId )
+    public CompanyBankAccount getBankAccount( @Nonnull Collection<String> bankCodes, @Nonnull String externalId )
     {
+        checkNotNull( bankCodes, TEMPLATE, "Bank codes" );
         checkNotNull( externalId, TEMPLATE, "External Id" );
 
-        Criteria<CompanyBankAccount> criteria = Criteria.of( CompanyBankAccount.class );
-        for ( CompanyBankAccount bankAccount : datastore.list( criteria ) )
+        String cacheKey = bankCodes + ":" + externalId;
+        Key<?> key = extIdCache.getIfPresent( cacheKey );
+        if ( key == null )
+        {
+            key = BankAccountExternalId.lookup( bankCodes, externalId );
+        }
+
+        CompanyBankAccount bankAccount = key == null ? null : loadBankAccount( key, externalId );
+        if ( bankAccount == null )
+        {
+            extIdCache.invalidate( cacheKey );
+        }
+        else
+        {
+            extIdCache.put( cacheKey, Key.create( bankAccount ) );
+        }
+
+        return bankAccount;
+    }
+
+    /**
+     * Loads the company bank account for given key, but only if it still has the specified external ID.
+     */
+    private CompanyBankAccount loadBankAccount( @Nonnull Key<?> key, @Nonnull String externalId )
+    {
+        Object loaded = ofy().load().key( key ).now();
+        if ( loaded instanceof CompanyBankAccount )
         {
+            CompanyBankAccount bankAccount = ( CompanyBankAccount ) loaded;
             if ( externalId.equals( bankAccount.getExternalId() ) )
             {
                 return bankAccount;
             }
         }
-
         return null;
     }
 
@@ -286,6 +335,7 @@ class PaymentConfigBean
             bankAccount.setPrimary( true );
             bankAccount.save();
         } );
+        snapshot = null;
 
         return bankAccount;
     }
@@ -310,30 +360,25 @@ class PaymentConfigBean
     CompanyBankAccount getInternalPrimaryBankAccount( @Nullable String country )
     {
         LocalAccount account = checkNotNull( lap.get(), TEMPLATE, "LocalAccount" );
-        List<CompanyBankAccount> list = internalGetBankAccounts( null, null, null, null );
-        Collections.sort( list );
-
         country = country == null ? account.getDomicile().name() : country;
 
-        Predicate<CompanyBankAccount> and = new BankAccountCountryPredicate( country ).and( new BankAccountPrimary() );
-        Collection<CompanyBankAccount> filtered = list
-                .stream()
-                .filter( and )
-                .collect( Collectors.toList() );
-
-        CompanyBankAccount bankAccount;
+        return bankAccountSnapshot().getPrimary( country );
+    }
 
-        if ( filtered.isEmpty() )
-        {
-            // no match yet, thus return any bank account marked as primary
-            bankAccount = list.stream().filter( new BankAccountPrimary() ).findFirst().orElse( null );
-        }
-        else
+    /**
+     * Returns the snapshot of all company bank accounts, taken again only if outdated.
+     */
+    private CompanyBankAccountSnapshot bankAccountSnapshot()
+    {
+        CompanyBankAccountSnapshot snapshot = this.snapshot;
+        if ( snapshot == null || !snapshot.isValid() )
         {
-            bankAccount = filtered.iterator().next();
+            // version taken before loading, a concurrent change makes the snapshot outdated immediately
+            long version = BankAccount.version();
+            snapshot = new CompanyBankAccountSnapshot( version, internalGetBankAccounts( null, null, null, null ) );
+            this.snapshot = snapshot;
         }
-
-        return bankAccount;
+        return snapshot;
     }
 
     @Override
@@ -347,7 +392,21 @@ class PaymentConfigBean
         country = country == null ? account.getDomicile().name() : country;
         locale = account.getLocale( locale );
 
-        List<CompanyBankAccount> list = internalGetBankAccounts( offset, limit, null, null );
+        List<CompanyBankAccount> list;
+        if ( offset == null || offset == 0 )
+        {
+            // the first page is served from the snapshot, limited the same way as the query would be
+            list = bankAccountSnapshot().getBankAccounts();
+            if ( offset != null )
+            {
+                int size = limit == null ? 10 : limit;
+                list = new ArrayList<>( list.subList( 0, Math.min( size, list.size() ) ) );
+            }
+        }
+        else
+        {
+            list = internalGetBankAccounts( offset, limit, null, null );
+        }
         list.sort( new BankAccountSellerSorting( country ) );
         Iterator<CompanyBankAccount> iterator = list.iterator();
 
@@ -412,6 +471,29 @@ class PaymentConfigBean
         return datastore.first( criteria );
     }
 
+    @Override
+    public BeneficiaryBankAccount getBeneficiaryByExternalId( @Nonnull Collection<String> bankCodes,
+                                                              @Nonnull String externalId )
+    {
+        checkNotNull( bankCodes, TEMPLATE, "Bank codes" );
+        checkNotNull( externalId, TEMPLATE, "External Id" );
+
+        Key<BankAccount> key = BankAccountExternalId.lookup( bankCodes, externalId );
+        Object loaded = key == null ? null : ofy().load().key( key ).now();
+        if ( loaded instanceof BeneficiaryBankAccount )
+        {
+            BeneficiaryBankAccount beneficiary = ( BeneficiaryBankAccount ) loaded;
+            for ( String code : bankCodes )
+            {
+                if ( externalId.equals( beneficiary.getExternalId( code ) ) )
+                {
+                    return beneficiary;
+                }
+            }
+        }
+        return null;
+    }
+
     @Override
     public boolean isBeneficiary( @Nonnull String iban )
     {
@@ -422,24 +504,33 @@ class PaymentConfigBean
     @Override
     public CommonTransaction initGetTransactionDraft( long orderId, long invoiceId )
     {
-        List<TransactionInvoice> list = datastore.list( transactionInvoiceCriteria( orderId, invoiceId ) );
-        TransactionInvoice transaction;
-
-        if ( list.isEmpty() )
+        CommonTransaction transaction = loadTransactionDraft( orderId, invoiceId );
+        if ( transaction != null )
         {
-            transaction = new TransactionInvoice( orderId, invoiceId );
-            transaction.save();
+            return transaction;
         }
-        else
-        {
-            transaction = list.get( 0 );
-            if ( list.size() > 1 )
+
+        return ofy().transact( () -> {
+            // strongly consistent check within transaction, a concurrent delivery might have created it meanwhile
+            CommonTransaction draft = loadTransactionDraft( orderId, invoiceId );
+            if ( draft == null )
             {
-                LOGGER.warn( "Expected only single transaction, got " + list.size() );
+                draft = new TransactionInvoice( orderId, invoiceId );
+                draft.save();
             }
-        }
+            return draft;
+        } );
+    }
 
-        return transaction;
+    /**
+     * Loads the transaction draft via invoice lookup record.
+     *
+     * @return the transaction or {@code null} if lookup record or transaction itself not found
+     */
+    private CommonTransaction loadTransactionDraft( long orderId, long invoiceId )
+    {
+        TransactionInvoiceId record = TransactionInvoiceId.lookup( orderId, invoiceId );
+        return record == null ? null : ofy().load().key( record.getTransaction() ).now();
     }
 
     @Override
@@ -513,29 +604,31 @@ class PaymentConfigBean
     }
 
     @Override
-    public CommonTransaction searchTransaction( @Nonnull String extId )
+    public Map<Long, CommonTransaction> getTransactions( @Nonnull Collection<Long> ids )
     {
-        Criteria<CommonTransaction> criteria = Criteria.of( CommonTransaction.class );
-        criteria.equal( "extId", extId );
-        List<CommonTransaction> transactions = datastore.list( criteria );
+        checkNotNull( ids, TEMPLATE, "Transaction IDs" );
 
-        CommonTransaction transaction;
-        if ( !transactions.isEmpty() )
+        if ( ids.isEmpty() )
         {
-            transaction = transactions.get( 0 );
-
-            int size = transactions.size();
-            if ( size > 1 )
-            {
-                LOGGER.warn( "There are more transactions for single Ext ID: " + extId + ", number of records " + size );
-            }
+            return Collections.emptyMap();
         }
-        else
+
+        return ofy().load().type( CommonTransaction.class ).ids( ids );
+    }
+
+    @Override
+    public CommonTransaction searchTransaction( @Nonnull String extId )
+    {
+        checkNotNull( extId, TEMPLATE, "External Id" );
+
+        Key<CommonTransaction> key = TransactionExternalId.lookup( extId );
+        CommonTransaction transaction = key == null ? null : ofy().load().key( key ).now();
+        if ( transaction != null && extId.equals( transaction.getExternalId() ) )
         {
-            throw new TransactionNotFound( extId );
+            return transaction;
         }
 
-        return transaction;
+        throw new TransactionNotFound( extId );
     }
 
     @Override
@@ -548,47 +641,27 @@ class PaymentConfigBean
         {
             throw ApiValidationException.prepare( "errors.validation.query.offset.invalid", offset );
         }
-        if ( limit != null && limit < 0 )
-        {
-            throw ApiValidationException.prepare( "errors.validation.query.limit.invalid", limit );
-        }
+        checkLimit( limit );
+
+        Operation operation = operation( filter );
+        State status = status( filter );
+        FormOfPayment paymentType = paymentType( filter );
 
         Criteria<CommonTransaction> criteria = Criteria.of( CommonTransaction.class );
         criteria.descending( "createdDate" );
 
-        try
+        if ( CREDIT == operation )
         {
-            String op = Strings.isNullOrEmpty( filter.getOperation() ) ? BOTH.name() : filter.getOperation();
-            Operation operation = valueOf( op.toUpperCase() );
-
-            if ( CREDIT == operation )
-            {
-                criteria.equal( "credit", true );
-            }
-            else if ( DEBIT == operation )
-            {
-                criteria.equal( "credit", false );
-            }
+            criteria.equal( "credit", true );
         }
-        catch ( IllegalArgumentException e )
+        else if ( DEBIT == operation )
         {
-            String key = "errors.validation.query.operation.invalid";
-            throw ApiValidationException.prepare( key, filter.getOperation() );
+            criteria.equal( "credit", false );
         }
 
-        try
-        {
-            State status = Strings.isNullOrEmpty( filter.getStatus() ) ? null :
-                    State.valueOf( filter.getStatus().toUpperCase() );
-            if ( status != null )
-            {
-                criteria.equal( "status", status.name() );
-            }
-        }
-        catch ( IllegalArgumentException e )
+        if ( status != null )
         {
-            String key = "errors.validation.query.status.invalid";
-            throw ApiValidationException.prepare( key, filter.getStatus() );
+            criteria.equal( "status", status.name() );
         }
 
         if ( filter.getCreatedDateFrom() != null )
@@ -623,31 +696,183 @@ class PaymentConfigBean
             criteria.offset( offset );
         }
 
-        String type = Strings.isNullOrEmpty( filter.getType() ) ? null : filter.getType();
-        FormOfPayment paymentType = null;
-        if ( type != null )
+        if ( paymentType != null )
+        {
+            criteria.equal( "type", paymentType );
+        }
+
+        criteria.limit( limit == null ? 20 : limit );
+
+        List<CommonTransaction> list = datastore.list( criteria );
+        LOGGER.info( list.size() + " transactions has found." );
+
+        return list;
+    }
+
+    /**
+     * The datastore cursor can't be resumed through the {@link Criteria} query,
+     * thus the cursor based paging runs the same query directly on Objectify.
+     */
+    @Override
+    public TransactionPage pageTransactions( @Nonnull Filter filter )
+    {
+        Integer limit = filter.getLimit();
+        checkLimit( limit );
+
+        Operation operation = operation( filter );
+        State status = status( filter );
+        FormOfPayment paymentType = paymentType( filter );
+
+        String pageToken = filter.getPageToken();
+        Cursor cursor = null;
+        if ( !Strings.isNullOrEmpty( pageToken ) )
         {
             try
             {
-                paymentType = FormOfPayment.valueOf( type.toUpperCase() );
+                cursor = Cursor.fromUrlSafe( pageToken );
             }
-            catch ( IllegalArgumentException e )
+            catch ( IllegalArgumentException | IllegalStateException e )
             {
-                throw ApiValidationException.prepare( "errors.validation.query.paymentType.invalid", type );
+                throw ApiValidationException.prepare( "errors.validation.query.pageToken.invalid", pageToken );
+            }
+        }
+
+        Query<CommonTransaction> query = ofy().load().type( CommonTransaction.class );
+
+        if ( CREDIT == operation )
+        {
+            query = query.filter( "credit", true );
+        }
+        else if ( DEBIT == operation )
+        {
+            query = query.filter( "credit", false );
+        }
+
+        if ( status != null )
+        {
+            query = query.filter( "status", status.name() );
+        }
+
+        if ( filter.getCreatedDateFrom() != null )
+        {
+            query = query.filter( "createdDate >=", filter.getCreatedDateFrom() );
+        }
+        if ( filter.getCreatedDateTo() != null )
+        {
+            query = query.filter( "createdDate <=", filter.getCreatedDateTo() );
+        }
+
+        Long accountId = filter.getAccountId();
+        if ( accountId != null )
+        {
+            query = query.filter( "accountKey", Key.create( CompanyBankAccount.class, accountId ) );
+        }
+
+        Long orderId = filter.getOrderId();
+        Long invoiceId = filter.getInvoiceId();
+
+        if ( orderId != null )
+        {
+            query = query.filter( "orderId", orderId );
+            if ( invoiceId != null )
+            {
+                query = query.filter( "invoiceId", invoiceId );
             }
         }
 
         if ( paymentType != null )
         {
-            criteria.equal( "type", paymentType );
+            query = query.filter( "type", paymentType.name() );
         }
 
-        criteria.limit( limit == null ? 20 : limit );
+        query = query.order( "-createdDate" );
+        if ( cursor != null )
+        {
+            query = query.startAt( cursor );
+        }
+
+        int size = limit == null ? 20 : limit;
+        query = query.limit( size );
+
+        List<CommonTransaction> list = new ArrayList<>();
+        String nextPageToken;
+        try
+        {
+            QueryResultIterator<CommonTransaction> iterator = query.iterator();
+            while ( iterator.hasNext() )
+            {
+                list.add( iterator.next() );
+            }
+
+            // a full page means there might be more records, next page starts where this one ends
+            nextPageToken = list.size() < size || size == 0 ? null : iterator.getCursor().toUrlSafe();
+        }
+        catch ( DatastoreException e )
+        {
+            if ( cursor == null || ( e.getCode() != 400 && !"INVALID_ARGUMENT".equals( e.getReason() ) ) )
+            {
+                throw e;
+            }
+            // well formed token, but rejected by the datastore as a cursor of this query
+            throw ApiValidationException.prepare( "errors.validation.query.pageToken.invalid", pageToken );
+        }
 
-        List<CommonTransaction> list = datastore.list( criteria );
         LOGGER.info( list.size() + " transactions has found." );
+        return new TransactionPage( list, nextPageToken );
+    }
 
-        return list;
+    private void checkLimit( Integer limit )
+    {
+        if ( limit != null && limit < 0 )
+        {
+            throw ApiValidationException.prepare( "errors.validation.query.limit.invalid", limit );
+        }
+    }
+
+    private Operation operation( @Nonnull Filter filter )
+    {
+        try
+        {
+            String op = Strings.isNullOrEmpty( filter.getOperation() ) ? BOTH.name() : filter.getOperation();
+            return valueOf( op.toUpperCase() );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            String key = "errors.validation.query.operation.invalid";
+            throw ApiValidationException.prepare( key, filter.getOperation() );
+        }
+    }
+
+    private State status( @Nonnull Filter filter )
+    {
+        try
+        {
+            return Strings.isNullOrEmpty( filter.getStatus() ) ? null :
+                    State.valueOf( filter.getStatus().toUpperCase() );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            String key = "errors.validation.query.status.invalid";
+            throw ApiValidationException.prepare( key, filter.getStatus() );
+        }
+    }
+
+    private FormOfPayment paymentType( @Nonnull Filter filter )
+    {
+        String type = Strings.isNullOrEmpty( filter.getType() ) ? null : filter.getType();
+        if ( type == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            return FormOfPayment.valueOf( type.toUpperCase() );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw ApiValidationException.prepare( "errors.validation.query.paymentType.invalid", type );
+        }
     }
 
     private Criteria<BeneficiaryBankAccount> beneficiaryQuery( @Nonnull String iban )
@@ -671,23 +896,6 @@ class PaymentConfigBean
         }
     }
 
-    private static class BankAccountCountryPredicate
-            implements Predicate<CompanyBankAccount>
-    {
-        private final String countryCode;
-
-        BankAccountCountryPredicate( String countryCode )
-        {
-            this.countryCode = checkNotNull( countryCode );
-        }
-
-        @Override
-        public boolean test( @Nullable CompanyBankAccount input )
-        {
-            return input != null && countryCode.equals( input.getCountry() );
-        }
-    }
-
     private static class BankAccountSellerSorting
             implements Comparator<CompanyBankAccount>, Serializable
     {
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service;
+
+import biz.turnonline.ecosystem.payment.service.category.CategoryRuleSet;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.RecategorisationCheckpoint;
+import biz.turnonline.ecosystem.payment.service.model.TransactionCategory;
+import com.google.cloud.datastore.Cursor;
+import com.google.common.base.Strings;
+import com.googlecode.objectify.cmd.Query;
+import com.googlecode.objectify.cmd.QueryResultIterator;
+import org.ctoolkit.services.task.Task;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Re-evaluates the categories of all transactions once the categories have changed.
+ * Transactions are being processed in chunks, one chunk per task. Only transactions whose categories
+ * have changed are being saved. Once a chunk has been saved the {@link RecategorisationCheckpoint}
+ * moves behind it and the task for the next chunk is being scheduled.
+ * <p>
+ * The task is bound to the generation of the checkpoint. If categories have changed in the meantime,
+ * a new generation has been started and this task will quit without any action.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionRecategorisationTask
+        extends Task<RecategorisationCheckpoint>
+{
+    static final int CHUNK_SIZE = 200;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( TransactionRecategorisationTask.class );
+
+    private static final long serialVersionUID = -1284567710353349722L;
+
+    private final long generation;
+
+    @Inject
+    transient private CategoryService categoryService;
+
+    @Inject
+    transient private TaskExecutor executor;
+
+    /**
+     * Constructor.
+     *
+     * @param generation the generation of the re-categorisation this task belongs to
+     */
+    public TransactionRecategorisationTask( long generation )
+    {
+        super( "Transaction-Recategorisation" );
+        setEntityKey( RecategorisationCheckpoint.key() );
+        this.generation = generation;
+    }
+
+    @Override
+    protected void execute()
+    {
+        RecategorisationCheckpoint checkpoint = workWith();
+        if ( checkpoint == null || checkpoint.getGeneration() != generation || checkpoint.isDone() )
+        {
+            LOGGER.info( "Re-categorisation of generation " + generation + " has been superseded or finished: "
+                    + checkpoint );
+            return;
+        }
+
+        Query<CommonTransaction> query = ofy().load().type( CommonTransaction.class ).limit( CHUNK_SIZE );
+        if ( !Strings.isNullOrEmpty( checkpoint.getCursor() ) )
+        {
+            query = query.startAt( Cursor.fromUrlSafe( checkpoint.getCursor() ) );
+        }
+
+        // compiled for each chunk, the rules cached by this instance might miss changes made by another instance
+        CategoryRuleSet rules = categoryService.compileRules();
+
+        List<Long> changed = new ArrayList<>();
+        QueryResultIterator<CommonTransaction> iterator = query.iterator();
+        int count = 0;
+        while ( iterator.hasNext() )
+        {
+            CommonTransaction transaction = iterator.next();
+            count++;
+
+            List<TransactionCategory> categories = categoryService.resolveCategories( transaction, rules );
+            if ( !categories.equals( transaction.getCategories() ) )
+            {
+                changed.add( transaction.getId() );
+            }
+        }
+
+        // a full chunk means there might be more transactions, next chunk starts where this one ends
+        String cursor = count < CHUNK_SIZE ? null : iterator.getCursor().toUrlSafe();
+
+        // only the categories are being set, to the transaction loaded within a transaction,
+        // the transaction might have been updated concurrently since the chunk has been loaded
+        int saved = 0;
+        for ( Long id : changed )
+        {
+            boolean updated = CommonTransaction.update( id, current -> {
+                List<TransactionCategory> categories = categoryService.resolveCategories( current, rules );
+                if ( categories.equals( current.getCategories() ) )
+                {
+                    return false;
+                }
+
+                current.setCategories( categories );
+                return true;
+            } );
+            saved += updated ? 1 : 0;
+        }
+
+        int processed = count;
+        int updated = saved;
+
+        boolean current = ofy().transact( () -> {
+            RecategorisationCheckpoint latest = ofy().load().key( RecategorisationCheckpoint.key() ).now();
+            if ( latest == null || latest.getGeneration() != generation )
+            {
+                return false;
+            }
+
+            latest.advance( cursor, processed, updated );
+            ofy().defer().save().entity( latest );
+            return true;
+        } );
+
+        if ( !current )
+        {
+            LOGGER.info( "Re-categorisation of generation " + generation + " has been superseded" );
+        }
+        else if ( cursor == null )
+        {
+            LOGGER.info( "Re-categorisation of generation " + generation + " has finished" );
+        }
+        else
+        {
+            executor.schedule( new TransactionRecategorisationTask( generation ) );
+        }
+
+        LOGGER.info( "Categories of " + updated + " out of " + processed + " transactions has been updated." );
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.category;
+
+import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.CounterpartyBankAccount;
+import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Per property index of the category filters, the categories are referenced by its position.
+ * Equality filters are indexed in hash maps, amount comparisons in sorted maps keyed by the threshold.
+ * A lookup costs only the filters that match, not all of the filters.
+ * <p>
+ * The index gives the same result as the corresponding {@link TransactionCategoryPredicate}.
+ * Filters that are not indexable (for example {@link CategoryFilter.Operation#REGEXP}) are not accepted.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+final class CategoryIndex
+{
+    private final Map<String, List<Integer>> currency = new HashMap<>();
+
+    private final Map<String, List<Integer>> counterpartyIban = new HashMap<>();
+
+    private final Map<String, List<Integer>> name = new HashMap<>();
+
+    private final Map<String, List<Integer>> reference = new HashMap<>();
+
+    private final Map<Boolean, List<Integer>> credit = new HashMap<>();
+
+    private final Map<Double, List<Integer>> amountEq = new HashMap<>();
+
+    private final NavigableMap<Double, List<Integer>> amountLt = new TreeMap<>();
+
+    private final NavigableMap<Double, List<Integer>> amountLte = new TreeMap<>();
+
+    private final NavigableMap<Double, List<Integer>> amountGt = new TreeMap<>();
+
+    private final NavigableMap<Double, List<Integer>> amountGte = new TreeMap<>();
+
+    private static <K> void put( Map<K, List<Integer>> index, K key, int category )
+    {
+        index.computeIfAbsent( key, k -> new ArrayList<>() ).add( category );
+    }
+
+    private static void mark( List<Integer> categories, BitSet matched )
+    {
+        if ( categories != null )
+        {
+            categories.forEach( matched::set );
+        }
+    }
+
+    private static void mark( Collection<List<Integer>> categories, BitSet matched )
+    {
+        categories.forEach( next -> mark( next, matched ) );
+    }
+
+    /**
+     * Adds the filter to the index if indexable.
+     *
+     * @param filter   the category filter to be indexed
+     * @param category the position of the category the filter belongs to
+     * @return {@code true} if the filter has been accepted by the index
+     * @throws RuntimeException if the filter value is invalid
+     */
+    boolean add( @Nonnull CategoryFilter filter, int category )
+    {
+        CategoryFilter.PropertyName property = filter.getPropertyName();
+        CategoryFilter.Operation operation = filter.getOperation();
+        if ( property == null || operation == null )
+        {
+            return false;
+        }
+
+        if ( property == CategoryFilter.PropertyName.AMOUNT && operation != CategoryFilter.Operation.REGEXP )
+        {
+            // normalized, -0.0 and 0.0 are equal in comparison
+            double threshold = Double.parseDouble( filter.getPropertyValue() ) + 0.0;
+            if ( Double.isNaN( threshold ) )
+            {
+                // never matches
+                return true;
+            }
+
+            switch ( operation )
+            {
+                case LT:
+                    put( amountLt, threshold, category );
+                    break;
+                case LTE:
+                    put( amountLte, threshold, category );
+                    break;
+                case GT:
+                    put( amountGt, threshold, category );
+                    break;
+                case GTE:
+                    put( amountGte, threshold, category );
+                    break;
+                default:
+                    put( amountEq, threshold, category );
+            }
+            return true;
+        }
+
+        if ( operation != CategoryFilter.Operation.EQ )
+        {
+            return false;
+        }
+
+        String value = filter.getPropertyValue();
+        switch ( property )
+        {
+            case CURRENCY:
+                put( currency, checkNotNull( value ), category );
+                return true;
+            case COUNTERPARTY_IBAN:
+                put( counterpartyIban, checkNotNull( value ), category );
+                return true;
+            case NAME:
+                put( name, checkNotNull( value ), category );
+                return true;
+            case REFERENCE:
+                put( reference, checkNotNull( value ), category );
+                return true;
+            case CREDIT:
+                put( credit, Boolean.parseBoolean( value ), category );
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Marks the positions of the categories whose indexed filters match the given transaction.
+     *
+     * @param transaction the transaction to be matched
+     * @param matched     the positions of the matching categories
+     */
+    void match( @Nonnull CommonTransaction transaction, @Nonnull BitSet matched )
+    {
+        mark( currency.get( transaction.getCurrency() ), matched );
+        mark( credit.get( transaction.isCredit() ), matched );
+
+        CounterpartyBankAccount counterparty = transaction.getCounterparty();
+        if ( counterparty != null && counterparty.getIban() != null )
+        {
+            mark( counterpartyIban.get( counterparty.getIban() ), matched );
+        }
+
+        if ( transaction instanceof TransactionReceipt )
+        {
+            mark( name.get( ( ( TransactionReceipt ) transaction ).getMerchantName() ), matched );
+            mark( reference.get( transaction.getReference() ), matched );
+        }
+
+        Double value = transaction.getAmount();
+        if ( value != null && !value.isNaN() )
+        {
+            double amount = value + 0.0;
+            mark( amountEq.get( amount ), matched );
+            // amount > threshold, thus all of the thresholds lower than amount
+            mark( amountGt.headMap( amount, false ).values(), matched );
+            mark( amountGte.headMap( amount, true ).values(), matched );
+            // amount < threshold, thus all of the thresholds greater than amount
+            mark( amountLt.tailMap( amount, false ).values(), matched );
+            mark( amountLte.tailMap( amount, true ).values(), matched );
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.category;
+
+import biz.turnonline.ecosystem.payment.service.model.Category;
+import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The immutable set of category rules compiled from all of the categories and its filters.
+ * Category matches the transaction if any of its filters matches.
+ * <p>
+ * Indexable filters are looked up via {@link CategoryIndex}, the rest of the filters
+ * (for example regular expressions) are evaluated one by one as compiled predicates.
+ * <p>
+ * The rule set is bound to the {@link Category#version()} taken before the categories were loaded,
+ * thus any category saved or deleted within this instance makes the rule set outdated.
+ * The changes made by another instance are taken into account once the rule set expires.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public final class CategoryRuleSet
+{
+    static final long EXPIRATION_MILLIS = 60 * 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( CategoryRuleSet.class );
+
+    private final long version;
+
+    private final long created;
+
+    private final List<Category> categories;
+
+    private final CategoryIndex index;
+
+    private final List<Rule> rules;
+
+    /**
+     * Compiles the rule set.
+     *
+     * @param version    the category version taken before the categories has been loaded
+     * @param categories the list of all categories
+     * @param predicates the predicates to compile category filters with
+     */
+    public CategoryRuleSet( long version,
+                            @Nonnull List<Category> categories,
+                            @Nonnull List<TransactionCategoryPredicate> predicates )
+    {
+        checkNotNull( categories, "Categories cannot be null" );
+        checkNotNull( predicates, "Predicates cannot be null" );
+
+        this.version = version;
+        this.created = System.currentTimeMillis();
+
+        CategoryIndex index = new CategoryIndex();
+        List<Rule> rules = new ArrayList<>();
+
+        for ( int position = 0; position < categories.size(); position++ )
+        {
+            Category category = categories.get( position );
+            for ( CategoryFilter filter : category.getFilters() )
+            {
+                try
+                {
+                    if ( index.add( filter, position ) )
+                    {
+                        continue;
+                    }
+                }
+                catch ( Exception e )
+                {
+                    LOGGER.warn( "Unable to index category filter " + filter + " of " + category.getId(), e );
+                    continue;
+                }
+
+                for ( TransactionCategoryPredicate predicate : predicates )
+                {
+                    if ( predicate.property() != filter.getPropertyName() )
+                    {
+                        continue;
+                    }
+
+                    try
+                    {
+                        rules.add( new Rule( position, filter, predicate, predicate.compile( filter ) ) );
+                    }
+                    catch ( Exception e )
+                    {
+                        LOGGER.warn( "Unable to compile category filter " + filter + " of " + category.getId(), e );
+                    }
+                }
+            }
+        }
+
+        this.categories = ImmutableList.copyOf( categories );
+        this.index = index;
+        this.rules = ImmutableList.copyOf( rules );
+    }
+
+    /**
+     * Returns {@code true} if there was no change of any category since the rule set has been compiled
+     * and the rule set has not expired yet.
+     */
+    public boolean isValid()
+    {
+        return version == Category.version() && System.currentTimeMillis() - created < EXPIRATION_MILLIS;
+    }
+
+    /**
+     * Returns the categories that match the given transaction, in the order as they have been loaded.
+     *
+     * @param transaction the transaction to be categorized
+     * @return the list of matching categories
+     */
+    public List<Category> resolve( @Nonnull CommonTransaction transaction )
+    {
+        BitSet matched = new BitSet( categories.size() );
+        index.match( transaction, matched );
+
+        for ( Rule rule : rules )
+        {
+            if ( !matched.get( rule.category ) && rule.test( transaction ) )
+            {
+                matched.set( rule.category );
+            }
+        }
+
+        List<Category> result = new ArrayList<>();
+        for ( int position = matched.nextSetBit( 0 ); position >= 0; position = matched.nextSetBit( position + 1 ) )
+        {
+            result.add( categories.get( position ) );
+        }
+        return result;
+    }
+
+    private static class Rule
+    {
+        private final int category;
+
+        private final CategoryFilter filter;
+
+        private final TransactionCategoryPredicate predicate;
+
+        private final Predicate<CommonTransaction> compiled;
+
+        Rule( int category,
+              CategoryFilter filter,
+              TransactionCategoryPredicate predicate,
+              Predicate<CommonTransaction> compiled )
+        {
+            this.category = category;
+            this.filter = filter;
+            this.predicate = predicate;
+            this.compiled = compiled;
+        }
+
+        boolean test( CommonTransaction transaction )
+        {
+            if ( !predicate.apply( filter, transaction ) )
+            {
+                return false;
+            }
+
+            try
+            {
+                return compiled.test( transaction );
+            }
+            catch ( Exception e )
+            {
+                LOGGER.warn( "Unable to resolve category predicate", e );
+                return false;
+            }
+        }
+    }
+}
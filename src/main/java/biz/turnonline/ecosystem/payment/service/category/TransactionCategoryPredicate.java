@@ -3,12 +3,32 @@ package biz.turnonline.ecosystem.payment.service.category;
 import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 
+import java.util.function.Predicate;
+
 /**
  * @author <a href="mailto:pohorelec@turnonline.biz">Jozef Pohorelec</a>
  */
 public interface TransactionCategoryPredicate
 {
+    /**
+     * Returns the filter property this predicate is designed for.
+     */
+    CategoryFilter.PropertyName property();
+
     boolean apply( CategoryFilter filter, CommonTransaction transaction);
 
     boolean resolve( CategoryFilter filter, CommonTransaction transaction );
+
+    /**
+     * Compiles the filter to the predicate that gives the same result as {@link #resolve(CategoryFilter, CommonTransaction)},
+     * with the filter value parsed only once. Evaluated only for transactions the filter applies to.
+     *
+     * @param filter the category filter to be compiled
+     * @return the compiled predicate
+     * @throws RuntimeException if the filter value is invalid
+     */
+    default Predicate<CommonTransaction> compile( CategoryFilter filter )
+    {
+        return transaction -> resolve( filter, transaction );
+    }
 }
@@ -3,6 +3,8 @@ package biz.turnonline.ecosystem.payment.service.category;
 import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 
+import java.util.function.Predicate;
+
 /**
  * Transaction category predicate for amount {@link CommonTransaction#getAmount()}
  *
@@ -11,6 +13,12 @@ import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 public class TransactionCategoryPredicateForAmount
         implements TransactionCategoryPredicate
 {
+    @Override
+    public CategoryFilter.PropertyName property()
+    {
+        return CategoryFilter.PropertyName.AMOUNT;
+    }
+
     @Override
     public boolean apply( CategoryFilter filter, CommonTransaction transaction )
     {
@@ -41,4 +49,26 @@ public class TransactionCategoryPredicateForAmount
 
         return false;
     }
+
+    @Override
+    public Predicate<CommonTransaction> compile( CategoryFilter filter )
+    {
+        double expected = Double.parseDouble( filter.getPropertyValue() );
+
+        switch ( filter.getOperation() )
+        {
+            case LT:
+                return transaction -> transaction.getAmount() < expected;
+            case LTE:
+                return transaction -> transaction.getAmount() <= expected;
+            case GT:
+                return transaction -> transaction.getAmount() > expected;
+            case GTE:
+                return transaction -> transaction.getAmount() >= expected;
+            case EQ:
+                return transaction -> transaction.getAmount() == expected;
+        }
+
+        return transaction -> false;
+    }
 }
@@ -4,8 +4,11 @@ import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 import biz.turnonline.ecosystem.payment.service.model.CounterpartyBankAccount;
 
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * Transaction category predicate for counterparty iban {@link CounterpartyBankAccount#getIban()}
  *
@@ -14,6 +17,12 @@ import java.util.regex.Pattern;
 public class TransactionCategoryPredicateForCounterpartyIban
         implements TransactionCategoryPredicate
 {
+    @Override
+    public CategoryFilter.PropertyName property()
+    {
+        return CategoryFilter.PropertyName.COUNTERPARTY_IBAN;
+    }
+
     @Override
     public boolean apply( CategoryFilter filter, CommonTransaction transaction )
     {
@@ -23,12 +32,13 @@ public class TransactionCategoryPredicateForCounterpartyIban
     @Override
     public boolean resolve( CategoryFilter filter, CommonTransaction transaction )
     {
-        if ( transaction.getCounterparty() == null )
+        CounterpartyBankAccount counterparty = transaction.getCounterparty();
+        if ( counterparty == null || counterparty.getIban() == null )
         {
             return false;
         }
 
-        String iban = transaction.getCounterparty().getIban();
+        String iban = counterparty.getIban();
         String expected = filter.getPropertyValue();
 
         CategoryFilter.Operation operation = filter.getOperation();
@@ -43,4 +53,33 @@ public class TransactionCategoryPredicateForCounterpartyIban
 
         return false;
     }
+
+    @Override
+    public Predicate<CommonTransaction> compile( CategoryFilter filter )
+    {
+        String expected = checkNotNull( filter.getPropertyValue() );
+
+        switch ( filter.getOperation() )
+        {
+            case EQ:
+                return transaction -> {
+                    String iban = ibanOf( transaction );
+                    return iban != null && iban.equals( expected );
+                };
+            case REGEXP:
+                Pattern pattern = Pattern.compile( expected );
+                return transaction -> {
+                    String iban = ibanOf( transaction );
+                    return iban != null && pattern.matcher( iban ).matches();
+                };
+        }
+
+        return transaction -> false;
+    }
+
+    private static String ibanOf( CommonTransaction transaction )
+    {
+        CounterpartyBankAccount counterparty = transaction.getCounterparty();
+        return counterparty == null ? null : counterparty.getIban();
+    }
 }
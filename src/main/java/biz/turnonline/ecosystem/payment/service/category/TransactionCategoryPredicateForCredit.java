@@ -3,6 +3,8 @@ package biz.turnonline.ecosystem.payment.service.category;
 import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 
+import java.util.function.Predicate;
+
 /**
  * Transaction category predicate for credit/debit {@link CommonTransaction#isCredit()}
  *
@@ -11,6 +13,12 @@ import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 public class TransactionCategoryPredicateForCredit
         implements TransactionCategoryPredicate
 {
+    @Override
+    public CategoryFilter.PropertyName property()
+    {
+        return CategoryFilter.PropertyName.CREDIT;
+    }
+
     @Override
     public boolean apply( CategoryFilter filter, CommonTransaction transaction )
     {
@@ -32,4 +40,17 @@ public class TransactionCategoryPredicateForCredit
 
         return false;
     }
+
+    @Override
+    public Predicate<CommonTransaction> compile( CategoryFilter filter )
+    {
+        boolean expected = Boolean.parseBoolean( filter.getPropertyValue() );
+
+        if ( filter.getOperation() == CategoryFilter.Operation.EQ )
+        {
+            return transaction -> transaction.isCredit() == expected;
+        }
+
+        return transaction -> false;
+    }
 }
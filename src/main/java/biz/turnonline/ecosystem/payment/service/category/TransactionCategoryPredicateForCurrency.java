@@ -3,6 +3,10 @@ package biz.turnonline.ecosystem.payment.service.category;
 import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * Transaction category predicate for currency {@link CommonTransaction#getCurrency()}
  *
@@ -11,6 +15,12 @@ import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 public class TransactionCategoryPredicateForCurrency
         implements TransactionCategoryPredicate
 {
+    @Override
+    public CategoryFilter.PropertyName property()
+    {
+        return CategoryFilter.PropertyName.CURRENCY;
+    }
+
     @Override
     public boolean apply( CategoryFilter filter, CommonTransaction transaction )
     {
@@ -32,4 +42,17 @@ public class TransactionCategoryPredicateForCurrency
 
         return false;
     }
+
+    @Override
+    public Predicate<CommonTransaction> compile( CategoryFilter filter )
+    {
+        String expected = checkNotNull( filter.getPropertyValue() );
+
+        if ( filter.getOperation() == CategoryFilter.Operation.EQ )
+        {
+            return transaction -> expected.equals( transaction.getCurrency() );
+        }
+
+        return transaction -> false;
+    }
 }
@@ -4,8 +4,11 @@ import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
 
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * Transaction category predicate for name {@link TransactionReceipt#getMerchantName()}
  *
@@ -14,6 +17,12 @@ import java.util.regex.Pattern;
 public class TransactionCategoryPredicateForName
         implements TransactionCategoryPredicate
 {
+    @Override
+    public CategoryFilter.PropertyName property()
+    {
+        return CategoryFilter.PropertyName.NAME;
+    }
+
     @Override
     public boolean apply( CategoryFilter filter, CommonTransaction transaction )
     {
@@ -39,4 +48,21 @@ public class TransactionCategoryPredicateForName
 
         return false;
     }
+
+    @Override
+    public Predicate<CommonTransaction> compile( CategoryFilter filter )
+    {
+        String expected = checkNotNull( filter.getPropertyValue() );
+
+        switch ( filter.getOperation() )
+        {
+            case EQ:
+                return transaction -> expected.equals( ( ( TransactionReceipt ) transaction ).getMerchantName() );
+            case REGEXP:
+                Pattern pattern = Pattern.compile( expected );
+                return transaction -> pattern.matcher( ( ( TransactionReceipt ) transaction ).getMerchantName() ).matches();
+        }
+
+        return transaction -> false;
+    }
 }
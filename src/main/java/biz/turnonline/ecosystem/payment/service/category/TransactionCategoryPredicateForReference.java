@@ -4,8 +4,11 @@ import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
 
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * Transaction category predicate for name {@link TransactionReceipt#getReference()} ()}
  *
@@ -14,6 +17,12 @@ import java.util.regex.Pattern;
 public class TransactionCategoryPredicateForReference
         implements TransactionCategoryPredicate
 {
+    @Override
+    public CategoryFilter.PropertyName property()
+    {
+        return CategoryFilter.PropertyName.REFERENCE;
+    }
+
     @Override
     public boolean apply( CategoryFilter filter, CommonTransaction transaction )
     {
@@ -39,4 +48,21 @@ public class TransactionCategoryPredicateForReference
 
         return false;
     }
+
+    @Override
+    public Predicate<CommonTransaction> compile( CategoryFilter filter )
+    {
+        String expected = checkNotNull( filter.getPropertyValue() );
+
+        switch ( filter.getOperation() )
+        {
+            case EQ:
+                return transaction -> expected.equals( transaction.getReference() );
+            case REGEXP:
+                Pattern pattern = Pattern.compile( expected );
+                return transaction -> pattern.matcher( transaction.getReference() ).matches();
+        }
+
+        return transaction -> false;
+    }
 }
@@ -24,9 +24,12 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Ordering;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.IgnoreSave;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnLoad;
 import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.condition.IfNull;
 import nl.garvelink.iban.IBAN;
@@ -38,11 +41,14 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Currency;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.googlecode.objectify.ObjectifyService.ofy;
@@ -61,6 +67,8 @@ public abstract class BankAccount
 
     private static final long serialVersionUID = -1593408359592897363L;
 
+    private static final AtomicLong VERSION = new AtomicLong();
+
     private final CodeBook codeBook;
 
     @Index
@@ -84,6 +92,12 @@ public abstract class BankAccount
     @IgnoreSave( IfNull.class )
     private Map<String, String> extIds;
 
+    /**
+     * The external IDs as last loaded from or saved to the datastore, used to remove stale lookup records.
+     */
+    @Ignore
+    private Map<String, String> storedExtIds;
+
     public BankAccount( CodeBook codeBook )
     {
         this.codeBook = codeBook;
@@ -306,6 +320,12 @@ public abstract class BankAccount
         this.country = country;
     }
 
+    @OnLoad
+    void onLoad()
+    {
+        storedExtIds = extIds == null ? null : new HashMap<>( extIds );
+    }
+
     @OnSave
     void onSave()
     {
@@ -368,15 +388,112 @@ public abstract class BankAccount
                 .result();
     }
 
+    /**
+     * Returns the list of external ID lookup records for all of the external IDs set for this bank account.
+     * Returns an empty list if the bank account has not been saved yet (no ID assigned).
+     *
+     * @return the list of lookup records
+     */
+    List<BankAccountExternalId> externalIdRecords()
+    {
+        List<BankAccountExternalId> records = new ArrayList<>();
+        if ( extIds == null || getId() == null )
+        {
+            return records;
+        }
+
+        Key<BankAccount> key = Key.create( this );
+        extIds.forEach( ( code, externalId ) -> {
+            if ( !Strings.isNullOrEmpty( externalId ) )
+            {
+                records.add( new BankAccountExternalId( externalId, code, key ) );
+            }
+        } );
+
+        return records;
+    }
+
+    /**
+     * Returns the keys of the lookup records of the external IDs that have been changed or removed
+     * since this bank account has been loaded or saved.
+     *
+     * @return the list of stale lookup record keys
+     */
+    List<Key<BankAccountExternalId>> staleExternalIdRecords()
+    {
+        List<Key<BankAccountExternalId>> stale = new ArrayList<>();
+        if ( storedExtIds == null )
+        {
+            return stale;
+        }
+
+        storedExtIds.forEach( ( code, externalId ) -> {
+            if ( !Strings.isNullOrEmpty( externalId )
+                    && ( extIds == null || !externalId.equals( extIds.get( code ) ) ) )
+            {
+                stale.add( Key.create( BankAccountExternalId.class, BankAccountExternalId.id( code, externalId ) ) );
+            }
+        } );
+
+        return stale;
+    }
+
+    /**
+     * Saves the bank account together with its external ID lookup records in single transaction.
+     * Lookup records of the external IDs changed in the meantime are being deleted.
+     */
     @Override
     public void save()
     {
-        ofy().transact( () -> ofy().defer().save().entity( this ) );
+        ofy().transact( () -> {
+            // saved synchronously to get an ID allocated for the lookup records
+            ofy().save().entity( this ).now();
+            ofy().defer().delete().keys( staleExternalIdRecords() );
+            ofy().defer().save().entities( externalIdRecords() );
+        } );
+        onLoad();
+        VERSION.incrementAndGet();
     }
 
     @Override
     public void delete()
     {
-        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+        ofy().transact( () -> {
+            ofy().defer().delete().keys( staleExternalIdRecords() );
+            ofy().defer().delete().entities( externalIdRecords() );
+            ofy().defer().delete().entity( this );
+        } );
+        VERSION.incrementAndGet();
+    }
+
+    /**
+     * Replaces the lookup records saved before they have been keyed by the bank code,
+     * identified by the external ID only, with the current ones.
+     * Intended to be run just once per bank account by the backfill.
+     */
+    public void backfillExternalIdRecords()
+    {
+        List<BankAccountExternalId> records = externalIdRecords();
+        if ( records.isEmpty() )
+        {
+            return;
+        }
+
+        List<Key<BankAccountExternalId>> legacy = new ArrayList<>();
+        records.forEach( record -> legacy.add( Key.create( BankAccountExternalId.class, record.getExternalId() ) ) );
+
+        ofy().transact( () -> {
+            ofy().defer().delete().keys( legacy );
+            ofy().defer().save().entities( records );
+        } );
+    }
+
+    /**
+     * Returns the version of the bank accounts within this instance, incremented on each save or delete.
+     * Any state derived from the bank accounts is valid as long as the version remains the same.
+     */
+    public static long version()
+    {
+        return VERSION.get();
     }
 }
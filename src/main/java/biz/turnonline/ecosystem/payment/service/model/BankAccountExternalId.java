@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The lookup entity to resolve a {@link BankAccount} by its external identification (bank system ID)
+ * via single key lookup instead of a query.
+ * <p>
+ * Identification of this entity is composed of the bank code and the external ID, see {@link #id(String, String)},
+ * as the external IDs are unique only within the bank that has issued them. Records are being kept in sync
+ * by {@link BankAccount#save()} and {@link BankAccount#delete()}.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_BankAccountExtId" )
+public class BankAccountExternalId
+        extends EntityStringIdentity
+{
+    private static final long serialVersionUID = -4392286005136658873L;
+
+    private Key<BankAccount> bankAccount;
+
+    private String bankCode;
+
+    private String externalId;
+
+    @SuppressWarnings( "unused" )
+    BankAccountExternalId()
+    {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param externalId  the external identification of the bank account within the bank
+     * @param bankCode    the bank code the external ID belongs to
+     * @param bankAccount the key of the associated bank account
+     */
+    BankAccountExternalId( @Nonnull String externalId,
+                           @Nonnull String bankCode,
+                           @Nonnull Key<BankAccount> bankAccount )
+    {
+        setId( id( bankCode, externalId ) );
+        this.externalId = externalId;
+        this.bankCode = bankCode;
+        this.bankAccount = checkNotNull( bankAccount, "Bank account key can't be null" );
+    }
+
+    /**
+     * Returns the identification of the lookup record for specified bank code and external ID.
+     *
+     * @param bankCode   the bank code the external ID belongs to
+     * @param externalId the external identification of the bank account within the bank
+     * @return the lookup record ID
+     */
+    public static String id( @Nonnull String bankCode, @Nonnull String externalId )
+    {
+        checkNotNull( bankCode, "Bank code can't be null" );
+        checkNotNull( externalId, "External ID can't be null" );
+        return bankCode.toUpperCase( Locale.ROOT ) + ":" + externalId;
+    }
+
+    /**
+     * Returns the key of the bank account for specified external ID issued by any of the given banks.
+     * All of the candidate records are being retrieved by single batch load, the first one found
+     * in the order of the bank codes wins.
+     *
+     * @param bankCodes  the codes of the banks the external ID might belong to
+     * @param externalId the external identification of the bank account
+     * @return the bank account key or {@code null} if not found
+     */
+    public static Key<BankAccount> lookup( @Nonnull Collection<String> bankCodes, @Nonnull String externalId )
+    {
+        checkNotNull( bankCodes, "Bank codes can't be null" );
+        checkNotNull( externalId, "External ID can't be null" );
+
+        List<String> ids = new ArrayList<>();
+        bankCodes.forEach( code -> ids.add( id( code, externalId ) ) );
+
+        Map<String, BankAccountExternalId> records = ofy().load().type( BankAccountExternalId.class ).ids( ids );
+        for ( String id : ids )
+        {
+            BankAccountExternalId record = records.get( id );
+            if ( record != null )
+            {
+                return record.getBankAccount();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The key of the bank account associated with this external ID.
+     */
+    public Key<BankAccount> getBankAccount()
+    {
+        return bankAccount;
+    }
+
+    /**
+     * The bank code the external ID belongs to.
+     */
+    public String getBankCode()
+    {
+        return bankCode;
+    }
+
+    /**
+     * The external identification of the bank account within the bank.
+     */
+    public String getExternalId()
+    {
+        return externalId;
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //20.01.2021 08:00:00 GMT+0100
+        return 1611126000000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "id", getId() )
+                .add( "externalId", externalId )
+                .add( "bankCode", bankCode )
+                .add( "bankAccount", bankAccount )
+                .toString();
+    }
+}
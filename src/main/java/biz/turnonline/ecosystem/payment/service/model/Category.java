@@ -5,6 +5,7 @@ import org.ctoolkit.services.datastore.objectify.EntityLongIdentity;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.googlecode.objectify.ObjectifyService.ofy;
 
@@ -19,6 +20,8 @@ public class Category
 {
     private static final long serialVersionUID = -3441427094809069028L;
 
+    private static final AtomicLong VERSION = new AtomicLong();
+
     private String color;
 
     private String name;
@@ -78,11 +81,22 @@ public class Category
     public void save()
     {
         ofy().transact( () -> ofy().defer().save().entity( this ) );
+        VERSION.incrementAndGet();
     }
 
     @Override
     public void delete()
     {
         ofy().transact( () -> ofy().defer().delete().entity( this ) );
+        VERSION.incrementAndGet();
+    }
+
+    /**
+     * Returns the version of the categories within this instance, incremented on each save or delete.
+     * Any state derived from the categories is valid as long as the version remains the same.
+     */
+    public static long version()
+    {
+        return VERSION.get();
     }
 }
@@ -22,7 +22,10 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.IgnoreSave;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.condition.IfTrue;
 import org.ctoolkit.services.datastore.objectify.EntityLongIdentity;
 import org.ctoolkit.services.datastore.objectify.IndexCreatedDate;
 import org.ctoolkit.services.datastore.objectify.IndexModificationDate;
@@ -31,9 +34,18 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.googlecode.objectify.ObjectifyService.ofy;
@@ -87,8 +99,24 @@ public abstract class CommonTransaction
     @Index
     private String reference;
 
+    /**
+     * Origins stored within the transaction before the origins have been moved to {@link TransactionOrigin},
+     * loaded only, migrated on next save.
+     */
+    @IgnoreSave
     private List<Object> origins = new ArrayList<>();
 
+    private int originCount;
+
+    @Ignore
+    private List<String> pendingOrigins = new ArrayList<>();
+
+    /**
+     * Whether the transaction is going to be enqueued to the {@link TransactionOutbox} on next save.
+     */
+    @Ignore
+    private boolean pendingPublication;
+
     private List<TransactionCategory> categories = new ArrayList<>();
 
     @Index
@@ -96,11 +124,40 @@ public abstract class CommonTransaction
 
     private CounterpartyBankAccount counterparty;
 
+    /**
+     * Indexed only if true, the transactions taken from the web-hook and not yet verified against the bank.
+     */
+    @Index( IfTrue.class )
+    private boolean verificationPending;
+
+    /**
+     * The content hash of the transaction as it has been pushed to the product-billing service last time.
+     */
+    private String pushedHash;
+
     public CompanyBankAccount loadBankAccount()
     {
         return accountKey == null ? null : ofy().load().key( accountKey ).now();
     }
 
+    /**
+     * Loads the distinct bank accounts associated with given transactions in single batch.
+     *
+     * @param transactions the transactions to load bank accounts for
+     * @return the loaded bank accounts keyed by its key, the missing bank accounts are not present
+     */
+    public static Map<Key<CompanyBankAccount>, CompanyBankAccount> loadBankAccounts( @Nonnull Collection<? extends CommonTransaction> transactions )
+    {
+        checkNotNull( transactions, "Transactions can't be null" );
+
+        Set<Key<CompanyBankAccount>> keys = transactions.stream()
+                .map( CommonTransaction::getBankAccountKey )
+                .filter( Objects::nonNull )
+                .collect( Collectors.toSet() );
+
+        return keys.isEmpty() ? new HashMap<>() : ofy().load().keys( keys );
+    }
+
     /**
      * Sets the bank account key associated with this transaction.
      */
@@ -265,6 +322,90 @@ public abstract class CommonTransaction
         return failure;
     }
 
+    /**
+     * The boolean indication whether transaction has been taken from the source (web-hook)
+     * that is not verified against the bank yet.
+     */
+    public CommonTransaction verificationPending( boolean verificationPending )
+    {
+        this.verificationPending = verificationPending;
+        return this;
+    }
+
+    public boolean isVerificationPending()
+    {
+        return verificationPending;
+    }
+
+    /**
+     * Marks the transaction to be published to the product-billing service. The transaction is going to be
+     * enqueued to the {@link TransactionOutbox} on next {@link #save()}, within the same datastore transaction.
+     */
+    public CommonTransaction publish()
+    {
+        this.pendingPublication = true;
+        return this;
+    }
+
+    /**
+     * The content hash of the transaction as it has been pushed to the product-billing service last time,
+     * {@code null} if not pushed yet.
+     */
+    public String getPushedHash()
+    {
+        return pushedHash;
+    }
+
+    /**
+     * Records the content hash of the transaction successfully pushed to the product-billing service.
+     * Only the hash of the stored transaction is being updated (in a transaction), the rest of its values
+     * stays untouched.
+     *
+     * @param hash the content hash of the pushed transaction
+     */
+    public void pushed( @Nonnull String hash )
+    {
+        this.pushedHash = checkNotNull( hash, "Content hash can't be null" );
+        if ( getId() == null )
+        {
+            return;
+        }
+
+        Key<CommonTransaction> key = Key.create( CommonTransaction.class, getId() );
+        ofy().transact( () -> {
+            CommonTransaction current = ofy().load().key( key ).now();
+            if ( current != null && !hash.equals( current.pushedHash ) )
+            {
+                current.pushedHash = hash;
+                saveAll( Collections.singletonList( current ) );
+            }
+        } );
+    }
+
+    /**
+     * Applies the change to the transaction freshly loaded within a transaction and saves it, if changed.
+     * The change is expected to touch only the values it is responsible for, thus a concurrent update
+     * of the rest of the values made since the caller has loaded its own instance is not overwritten.
+     *
+     * @param id     the ID of the transaction to be updated
+     * @param change the change to be applied, returns {@code true} if the transaction has been changed
+     * @return {@code true} if the transaction has been found, changed and saved
+     */
+    public static boolean update( @Nonnull Long id, @Nonnull Predicate<CommonTransaction> change )
+    {
+        Key<CommonTransaction> key = Key.create( CommonTransaction.class, checkNotNull( id, "ID can't be null" ) );
+        return ofy().transact( () -> {
+            CommonTransaction current = ofy().load().key( key ).now();
+            if ( current == null || !change.test( current ) )
+            {
+                return false;
+            }
+
+            saveAll( Collections.singletonList( current ) );
+            return true;
+        } );
+    }
+
     /**
      * The payment currency alphabetic code based on the ISO 4217.
      **/
@@ -353,18 +494,51 @@ public abstract class CommonTransaction
 
     /**
      * Adds incoming transaction to be stored for archiving purpose.
+     * It's being stored as a separate {@link TransactionOrigin} once the transaction is saved.
      *
      * @param origin the origin incoming transaction
      */
     public void addOrigin( @Nonnull Object origin )
     {
         checkNotNull( origin, "Origin incoming transaction can't be null" );
-        this.origins.add( origin );
+        this.pendingOrigins.add( origin.toString() );
     }
 
+    /**
+     * Returns all of the origin incoming transactions, ordered as they have been added.
+     * The stored origins are being loaded from the datastore on each call.
+     *
+     * @return the list of origins
+     */
     public List<Object> getOrigins()
     {
-        return origins;
+        List<Object> result = new ArrayList<>();
+        if ( getId() != null )
+        {
+            ofy().load().type( TransactionOrigin.class )
+                    .ancestor( Key.create( CommonTransaction.class, getId() ) )
+                    .list()
+                    .stream()
+                    .sorted( Comparator.comparingInt( TransactionOrigin::getSequence ) )
+                    .map( TransactionOrigin::getOrigin )
+                    .forEach( result::add );
+        }
+
+        if ( origins != null )
+        {
+            result.addAll( origins );
+        }
+        result.addAll( pendingOrigins );
+
+        return result;
+    }
+
+    /**
+     * Returns the number of distinct origins already stored for this transaction.
+     */
+    public int getOriginCount()
+    {
+        return originCount;
     }
 
     public List<TransactionCategory> getCategories()
@@ -406,16 +580,174 @@ public abstract class CommonTransaction
                 .orElse( true );
     }
 
+    /**
+     * Returns the list of lookup records to be kept in sync with this transaction.
+     * Returns an empty list if the transaction has not been saved yet (no ID assigned).
+     *
+     * @return the list of lookup records
+     */
+    List<Object> lookupRecords()
+    {
+        List<Object> records = new ArrayList<>();
+        if ( !Strings.isNullOrEmpty( extId ) && getId() != null )
+        {
+            records.add( new TransactionExternalId( extId, Key.create( CommonTransaction.class, getId() ) ) );
+        }
+        return records;
+    }
+
+    /**
+     * Saves the lookup records of this already stored transaction, missing for the transactions
+     * stored before the lookup records have been introduced. Intended to be run by the backfill.
+     */
+    public void backfillLookupRecords()
+    {
+        List<Object> records = lookupRecords();
+        if ( !records.isEmpty() )
+        {
+            ofy().transact( () -> ofy().defer().save().entities( records ) );
+        }
+    }
+
+    /**
+     * Saves the transaction together with its lookup records, pending origins and pending publication
+     * (see {@link #publish()}) in single transaction.
+     */
     @Override
     public void save()
     {
-        ofy().transact( () -> ofy().defer().save().entity( this ) );
+        // origins stored within the transaction in the past are going to be moved to a separate entity
+        List<String> toStore = new ArrayList<>();
+        if ( origins != null )
+        {
+            origins.forEach( origin -> toStore.add( origin.toString() ) );
+        }
+        toStore.addAll( pendingOrigins );
+
+        boolean publication = pendingPublication && !Strings.isNullOrEmpty( extId );
+
+        ofy().transact( () -> {
+            // the number of stored origins taken from the entity loaded within this transaction,
+            // origins might have been stored by a concurrent save since this instance has been loaded
+            int storedCount = storedOriginCount();
+            originCount = storedCount;
+
+            // saved synchronously to get an ID allocated for the lookup records
+            ofy().save().entity( this ).now();
+            ofy().defer().save().entities( lookupRecords() );
+
+            if ( publication )
+            {
+                ofy().defer().save().entity( new TransactionOutbox( extId ) );
+            }
+
+            List<TransactionOrigin> newOrigins = newOrigins( toStore, storedCount );
+            if ( !newOrigins.isEmpty() )
+            {
+                originCount = storedCount + newOrigins.size();
+                ofy().defer().save().entities( newOrigins );
+                ofy().defer().save().entity( this );
+            }
+        } );
+
+        origins = new ArrayList<>();
+        pendingOrigins = new ArrayList<>();
+        pendingPublication = false;
+    }
+
+    /**
+     * Returns the number of origins of this transaction as currently stored in the datastore.
+     * Expected to be called within a transaction in order to get a strongly consistent value.
+     */
+    private int storedOriginCount()
+    {
+        if ( getId() == null )
+        {
+            return originCount;
+        }
+
+        CommonTransaction stored = ofy().load().key( Key.create( CommonTransaction.class, getId() ) ).now();
+        return stored == null ? originCount : stored.originCount;
+    }
+
+    /**
+     * Saves already stored transactions in a single batch. Lookup records are not touched
+     * as the external ID does not change once the transaction has been stored.
+     * Transactions with origins to be moved or stored, or with pending publication,
+     * are being saved one by one via {@link #save()}.
+     *
+     * @param transactions the transactions to be saved
+     */
+    public static void saveAll( @Nonnull Collection<? extends CommonTransaction> transactions )
+    {
+        List<CommonTransaction> batch = new ArrayList<>();
+        for ( CommonTransaction next : transactions )
+        {
+            boolean withOrigins = ( next.origins != null && !next.origins.isEmpty() )
+                    || !next.pendingOrigins.isEmpty();
+
+            if ( next.getId() == null || withOrigins || next.pendingPublication )
+            {
+                next.save();
+            }
+            else
+            {
+                batch.add( next );
+            }
+        }
+
+        if ( !batch.isEmpty() )
+        {
+            ofy().save().entities( batch ).now();
+        }
+    }
+
+    /**
+     * Returns the origins that are not stored yet, deduplicated by content hash.
+     * The new origins are numbered consecutively, following the already stored ones.
+     */
+    private List<TransactionOrigin> newOrigins( List<String> toStore, int storedCount )
+    {
+        if ( toStore.isEmpty() )
+        {
+            return new ArrayList<>();
+        }
+
+        Key<CommonTransaction> parent = Key.create( CommonTransaction.class, getId() );
+        Map<Key<TransactionOrigin>, String> distinct = new LinkedHashMap<>();
+        for ( String next : toStore )
+        {
+            Key<TransactionOrigin> key = Key.create( parent, TransactionOrigin.class, TransactionOrigin.hash( next ) );
+            distinct.putIfAbsent( key, next );
+        }
+
+        // already stored origins filtered out before numbering, thus the sequence has no gaps
+        Set<Key<TransactionOrigin>> existing = ofy().load().keys( distinct.keySet() ).keySet();
+
+        List<TransactionOrigin> result = new ArrayList<>();
+        for ( Map.Entry<Key<TransactionOrigin>, String> next : distinct.entrySet() )
+        {
+            if ( !existing.contains( next.getKey() ) )
+            {
+                result.add( new TransactionOrigin( parent, next.getValue(), storedCount + result.size() ) );
+            }
+        }
+
+        return result;
     }
 
     @Override
     public void delete()
     {
-        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+        ofy().transact( () -> {
+            if ( getId() != null )
+            {
+                Key<CommonTransaction> key = Key.create( CommonTransaction.class, getId() );
+                ofy().defer().delete().keys( ofy().load().type( TransactionOrigin.class ).ancestor( key ).keys().list() );
+            }
+            ofy().defer().delete().entities( lookupRecords() );
+            ofy().defer().delete().entity( this );
+        } );
     }
 
     @Override
@@ -461,8 +793,10 @@ public abstract class CommonTransaction
                 .add( "reference", reference )
                 .add( "status", status )
                 .add( "extId", extId )
-                .add( "origins", origins )
+                .add( "originCount", originCount )
                 .add( "counterparty", counterparty )
+                .add( "verificationPending", verificationPending )
+                .add( "pushedHash", pushedHash )
                 .toString();
     }
 
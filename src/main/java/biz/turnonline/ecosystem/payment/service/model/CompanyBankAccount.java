@@ -19,8 +19,11 @@
 package biz.turnonline.ecosystem.payment.service.model;
 
 import biz.turnonline.ecosystem.payment.service.CodeBook;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.FullEntity;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Subclass;
 import nl.garvelink.iban.IBAN;
@@ -28,6 +31,8 @@ import nl.garvelink.iban.IBAN;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
 /**
  * The company bank account.
  *
@@ -155,6 +160,17 @@ public class CompanyBankAccount
                 && !Strings.isNullOrEmpty( getBankCode() );
     }
 
+    /**
+     * Returns the detached copy of this saved bank account, translated the same way as it is saved and loaded.
+     *
+     * @return the copy of this bank account
+     */
+    public CompanyBankAccount copy()
+    {
+        FullEntity<?> entity = ofy().save().toEntity( this );
+        return ofy().load().fromEntity( Entity.newBuilder( Key.create( this ).getRaw(), entity ).build() );
+    }
+
     @Override
     protected long getModelVersion()
     {
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nullable;
+import java.util.Date;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The progress of the transaction re-categorisation that runs on background across all transactions.
+ * There is only single record (singleton) identified by {@link #ID}.
+ * <p>
+ * Each change of the categories starts a new generation, the chunks of the previous generation
+ * are being discarded. The cursor points to the first transaction of the next chunk to be processed,
+ * thus the job resumes from the last finished chunk once the task has been retried.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_RecategorisationCheckpoint" )
+public class RecategorisationCheckpoint
+        extends EntityStringIdentity
+{
+    public static final String ID = "transaction-categories";
+
+    private static final long serialVersionUID = -2365711826411928571L;
+
+    private long generation;
+
+    private String cursor;
+
+    private int processed;
+
+    private int updated;
+
+    private boolean done;
+
+    private Date startedAt;
+
+    private Date finishedAt;
+
+    public RecategorisationCheckpoint()
+    {
+        setId( ID );
+    }
+
+    /**
+     * Returns the key of the singleton checkpoint.
+     */
+    public static Key<RecategorisationCheckpoint> key()
+    {
+        return Key.create( RecategorisationCheckpoint.class, ID );
+    }
+
+    /**
+     * Starts a new generation of the re-categorisation, the progress of the current one is being reset.
+     * The checkpoint is being saved in a transaction.
+     *
+     * @return the checkpoint of the new generation
+     */
+    public static RecategorisationCheckpoint next()
+    {
+        return ofy().transact( () -> {
+            RecategorisationCheckpoint checkpoint = ofy().load().key( key() ).now();
+            if ( checkpoint == null )
+            {
+                checkpoint = new RecategorisationCheckpoint();
+            }
+
+            checkpoint.generation++;
+            checkpoint.cursor = null;
+            checkpoint.processed = 0;
+            checkpoint.updated = 0;
+            checkpoint.done = false;
+            checkpoint.startedAt = new Date();
+            checkpoint.finishedAt = null;
+
+            ofy().defer().save().entity( checkpoint );
+            return checkpoint;
+        } );
+    }
+
+    /**
+     * Moves the checkpoint behind the processed chunk.
+     *
+     * @param cursor    the cursor to start the next chunk from, {@code null} if there is no more chunk
+     * @param processed the number of transactions processed within the chunk
+     * @param updated   the number of transactions whose categories have changed within the chunk
+     */
+    public void advance( @Nullable String cursor, int processed, int updated )
+    {
+        this.cursor = cursor;
+        this.processed += processed;
+        this.updated += updated;
+        this.done = cursor == null;
+        if ( done )
+        {
+            this.finishedAt = new Date();
+        }
+    }
+
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * The url-safe cursor to start the next chunk from, {@code null} to start from the beginning.
+     */
+    public String getCursor()
+    {
+        return cursor;
+    }
+
+    public int getProcessed()
+    {
+        return processed;
+    }
+
+    public int getUpdated()
+    {
+        return updated;
+    }
+
+    public boolean isDone()
+    {
+        return done;
+    }
+
+    public Date getStartedAt()
+    {
+        return startedAt;
+    }
+
+    public Date getFinishedAt()
+    {
+        return finishedAt;
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //26.01.2021 08:00:00 GMT+0100
+        return 1611644400000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "generation", generation )
+                .add( "processed", processed )
+                .add( "updated", updated )
+                .add( "done", done )
+                .add( "startedAt", startedAt )
+                .add( "finishedAt", finishedAt )
+                .toString();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nullable;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The progress of the scheduled reconciliation of the bank transactions against the local transactions.
+ * There is only single record (singleton) identified by {@link #ID}.
+ * <p>
+ * The high-water mark is the creation date of the bank transactions the next run starts to list from.
+ * It moves forward only once the run has finished, but never behind a transaction that has not been
+ * settled yet, as its state might still change. Each run has its own number, the tasks of the previous
+ * (stale) run are being discarded.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_ReconciliationCheckpoint" )
+public class ReconciliationCheckpoint
+        extends EntityStringIdentity
+{
+    public static final String ID = "revolut-transactions";
+
+    /**
+     * The maximum duration of a single run, an unfinished run older than that is considered to be stale.
+     */
+    static final long RUN_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis( 1 );
+
+    /**
+     * How far to the past the very first run lists the bank transactions.
+     */
+    static final long INITIAL_LOOKBACK_MILLIS = TimeUnit.DAYS.toMillis( 7 );
+
+    private static final long serialVersionUID = 4018862251398560271L;
+
+    private long run;
+
+    private Date highWaterMark;
+
+    private int listed;
+
+    private int scheduled;
+
+    private boolean done;
+
+    private Date startedAt;
+
+    private Date finishedAt;
+
+    public ReconciliationCheckpoint()
+    {
+        setId( ID );
+    }
+
+    /**
+     * Returns the key of the singleton checkpoint.
+     */
+    public static Key<ReconciliationCheckpoint> key()
+    {
+        return Key.create( ReconciliationCheckpoint.class, ID );
+    }
+
+    /**
+     * Starts a new run of the reconciliation, unless the current one is still running.
+     * The checkpoint is being saved in a transaction.
+     *
+     * @return the checkpoint of the new run or {@code null} if the current one is still running
+     */
+    public static ReconciliationCheckpoint start()
+    {
+        return ofy().transact( () -> {
+            ReconciliationCheckpoint checkpoint = ofy().load().key( key() ).now();
+            long now = System.currentTimeMillis();
+
+            if ( checkpoint == null )
+            {
+                checkpoint = new ReconciliationCheckpoint();
+                checkpoint.highWaterMark = new Date( now - INITIAL_LOOKBACK_MILLIS );
+                checkpoint.done = true;
+            }
+
+            if ( !checkpoint.done
+                    && checkpoint.startedAt != null
+                    && checkpoint.startedAt.getTime() > now - RUN_TIMEOUT_MILLIS )
+            {
+                return null;
+            }
+
+            checkpoint.run++;
+            checkpoint.listed = 0;
+            checkpoint.scheduled = 0;
+            checkpoint.done = false;
+            checkpoint.startedAt = new Date( now );
+            checkpoint.finishedAt = null;
+
+            ofy().defer().save().entity( checkpoint );
+            return checkpoint;
+        } );
+    }
+
+    /**
+     * Records the progress of the processed page.
+     *
+     * @param listed    the number of the bank transactions listed within the page
+     * @param scheduled the number of the transactions scheduled to be synchronized within the page
+     */
+    public void advance( int listed, int scheduled )
+    {
+        this.listed += listed;
+        this.scheduled += scheduled;
+    }
+
+    /**
+     * Finishes the run and moves the high-water mark.
+     *
+     * @param highWaterMark the new high-water mark, {@code null} to keep the current one
+     */
+    public void finish( @Nullable Date highWaterMark )
+    {
+        if ( highWaterMark != null )
+        {
+            this.highWaterMark = highWaterMark;
+        }
+        this.done = true;
+        this.finishedAt = new Date();
+    }
+
+    public long getRun()
+    {
+        return run;
+    }
+
+    /**
+     * The creation date of the bank transactions to start to list from.
+     */
+    public Date getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+
+    public int getListed()
+    {
+        return listed;
+    }
+
+    public int getScheduled()
+    {
+        return scheduled;
+    }
+
+    public boolean isDone()
+    {
+        return done;
+    }
+
+    public Date getStartedAt()
+    {
+        return startedAt;
+    }
+
+    public Date getFinishedAt()
+    {
+        return finishedAt;
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //28.01.2021 08:00:00 GMT+0100
+        return 1611817200000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "run", run )
+                .add( "highWaterMark", highWaterMark )
+                .add( "listed", listed )
+                .add( "scheduled", scheduled )
+                .add( "done", done )
+                .add( "startedAt", startedAt )
+                .add( "finishedAt", finishedAt )
+                .toString();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The progress of the replay that rebuilds the transactions from their stored origins ({@link TransactionOrigin}).
+ * There is only single record (singleton) identified by {@link #ID}.
+ * <p>
+ * Each replay starts a new generation, the chunks of the previous generation are being discarded.
+ * In dry-run mode nothing is being saved, the checkpoint collects a sample of the differences instead.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_ReplayCheckpoint" )
+public class ReplayCheckpoint
+        extends EntityStringIdentity
+{
+    public static final String ID = "transaction-origins";
+
+    /**
+     * The maximum number of the differences kept as a sample.
+     */
+    static final int MAX_DIFFERENCES = 200;
+
+    private static final long serialVersionUID = -6640294184218563387L;
+
+    private long generation;
+
+    private boolean dryRun;
+
+    private String cursor;
+
+    private int processed;
+
+    private int changed;
+
+    private int failed;
+
+    private boolean done;
+
+    private Date startedAt;
+
+    private Date finishedAt;
+
+    private List<String> differences = new ArrayList<>();
+
+    public ReplayCheckpoint()
+    {
+        setId( ID );
+    }
+
+    /**
+     * Returns the key of the singleton checkpoint.
+     */
+    public static Key<ReplayCheckpoint> key()
+    {
+        return Key.create( ReplayCheckpoint.class, ID );
+    }
+
+    /**
+     * Starts a new generation of the replay, the progress of the current one is being reset.
+     * The checkpoint is being saved in a transaction.
+     *
+     * @param dryRun true to only collect the differences without saving any transaction
+     * @return the checkpoint of the new generation
+     */
+    public static ReplayCheckpoint next( boolean dryRun )
+    {
+        return ofy().transact( () -> {
+            ReplayCheckpoint checkpoint = ofy().load().key( key() ).now();
+            if ( checkpoint == null )
+            {
+                checkpoint = new ReplayCheckpoint();
+            }
+
+            checkpoint.generation++;
+            checkpoint.dryRun = dryRun;
+            checkpoint.cursor = null;
+            checkpoint.processed = 0;
+            checkpoint.changed = 0;
+            checkpoint.failed = 0;
+            checkpoint.done = false;
+            checkpoint.startedAt = new Date();
+            checkpoint.finishedAt = null;
+            checkpoint.differences = new ArrayList<>();
+
+            ofy().defer().save().entity( checkpoint );
+            return checkpoint;
+        } );
+    }
+
+    /**
+     * Moves the checkpoint behind the processed chunk.
+     *
+     * @param cursor      the cursor to start the next chunk from, {@code null} if there is no more chunk
+     * @param processed   the number of transactions replayed within the chunk
+     * @param changed     the number of transactions that differ from the replayed ones within the chunk
+     * @param failed      the number of transactions failed to be replayed within the chunk
+     * @param differences the differences found within the chunk, only a sample is being kept
+     */
+    public void advance( @Nullable String cursor,
+                         int processed,
+                         int changed,
+                         int failed,
+                         @Nonnull List<String> differences )
+    {
+        this.cursor = cursor;
+        this.processed += processed;
+        this.changed += changed;
+        this.failed += failed;
+        this.done = cursor == null;
+        if ( done )
+        {
+            this.finishedAt = new Date();
+        }
+
+        if ( this.differences == null )
+        {
+            this.differences = new ArrayList<>();
+        }
+
+        int room = MAX_DIFFERENCES - this.differences.size();
+        if ( room > 0 )
+        {
+            this.differences.addAll( differences.subList( 0, Math.min( room, differences.size() ) ) );
+        }
+    }
+
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Returns {@code true} if the replay only collects the differences without saving any transaction.
+     */
+    public boolean isDryRun()
+    {
+        return dryRun;
+    }
+
+    /**
+     * The url-safe cursor to start the next chunk from, {@code null} to start from the beginning.
+     */
+    public String getCursor()
+    {
+        return cursor;
+    }
+
+    public int getProcessed()
+    {
+        return processed;
+    }
+
+    public int getChanged()
+    {
+        return changed;
+    }
+
+    public int getFailed()
+    {
+        return failed;
+    }
+
+    public boolean isDone()
+    {
+        return done;
+    }
+
+    public Date getStartedAt()
+    {
+        return startedAt;
+    }
+
+    public Date getFinishedAt()
+    {
+        return finishedAt;
+    }
+
+    /**
+     * The sample of the differences, at most {@link #MAX_DIFFERENCES}.
+     */
+    public List<String> getDifferences()
+    {
+        return differences;
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //29.01.2021 08:00:00 GMT+0100
+        return 1611903600000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "generation", generation )
+                .add( "dryRun", dryRun )
+                .add( "processed", processed )
+                .add( "changed", changed )
+                .add( "failed", failed )
+                .add( "done", done )
+                .add( "startedAt", startedAt )
+                .add( "finishedAt", finishedAt )
+                .toString();
+    }
+}
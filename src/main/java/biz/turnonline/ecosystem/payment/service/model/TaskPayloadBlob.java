@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Index;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nonnull;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The task payload offloaded out of the task queue, because of its size.
+ * Identification of this entity is the hash of the payload content, thus the payload shared by several tasks
+ * (for example a task chain) is stored only once. Content is stored as it has been taken, already compressed.
+ * The payload is valid until {@link #getExpireAt()}, expired payloads are purged daily
+ * by {@code ExpiredRecordsPurgeTask}.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_TaskPayloadBlob" )
+public class TaskPayloadBlob
+        extends EntityStringIdentity
+{
+    static final long EXPIRATION_MILLIS = TimeUnit.DAYS.toMillis( 30 );
+
+    private static final long serialVersionUID = 6410298374650238817L;
+
+    private byte[] content;
+
+    @Index
+    private Date expireAt;
+
+    @SuppressWarnings( "unused" )
+    TaskPayloadBlob()
+    {
+    }
+
+    TaskPayloadBlob( @Nonnull String hash, @Nonnull byte[] content )
+    {
+        setId( checkNotNull( hash, "Payload hash can't be null" ) );
+        this.content = checkNotNull( content, "Payload content can't be null" );
+        this.expireAt = new Date( System.currentTimeMillis() + EXPIRATION_MILLIS );
+    }
+
+    /**
+     * Stores the payload content identified by its hash. Already stored payload is stored again
+     * with extended expiration.
+     *
+     * @param hash    the hash of the payload
+     * @param content the payload content
+     */
+    public static void store( @Nonnull String hash, @Nonnull byte[] content )
+    {
+        new TaskPayloadBlob( hash, content ).save();
+    }
+
+    /**
+     * Returns the payload content identified by its hash.
+     *
+     * @param hash the hash of the payload
+     * @return the payload content or {@code null} if not found
+     */
+    public static byte[] load( @Nonnull String hash )
+    {
+        checkNotNull( hash, "Payload hash can't be null" );
+        TaskPayloadBlob blob = ofy().load().type( TaskPayloadBlob.class ).id( hash ).now();
+        return blob == null ? null : blob.content;
+    }
+
+    /**
+     * The date after which the payload is no longer guaranteed to be available.
+     */
+    public Date getExpireAt()
+    {
+        return expireAt;
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //08.02.2021 08:00:00 GMT+0100
+        return 1612767600000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "hash", getId() )
+                .add( "size", content == null ? 0 : content.length )
+                .add( "expireAt", expireAt )
+                .toString();
+    }
+}
@@ -1,6 +1,7 @@
 package biz.turnonline.ecosystem.payment.service.model;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * Applied transaction category based on {@link CategoryFilter}
@@ -47,4 +48,21 @@ public class TransactionCategory
     {
         this.propagate = propagate;
     }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        if ( this == o ) return true;
+        if ( !( o instanceof TransactionCategory ) ) return false;
+        TransactionCategory that = ( TransactionCategory ) o;
+        return propagate == that.propagate &&
+                Objects.equals( name, that.name ) &&
+                Objects.equals( color, that.color );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash( name, color, propagate );
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The lookup entity to resolve a {@link CommonTransaction} by its external identification (bank system ID)
+ * via single key lookup instead of an eventually consistent query.
+ * <p>
+ * Identification of this entity is the external ID itself. Records are being kept in sync
+ * by {@link CommonTransaction#save()} and {@link CommonTransaction#delete()}.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_TransactionExtId" )
+public class TransactionExternalId
+        extends EntityStringIdentity
+{
+    private static final long serialVersionUID = 6140937296148372245L;
+
+    private Key<CommonTransaction> transaction;
+
+    @SuppressWarnings( "unused" )
+    TransactionExternalId()
+    {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param externalId  the external identification of the transaction within the bank
+     * @param transaction the key of the associated transaction
+     */
+    TransactionExternalId( @Nonnull String externalId, @Nonnull Key<CommonTransaction> transaction )
+    {
+        setId( checkNotNull( externalId, "External ID can't be null" ) );
+        this.transaction = checkNotNull( transaction, "Transaction key can't be null" );
+    }
+
+    /**
+     * Returns the key of the transaction for specified external ID, if any.
+     *
+     * @param externalId the external identification of the transaction
+     * @return the transaction key or {@code null} if not found
+     */
+    public static Key<CommonTransaction> lookup( @Nonnull String externalId )
+    {
+        checkNotNull( externalId, "External ID can't be null" );
+        TransactionExternalId record = ofy().load().type( TransactionExternalId.class ).id( externalId ).now();
+        return record == null ? null : record.getTransaction();
+    }
+
+    /**
+     * Returns the keys of the transactions for specified external IDs by single batch load.
+     * External IDs without a lookup record are not present in the result.
+     *
+     * @param externalIds the external identifications of the transactions
+     * @return the map of the transaction keys mapped by their external ID
+     */
+    public static Map<String, Key<CommonTransaction>> lookup( @Nonnull Collection<String> externalIds )
+    {
+        checkNotNull( externalIds, "External IDs can't be null" );
+        if ( externalIds.isEmpty() )
+        {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Key<CommonTransaction>> keys = new HashMap<>();
+        ofy().load().type( TransactionExternalId.class ).ids( externalIds )
+                .forEach( ( id, record ) -> keys.put( id, record.getTransaction() ) );
+
+        return keys;
+    }
+
+    /**
+     * The key of the transaction associated with this external ID.
+     */
+    public Key<CommonTransaction> getTransaction()
+    {
+        return transaction;
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //25.01.2021 08:00:00 GMT+0100
+        return 1611558000000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "externalId", getId() )
+                .add( "transaction", transaction )
+                .toString();
+    }
+}
@@ -18,10 +18,12 @@
 
 package biz.turnonline.ecosystem.payment.service.model;
 
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Subclass;
 
 import javax.annotation.Nonnull;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -75,4 +77,19 @@ public class TransactionInvoice
     {
         return invoiceId;
     }
+
+    /**
+     * Adds the invoice identification lookup record, if the invoice identification is complete.
+     */
+    @Override
+    List<Object> lookupRecords()
+    {
+        List<Object> records = super.lookupRecords();
+        if ( orderId != null && invoiceId != null && getId() != null )
+        {
+            Key<CommonTransaction> key = Key.create( CommonTransaction.class, getId() );
+            records.add( new TransactionInvoiceId( orderId, invoiceId, key ) );
+        }
+        return records;
+    }
 }
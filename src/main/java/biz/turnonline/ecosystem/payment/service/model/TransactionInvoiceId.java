@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The lookup entity to resolve a {@link TransactionInvoice} by its invoice identification
+ * (order ID and invoice ID) via single key lookup instead of a query.
+ * <p>
+ * Identification of this entity is derived from the order ID and invoice ID, see {@link #id(long, long)}.
+ * Records are being kept in sync by {@link CommonTransaction#save()} and {@link CommonTransaction#delete()}.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_TransactionInvoiceId" )
+public class TransactionInvoiceId
+        extends EntityStringIdentity
+{
+    private static final long serialVersionUID = 2871603928462947114L;
+
+    private Key<CommonTransaction> transaction;
+
+    @SuppressWarnings( "unused" )
+    TransactionInvoiceId()
+    {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param orderId     the invoice's parent order identification
+     * @param invoiceId   the invoice identification
+     * @param transaction the key of the associated transaction
+     */
+    TransactionInvoiceId( long orderId, long invoiceId, @Nonnull Key<CommonTransaction> transaction )
+    {
+        setId( id( orderId, invoiceId ) );
+        this.transaction = checkNotNull( transaction, "Transaction key can't be null" );
+    }
+
+    /**
+     * Returns the identification of the lookup record for specified invoice.
+     *
+     * @param orderId   the invoice's parent order identification
+     * @param invoiceId the invoice identification
+     * @return the lookup record identification
+     */
+    public static String id( long orderId, long invoiceId )
+    {
+        return orderId + ":" + invoiceId;
+    }
+
+    /**
+     * Returns the lookup record for specified invoice, if any.
+     *
+     * @param orderId   the invoice's parent order identification
+     * @param invoiceId the invoice identification
+     * @return the lookup record or {@code null} if not found
+     */
+    public static TransactionInvoiceId lookup( long orderId, long invoiceId )
+    {
+        return ofy().load().type( TransactionInvoiceId.class ).id( id( orderId, invoiceId ) ).now();
+    }
+
+    /**
+     * The key of the transaction associated with this invoice.
+     */
+    public Key<CommonTransaction> getTransaction()
+    {
+        return transaction;
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //25.01.2021 08:00:00 GMT+0100
+        return 1611558000000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "invoice", getId() )
+                .add( "transaction", transaction )
+                .toString();
+    }
+}
@@ -22,14 +22,20 @@ import biz.turnonline.ecosystem.payment.api.model.Transaction;
 import biz.turnonline.ecosystem.payment.api.model.TransactionBank;
 import biz.turnonline.ecosystem.payment.api.model.TransactionCategory;
 import com.google.common.base.Strings;
+import com.googlecode.objectify.Key;
 import ma.glasnost.orika.CustomConverter;
 import ma.glasnost.orika.MappingContext;
 import ma.glasnost.orika.metadata.Type;
 
 import javax.annotation.Nullable;
+import java.util.Map;
 
 /**
  * Single direction base mapper from {@link CommonTransaction} to {@link Transaction}.
+ * <p>
+ * In order to avoid a datastore get per transaction while mapping a list, set the batch loaded bank accounts
+ * as a context property:
+ * {@code context.setProperty( CompanyBankAccount.class, CommonTransaction.loadBankAccounts( transactions ) );}.
  *
  * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
  */
@@ -60,7 +66,7 @@ abstract class TransactionMapper<T extends CommonTransaction>
         FormOfPayment type = source.getType();
         transaction.setType( type == null ? null : type.name() );
 
-        CompanyBankAccount bankAccount = source.loadBankAccount();
+        CompanyBankAccount bankAccount = bankAccount( source, mappingContext );
         if ( bankAccount != null )
         {
             TransactionBank bank = new TransactionBank();
@@ -113,6 +119,21 @@ abstract class TransactionMapper<T extends CommonTransaction>
         return transaction;
     }
 
+    /**
+     * Returns the bank account associated with the transaction, taken from the context if batch loaded.
+     */
+    private CompanyBankAccount bankAccount( T source, @Nullable MappingContext context )
+    {
+        Object bankAccounts = context == null ? null : context.getProperty( CompanyBankAccount.class );
+        if ( bankAccounts instanceof Map )
+        {
+            Key<CompanyBankAccount> key = source.getBankAccountKey();
+            return key == null ? null : ( CompanyBankAccount ) ( ( Map<?, ?> ) bankAccounts ).get( key );
+        }
+
+        return source.loadBankAccount();
+    }
+
     private biz.turnonline.ecosystem.payment.api.model.ExchangeAmount convert( @Nullable ExchangeAmount amount )
     {
         if ( amount == null )
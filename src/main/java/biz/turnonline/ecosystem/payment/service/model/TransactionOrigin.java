@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Parent;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The origin incoming transaction (raw JSON) stored for archiving purpose, outside of the {@link CommonTransaction}.
+ * <p>
+ * The origin is a child of the transaction it belongs to, identified by the hash of its content,
+ * thus the same origin is being stored only once per transaction. Content is stored compressed.
+ * Records are being kept in sync by {@link CommonTransaction#save()} and {@link CommonTransaction#delete()}.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_TransactionOrigin" )
+public class TransactionOrigin
+        extends EntityStringIdentity
+{
+    private static final long serialVersionUID = -1923857561026453419L;
+
+    @Parent
+    private Key<CommonTransaction> transaction;
+
+    private byte[] content;
+
+    private int sequence;
+
+    private Date received;
+
+    @SuppressWarnings( "unused" )
+    TransactionOrigin()
+    {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param transaction the key of the transaction the origin belongs to
+     * @param origin      the origin incoming transaction
+     * @param sequence    the order of the origin within the transaction
+     */
+    TransactionOrigin( @Nonnull Key<CommonTransaction> transaction, @Nonnull String origin, int sequence )
+    {
+        this.transaction = checkNotNull( transaction, "Transaction key can't be null" );
+        checkNotNull( origin, "Origin can't be null" );
+
+        setId( hash( origin ) );
+        this.content = compress( origin );
+        this.sequence = sequence;
+        this.received = new Date();
+    }
+
+    /**
+     * Returns the content hash of the origin, used as an identification.
+     *
+     * @param origin the origin incoming transaction
+     * @return the hash of the origin
+     */
+    static String hash( @Nonnull String origin )
+    {
+        return Hashing.sha256().hashString( origin, StandardCharsets.UTF_8 ).toString();
+    }
+
+    private static byte[] compress( @Nonnull String origin )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( OutputStream gzip = new GZIPOutputStream( bytes ) )
+        {
+            gzip.write( origin.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The key of the transaction this origin belongs to.
+     */
+    public Key<CommonTransaction> getTransaction()
+    {
+        return transaction;
+    }
+
+    /**
+     * Returns the origin incoming transaction, decompressed.
+     *
+     * @return the origin
+     */
+    public String getOrigin()
+    {
+        if ( content == null )
+        {
+            return null;
+        }
+
+        try ( InputStream gzip = new GZIPInputStream( new ByteArrayInputStream( content ) ) )
+        {
+            return new String( ByteStreams.toByteArray( gzip ), StandardCharsets.UTF_8 );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * The order of the origin within the transaction.
+     */
+    public int getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * The date when the origin has been stored.
+     */
+    public Date getReceived()
+    {
+        return received;
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //01.02.2021 08:00:00 GMT+0100
+        return 1612162800000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "hash", getId() )
+                .add( "transaction", transaction )
+                .add( "sequence", sequence )
+                .add( "received", received )
+                .toString();
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.cmd.Query;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The transaction waiting in the outbox to be pushed to the product-billing service.
+ * Identification of this entity is the external ID of the transaction, thus the transaction
+ * enqueued several times before being pushed is pushed only once, in its latest state.
+ * <p>
+ * The transaction is enqueued within the same datastore transaction as the transaction itself is saved
+ * (see {@link CommonTransaction#publish()}), thus the publication can't be lost. The item is leased
+ * by the dispatcher for the time of the push, once the lease has expired the item is available again
+ * (at-least-once delivery).
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_TransactionOutbox" )
+public class TransactionOutbox
+        extends EntityStringIdentity
+{
+    private static final long serialVersionUID = -4405216640373618917L;
+
+    @Index
+    private Date enqueuedAt;
+
+    private int attempts;
+
+    private String lastError;
+
+    private Date leasedUntil;
+
+    @SuppressWarnings( "unused" )
+    TransactionOutbox()
+    {
+    }
+
+    TransactionOutbox( @Nonnull String extId )
+    {
+        setId( checkNotNull( extId, "Transaction Ext ID can't be null" ) );
+        this.enqueuedAt = new Date();
+    }
+
+    /**
+     * Leases the transactions enqueued the longest time ago, that are not leased already.
+     * Each transaction is being leased in its own datastore transaction, thus concurrent dispatchers
+     * never lease the same item at the same time. The outbox is being read in chunks past the leased items
+     * until the limit is reached, thus the items leased by other dispatchers never starve the rest of the outbox.
+     *
+     * @param limit       the maximum number of transactions to be leased
+     * @param leaseMillis the lease duration in milliseconds
+     * @return the list of the leased transactions, ordered by the time they have been enqueued
+     */
+    public static List<TransactionOutbox> lease( int limit, long leaseMillis )
+    {
+        List<TransactionOutbox> leased = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        Query<TransactionOutbox> query = ofy().load().type( TransactionOutbox.class )
+                .order( "enqueuedAt" )
+                .chunk( limit );
+
+        for ( TransactionOutbox candidate : query )
+        {
+            if ( leased.size() >= limit )
+            {
+                break;
+            }
+            if ( candidate.isLeased( now ) )
+            {
+                continue;
+            }
+
+            TransactionOutbox item = ofy().transact( () -> {
+                TransactionOutbox current = ofy().load().type( TransactionOutbox.class ).id( candidate.getId() ).now();
+                if ( current == null || current.isLeased( now ) )
+                {
+                    return null;
+                }
+
+                current.leasedUntil = new Date( now + leaseMillis );
+                ofy().defer().save().entity( current );
+                return current;
+            } );
+
+            if ( item != null )
+            {
+                leased.add( item );
+            }
+        }
+
+        return leased;
+    }
+
+    /**
+     * Removes the pushed transaction from the outbox, unless it has been enqueued again in the meantime.
+     */
+    public void pushed()
+    {
+        ofy().transact( () -> {
+            TransactionOutbox current = ofy().load().type( TransactionOutbox.class ).id( getId() ).now();
+            if ( current != null && current.enqueuedAt != null && current.enqueuedAt.equals( enqueuedAt ) )
+            {
+                ofy().defer().delete().entity( current );
+            }
+        } );
+    }
+
+    /**
+     * Records the failed attempt to push the transaction. Once the maximum number of attempts
+     * has been reached the transaction is removed from the outbox.
+     *
+     * @param error       the error description
+     * @param maxAttempts the maximum number of attempts
+     * @return true if the transaction stays in the outbox to be pushed again
+     */
+    public boolean failed( String error, int maxAttempts )
+    {
+        return ofy().transact( () -> {
+            TransactionOutbox current = ofy().load().type( TransactionOutbox.class ).id( getId() ).now();
+            if ( current == null || current.enqueuedAt == null || !current.enqueuedAt.equals( enqueuedAt ) )
+            {
+                // enqueued again in the meantime, the next attempt has been already planned
+                return true;
+            }
+
+            current.attempts++;
+            current.lastError = error;
+            current.leasedUntil = null;
+            if ( current.attempts >= maxAttempts )
+            {
+                ofy().defer().delete().entity( current );
+                return false;
+            }
+
+            ofy().defer().save().entity( current );
+            return true;
+        } );
+    }
+
+    /**
+     * The external ID of the transaction.
+     */
+    public String getExtId()
+    {
+        return getId();
+    }
+
+    public Date getEnqueuedAt()
+    {
+        return enqueuedAt;
+    }
+
+    public int getAttempts()
+    {
+        return attempts;
+    }
+
+    public String getLastError()
+    {
+        return lastError;
+    }
+
+    /**
+     * The date until the transaction is leased by the dispatcher, {@code null} if not leased.
+     */
+    public Date getLeasedUntil()
+    {
+        return leasedUntil;
+    }
+
+    boolean isLeased( long now )
+    {
+        return leasedUntil != null && leasedUntil.getTime() > now;
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //01.02.2021 08:00:00 GMT+0100
+        return 1612162800000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "extId", getId() )
+                .add( "enqueuedAt", enqueuedAt )
+                .add( "attempts", attempts )
+                .add( "lastError", lastError )
+                .add( "leasedUntil", leasedUntil )
+                .toString();
+    }
+}
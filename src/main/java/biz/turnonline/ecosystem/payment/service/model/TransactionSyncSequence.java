@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Index;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nonnull;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The sequence of the synchronizations of a single bank transaction, identified by the transaction external ID.
+ * The web-hook names the synchronization task by the current sequence, thus events of the same transaction
+ * are coalesced into single task until it starts. Once started, the task advances the sequence
+ * and any later event gets a task of its own, as the name of the started task can't be reused (tombstone).
+ * The payload of the latest event is kept along with the sequence, as only the payload of the first event
+ * is carried by the task the later events have been coalesced into.
+ * The sequence is valid until {@link #getExpireAt()}, longer than the task names are being retained
+ * by the task queue. Expired sequences are purged daily by {@code ExpiredRecordsPurgeTask}.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_TransactionSyncSequence" )
+public class TransactionSyncSequence
+        extends EntityStringIdentity
+{
+    static final long EXPIRATION_MILLIS = TimeUnit.DAYS.toMillis( 10 );
+
+    private static final long serialVersionUID = -3954285046421787437L;
+
+    private long sequence;
+
+    /**
+     * The payload of the latest event received since the synchronization has started last time.
+     */
+    private String latestEvent;
+
+    @Index
+    private Date expireAt;
+
+    @SuppressWarnings( "unused" )
+    TransactionSyncSequence()
+    {
+    }
+
+    TransactionSyncSequence( @Nonnull String transactionId )
+    {
+        setId( checkNotNull( transactionId, "Transaction ID can't be null" ) );
+    }
+
+    /**
+     * Returns the current sequence of the synchronizations of the transaction.
+     *
+     * @param transactionId the transaction external ID
+     * @return the current sequence, zero if there is no synchronization yet
+     */
+    public static long current( @Nonnull String transactionId )
+    {
+        checkNotNull( transactionId, "Transaction ID can't be null" );
+        TransactionSyncSequence record = ofy().load().type( TransactionSyncSequence.class ).id( transactionId ).now();
+        return record == null ? 0 : record.sequence;
+    }
+
+    /**
+     * Records the payload of the latest event of the transaction, to be taken by the synchronization task
+     * once started, regardless of whether the event has been coalesced into an already scheduled task.
+     *
+     * @param transactionId the transaction external ID
+     * @param payload       the event payload
+     */
+    public static void offer( @Nonnull String transactionId, @Nonnull String payload )
+    {
+        checkNotNull( transactionId, "Transaction ID can't be null" );
+        checkNotNull( payload, "Payload can't be null" );
+
+        ofy().transact( () -> {
+            TransactionSyncSequence record = load( transactionId );
+            record.latestEvent = payload;
+            record.expireAt = new Date( System.currentTimeMillis() + EXPIRATION_MILLIS );
+            ofy().defer().save().entity( record );
+        } );
+    }
+
+    /**
+     * Advances the sequence of the synchronizations of the transaction, once its synchronization has started.
+     * The payload of the latest event offered since the previous synchronization has started is taken over.
+     *
+     * @param transactionId the transaction external ID
+     * @return the payload of the latest event, or {@code null} if there is no event offered
+     */
+    public static String advance( @Nonnull String transactionId )
+    {
+        checkNotNull( transactionId, "Transaction ID can't be null" );
+        return ofy().transact( () -> {
+            TransactionSyncSequence record = load( transactionId );
+            String latest = record.latestEvent;
+
+            record.sequence++;
+            record.latestEvent = null;
+            record.expireAt = new Date( System.currentTimeMillis() + EXPIRATION_MILLIS );
+            ofy().defer().save().entity( record );
+            return latest;
+        } );
+    }
+
+    /**
+     * Loads the sequence of the transaction or creates a new one, expected to be called within a transaction.
+     */
+    private static TransactionSyncSequence load( @Nonnull String transactionId )
+    {
+        TransactionSyncSequence record = ofy().load().type( TransactionSyncSequence.class ).id( transactionId ).now();
+        return record == null ? new TransactionSyncSequence( transactionId ) : record;
+    }
+
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * The payload of the latest event not yet taken by the synchronization task.
+     */
+    public String getLatestEvent()
+    {
+        return latestEvent;
+    }
+
+    /**
+     * The date after which the sequence is no longer needed.
+     */
+    public Date getExpireAt()
+    {
+        return expireAt;
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //09.02.2021 08:00:00 GMT+0100
+        return 1612854000000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "transactionId", getId() )
+                .add( "sequence", sequence )
+                .add( "latestEvent", latestEvent )
+                .add( "expireAt", expireAt )
+                .toString();
+    }
+}
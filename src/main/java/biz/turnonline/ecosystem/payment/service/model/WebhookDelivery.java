@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.model;
+
+import com.google.common.base.MoreObjects;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Index;
+import org.ctoolkit.services.datastore.objectify.EntityStringIdentity;
+
+import javax.annotation.Nonnull;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * The marker of an already accepted web-hook delivery, to recognize redelivered events.
+ * Identification of this entity is the delivery key composed of the event type and its content identification.
+ * The marker is valid until {@link #getExpireAt()}, expired markers are ignored and purged daily
+ * by {@code ExpiredRecordsPurgeTask}.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Entity( name = "PP_WebhookDelivery" )
+public class WebhookDelivery
+        extends EntityStringIdentity
+{
+    static final long EXPIRATION_MILLIS = TimeUnit.DAYS.toMillis( 3 );
+
+    private static final long serialVersionUID = 2851739180554360482L;
+
+    @Index
+    private Date expireAt;
+
+    @SuppressWarnings( "unused" )
+    WebhookDelivery()
+    {
+    }
+
+    WebhookDelivery( @Nonnull String key )
+    {
+        setId( checkNotNull( key, "Delivery key can't be null" ) );
+        this.expireAt = new Date( System.currentTimeMillis() + EXPIRATION_MILLIS );
+    }
+
+    /**
+     * Records the delivery identified by the key, unless it has been already recorded.
+     *
+     * @param key the delivery key
+     * @return true if the delivery has been recorded now, false if it's a redelivery
+     */
+    public static boolean register( @Nonnull String key )
+    {
+        checkNotNull( key, "Delivery key can't be null" );
+        return ofy().transact( () -> {
+            WebhookDelivery existing = ofy().load().type( WebhookDelivery.class ).id( key ).now();
+            if ( existing != null && !existing.isExpired() )
+            {
+                return false;
+            }
+
+            ofy().defer().save().entity( new WebhookDelivery( key ) );
+            return true;
+        } );
+    }
+
+    /**
+     * Removes the record of the delivery, the next delivery of the same event will be accepted.
+     *
+     * @param key the delivery key
+     */
+    public static void release( @Nonnull String key )
+    {
+        checkNotNull( key, "Delivery key can't be null" );
+        ofy().transact( () -> ofy().defer().delete().type( WebhookDelivery.class ).id( key ) );
+    }
+
+    /**
+     * The date after which the marker is no longer valid.
+     */
+    public Date getExpireAt()
+    {
+        return expireAt;
+    }
+
+    boolean isExpired()
+    {
+        return expireAt == null || expireAt.getTime() < System.currentTimeMillis();
+    }
+
+    @Override
+    protected long getModelVersion()
+    {
+        //27.01.2021 08:00:00 GMT+0100
+        return 1611730800000L;
+    }
+
+    @Override
+    public void save()
+    {
+        ofy().transact( () -> ofy().defer().save().entity( this ) );
+    }
+
+    @Override
+    public void delete()
+    {
+        ofy().transact( () -> ofy().defer().delete().entity( this ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "key", getId() )
+                .add( "expireAt", expireAt )
+                .toString();
+    }
+}
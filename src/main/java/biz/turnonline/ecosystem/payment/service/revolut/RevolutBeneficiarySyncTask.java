@@ -27,6 +27,7 @@ import biz.turnonline.ecosystem.payment.service.model.BeneficiaryBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
 import biz.turnonline.ecosystem.payment.subscription.JsonAccountTask;
+import biz.turnonline.ecosystem.payment.subscription.TaskPayload;
 import biz.turnonline.ecosystem.revolut.business.counterparty.model.Counterparty;
 import biz.turnonline.ecosystem.revolut.business.counterparty.model.CreateCounterpartyRequest;
 import biz.turnonline.ecosystem.revolut.business.counterparty.model.ProfileType;
@@ -69,14 +70,14 @@ public class RevolutBeneficiarySyncTask
      * Constructor.
      *
      * @param accountKey    the key of a local account as an owner of the payload
-     * @param json          the incoming invoice as JSON payload
+     * @param payload       the incoming invoice as JSON payload, shared with the next task of the chain
      * @param debtorBankKey the debtor bank account key, the bank account to be debited
      */
     public RevolutBeneficiarySyncTask( @Nonnull Key<LocalAccount> accountKey,
-                                       @Nonnull String json,
+                                       @Nonnull TaskPayload payload,
                                        @Nonnull Key<CompanyBankAccount> debtorBankKey )
     {
-        super( accountKey, json, false, "Revolut-Beneficiary-Sync" );
+        super( accountKey, payload, false, "Revolut-Beneficiary-Sync" );
         this.debtorBankAccountKey = checkNotNull( debtorBankKey, "Debtor bank account key can't be null" );
     }
 
@@ -195,7 +196,18 @@ public class RevolutBeneficiarySyncTask
                 .answerBy( Counterparty.class )
                 .finish();
 
-        bankAccount.setExternalId( bankAccount.getBankCode(), counterparty.getId().toString() );
+        // counterparty ID is issued by the bank of the debtor, the beneficiary has been synced to
+        CompanyBankAccount debtorBankAccount = getDebtorBankAccount();
+        String syncBankCode = debtorBankAccount == null || debtorBankAccount.getBankCode() == null
+                ? REVOLUT_BANK_CODE
+                : debtorBankAccount.getBankCode();
+
+        bankAccount.setExternalId( syncBankCode, counterparty.getId().toString() );
+        if ( Strings.isNullOrEmpty( bankAccount.getName() ) )
+        {
+            // the transactions of the beneficiary get the counterparty name with no remote call
+            bankAccount.setName( creditor.getBusinessName() );
+        }
         bankAccount.save();
     }
 
@@ -27,6 +27,7 @@ import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.FormOfPayment;
 import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
 import biz.turnonline.ecosystem.payment.subscription.JsonAccountTask;
+import biz.turnonline.ecosystem.payment.subscription.TaskPayload;
 import biz.turnonline.ecosystem.revolut.business.draft.model.CreatePaymentDraftRequest;
 import biz.turnonline.ecosystem.revolut.business.draft.model.CreatePaymentDraftResponse;
 import biz.turnonline.ecosystem.revolut.business.draft.model.PaymentReceiver;
@@ -85,18 +86,18 @@ public class RevolutPaymentDraftProcessorTask
      * Constructor.
      *
      * @param debtor     the key of a local account as a debtor of the incoming invoice
-     * @param json       the incoming invoice JSON payload
+     * @param payload    the incoming invoice JSON payload, might be shared by the tasks of a chain
      * @param delete     {@code true} to be incoming invoice processed as deleted
      * @param debtorBank the debtor bank account key, the bank account to be debited
      * @param t          the transaction draft to be populated if payment sync is successful
      */
     public RevolutPaymentDraftProcessorTask( @Nonnull Key<LocalAccount> debtor,
-                                             @Nonnull String json,
+                                             @Nonnull TaskPayload payload,
                                              boolean delete,
                                              @Nonnull Key<CompanyBankAccount> debtorBank,
                                              @Nonnull CommonTransaction t )
     {
-        super( debtor, json, delete, "Revolut-IncomingInvoice-Processing" );
+        super( debtor, payload, delete, "Revolut-IncomingInvoice-Processing" );
         this.debtorBankAccountKey = checkNotNull( debtorBank, "Debtor bank account key can't be null" );
         this.transactionKey = checkNotNull( t.entityKey(), "Transaction draft key can't be null" );
     }
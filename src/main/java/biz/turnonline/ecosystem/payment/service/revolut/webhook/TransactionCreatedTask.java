@@ -20,6 +20,7 @@ package biz.turnonline.ecosystem.payment.service.revolut.webhook;
 
 import biz.turnonline.ecosystem.payment.service.CategoryService;
 import biz.turnonline.ecosystem.payment.service.PaymentConfig;
+import biz.turnonline.ecosystem.payment.service.model.BeneficiaryBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.CounterpartyBankAccount;
@@ -28,7 +29,11 @@ import biz.turnonline.ecosystem.payment.service.model.ExchangeRate;
 import biz.turnonline.ecosystem.payment.service.model.FormOfPayment;
 import biz.turnonline.ecosystem.payment.service.model.TransactionCategory;
 import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
+import biz.turnonline.ecosystem.payment.service.model.TransactionSyncSequence;
+import biz.turnonline.ecosystem.payment.subscription.JsonReaders;
 import biz.turnonline.ecosystem.payment.subscription.JsonTask;
+import biz.turnonline.ecosystem.payment.subscription.TransactionBatchPublisherTask;
+import biz.turnonline.ecosystem.payment.subscription.TransactionVerificationTask;
 import biz.turnonline.ecosystem.revolut.business.counterparty.model.Counterparty;
 import biz.turnonline.ecosystem.revolut.business.counterparty.model.CounterpartyAccount;
 import biz.turnonline.ecosystem.revolut.business.transaction.model.Transaction;
@@ -36,26 +41,57 @@ import biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionLe
 import biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionMerchant;
 import biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionState;
 import biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionType;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
 import org.ctoolkit.restapi.client.NotFoundException;
 import org.ctoolkit.restapi.client.RestFacade;
+import org.ctoolkit.services.task.TaskExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static biz.turnonline.ecosystem.payment.service.PaymentConfig.REVOLUT_BANK_CODES;
 import static biz.turnonline.ecosystem.payment.service.PaymentConfig.REVOLUT_BANK_EU_CODE;
 
 /**
  * Async task to process Revolut {@link Transaction}.
  * <p>
  * Incoming transaction Id is being only used to get {@link Transaction} from the bank.
+ * As the latest state is always taken from the bank, the task serves transaction state changed events too.
+ * Once started, the task advances the {@link TransactionSyncSequence} of the transaction, thus a later event
+ * is not coalesced into the task that has already taken the state from the bank. The task processes the payload
+ * of the latest event coalesced into it, not only the one it has been scheduled with.
+ * <p>
+ * An already processed transaction is saved only if the bank has brought a change. A failed (declined, failed
+ * or reverted) transaction is final, a later state of the transaction is ignored.
+ * <p>
+ * In trusted mode (see {@link #TRUSTED_PROPERTY}) the complete transaction taken from the web-hook is processed
+ * without the bank call, it's verified later by {@link TransactionVerificationTask}.
+ * <p>
+ * The processed transaction is enqueued to be published to product-billing within the same datastore transaction
+ * as it's saved, the publication itself is up to {@link TransactionBatchPublisherTask}.
  * <p>
  * <strong>Note</strong>
  * </p>
@@ -72,12 +108,37 @@ public class TransactionCreatedTask
 
     private static final ReferenceResolver referenceResolver = new ReferenceResolver();
 
+    static final String TRUSTED_PROPERTY = "payment.revolut.webhook.trusted";
+
+    private static final int LOOKUP_THREADS = 12;
+
+    private static final long LOOKUP_TIMEOUT_SECONDS = 20;
+
+    /**
+     * Bounded pool of the lookup threads, shared across tasks on the instance, including {@link TransactionReplayTask}.
+     * The threads are not bound to any request, each lookup runs within its own Objectify context.
+     */
+    static final ExecutorService LOOKUPS = Executors.newFixedThreadPool( LOOKUP_THREADS, new ThreadFactoryBuilder()
+            .setNameFormat( "revolut-transaction-lookup-%d" )
+            .setDaemon( true )
+            .build() );
+
+    /**
+     * Bounded cache of the counterparties identified by counterparty ID, shared across tasks on the instance.
+     */
+    private static final Cache<String, CounterpartyBankAccount> COUNTERPARTIES = CacheBuilder.newBuilder()
+            .maximumSize( 1000 )
+            .expireAfterWrite( 6, TimeUnit.HOURS )
+            .build();
+
     transient private PaymentConfig config;
 
     transient private RestFacade facade;
 
     transient private CategoryService categoryService;
 
+    transient private TaskExecutor taskExecutor;
+
     /**
      * Constructor.
      *
@@ -89,22 +150,59 @@ public class TransactionCreatedTask
     }
 
     @Override
-    protected void execute( @Nonnull Transaction incoming )
+    protected void execute( @Nonnull Transaction resource )
     {
+        Transaction incoming = resource;
+        String payload = json();
         String id = Strings.isNullOrEmpty( incoming.getId() ) ? "" : incoming.getId();
         Transaction transactionFromBank;
 
-        try
+        if ( id.isEmpty() )
         {
-            transactionFromBank = facade.get( Transaction.class ).identifiedBy( id ).finish();
-            LOGGER.info( "Incoming transaction (via webhook) found in bank system too" );
+            LOGGER.warn( "Invalid incoming transaction, it has no ID: " + payload );
+            return;
         }
-        catch ( NotFoundException e )
+
+        // events coalesced into this task, the payload of the latest one is processed
+        String latest = TransactionSyncSequence.advance( id );
+        if ( latest != null && !latest.equals( payload ) )
         {
-            clear();
-            LOGGER.error( "Unknown incoming transaction identified by transaction Id: " + id, e );
-            LOGGER.warn( "Next task cleared, nothing will be executed." );
-            return;
+            try
+            {
+                incoming = JsonReaders.forType( Transaction.class ).readValue( latest );
+                payload = latest;
+            }
+            catch ( IOException e )
+            {
+                LOGGER.error( "Latest event of the transaction " + id + " can't be read, task payload processed", e );
+            }
+        }
+
+        // the complete transaction taken from the web-hook in trusted mode, verified later on background
+        boolean trusted = isTrusted()
+                && incoming.getState() != null
+                && incoming.getLegs() != null
+                && !incoming.getLegs().isEmpty();
+
+        if ( trusted )
+        {
+            transactionFromBank = incoming;
+            LOGGER.info( "Incoming transaction (via webhook) trusted, verification against bank postponed" );
+        }
+        else
+        {
+            try
+            {
+                transactionFromBank = facade.get( Transaction.class ).identifiedBy( id ).finish();
+                LOGGER.info( "Incoming transaction (via webhook) found in bank system too" );
+            }
+            catch ( NotFoundException e )
+            {
+                clear();
+                LOGGER.error( "Unknown incoming transaction identified by transaction Id: " + id, e );
+                LOGGER.warn( "Next task cleared, nothing will be executed." );
+                return;
+            }
         }
 
         List<TransactionLeg> legs = transactionFromBank.getLegs();
@@ -119,31 +217,59 @@ public class TransactionCreatedTask
         TransactionLeg leg = legs.get( 0 );
 
         String reference = referenceResolver.resolve( transactionFromBank.getReference() );
-        CommonTransaction transaction = config.searchInitTransaction( id, reference );
-        transaction.bankCode( REVOLUT_BANK_EU_CODE )
-                .currency( leg.getCurrency() )
-                .balance( leg.getBalance() )
-                .reference( transactionFromBank.getReference() );
+        String counterpartyId = leg.getCounterparty() == null || leg.getCounterparty().getId() == null
+                ? null
+                : leg.getCounterparty().getId().toString();
+        UUID accountId = leg.getAccountId();
+
+        // once the leg is known the rest of the lookups are independent, executed concurrently
+        CommonTransaction transaction;
+        CounterpartyBankAccount counterparty = null;
+        CompanyBankAccount bankAccount = null;
+
+        // all of the lookups share single deadline, the task waits at most LOOKUP_TIMEOUT_SECONDS in total
+        long deadline = deadline();
+        Future<CounterpartyBankAccount> counterpartyFuture = counterpartyId == null
+                ? null
+                : submit( LOOKUPS, () -> getCounterparty( counterpartyId ) );
+        Future<CompanyBankAccount> bankAccountFuture = accountId == null
+                ? null
+                : submit( LOOKUPS, () -> config.getBankAccount( REVOLUT_BANK_CODES, accountId.toString() ) );
 
-        if ( leg.getCounterparty() != null && leg.getCounterparty().getId() != null )
+        try
         {
-            String counterpartyId = leg.getCounterparty().getId().toString();
+            // the draft lookup might insert the transaction, thus it's searched by the task thread meanwhile,
+            // an interrupted insert would leave the transaction and its lookup records inconsistent
+            transaction = config.searchInitTransaction( id, reference );
+            if ( counterpartyFuture != null )
+            {
+                counterparty = await( counterpartyFuture, "Counterparty lookup", deadline );
+            }
+            if ( bankAccountFuture != null )
+            {
+                bankAccount = await( bankAccountFuture, "Company bank account lookup", deadline );
+            }
+        }
+        finally
+        {
+            // none of the lookups outlives the task once it has failed
+            cancel( counterpartyFuture );
+            cancel( bankAccountFuture );
+        }
 
-            Counterparty counterparty = facade.get( Counterparty.class ).identifiedBy( counterpartyId ).finish();
-            CounterpartyAccount counterpartyAccount = counterparty.getAccounts().get( 0 );
+        // already processed transaction is saved only if the bank has brought a change
+        List<Object> before = transaction.getOriginCount() > 0 ? bankValues( transaction ) : null;
 
-            CounterpartyBankAccount counterpartyBankAccount = new CounterpartyBankAccount();
-            counterpartyBankAccount.setIban( counterpartyAccount.getIban() );
-            counterpartyBankAccount.setBic( counterpartyAccount.getBic() );
-            counterpartyBankAccount.setName( counterpartyAccount.getName() );
+        transaction.bankCode( REVOLUT_BANK_EU_CODE );
+        populate( transaction, transactionFromBank, leg );
 
-            transaction.setCounterparty( counterpartyBankAccount );
+        if ( counterparty != null )
+        {
+            transaction.setCounterparty( counterparty );
         }
 
-        UUID accountId = leg.getAccountId();
         if ( accountId != null )
         {
-            CompanyBankAccount bankAccount = config.getBankAccount( accountId.toString() );
             if ( bankAccount != null )
             {
                 transaction.bankAccountKey( bankAccount.entityKey() );
@@ -156,14 +282,66 @@ public class TransactionCreatedTask
         }
 
         TransactionState state = transactionFromBank.getState();
-        transaction.failure( TransactionState.CREATED != state
-                && TransactionState.PENDING != state
-                && TransactionState.COMPLETED != state );
+        if ( before != null && isFailed( transaction ) )
+        {
+            // a failed transaction verified by the bank is final, never flipped back by a later state
+            LOGGER.warn( "Transaction " + id + " has failed already, its state '" + state + "' ignored" );
+        }
+        else
+        {
+            transaction.failure( TransactionState.CREATED != state
+                    && TransactionState.PENDING != state
+                    && TransactionState.COMPLETED != state );
+
+            if ( state != null )
+            {
+                transaction.status( CommonTransaction.State.fromValue( transactionFromBank.getState().getValue() ) );
+            }
+
+            if ( TransactionState.COMPLETED.equals( state ) )
+            {
+                transaction.completedAt( transactionFromBank.getCompletedAt() );
+            }
+        }
 
-        if ( state != null )
+        List<TransactionCategory> categories = categoryService.resolveCategories( transaction );
+        transaction.setCategories( categories );
+        transaction.verificationPending( trusted );
+
+        if ( before != null && before.equals( bankValues( transaction ) ) )
+        {
+            LOGGER.info( "Revolut Transaction [" + transaction.getId() + "] has not changed, nothing to be saved." );
+            return;
+        }
+
+        transaction.addOrigin( payload );
+        transaction.publish().save();
+        LOGGER.info( "Revolut Transaction [" + transaction.getId() + "] has been processed." );
+
+        // enqueued within the save, the dispatcher flushes the outbox at the end of the current window
+        TransactionBatchPublisherTask.schedule( taskExecutor );
+
+        if ( trusted )
         {
-            transaction.status( CommonTransaction.State.fromValue( transactionFromBank.getState().getValue() ) );
+            TransactionVerificationTask.schedule( taskExecutor );
         }
+    }
+
+    /**
+     * Populates the transaction with the values taken from the bank transaction, except of its state
+     * and the values that require a lookup. No remote call, thus it's shared with {@link TransactionReplayTask}.
+     *
+     * @param transaction the transaction to be populated
+     * @param fromBank    the bank transaction
+     * @param leg         the leg of the bank transaction
+     */
+    static void populate( @Nonnull CommonTransaction transaction,
+                          @Nonnull Transaction fromBank,
+                          @Nonnull TransactionLeg leg )
+    {
+        transaction.currency( leg.getCurrency() )
+                .balance( leg.getBalance() )
+                .reference( fromBank.getReference() );
 
         Double amount = leg.getAmount();
         if ( amount != null && amount > 0 )
@@ -187,34 +365,25 @@ public class TransactionCreatedTask
             transaction.billAmount( Math.abs( billAmount ) ).billCurrency( leg.getBillCurrency() );
         }
 
-        if ( TransactionState.COMPLETED.equals( state ) )
-        {
-            transaction.completedAt( transactionFromBank.getCompletedAt() );
-        }
-
-        if ( TransactionType.CARD_PAYMENT.equals( transactionFromBank.getType() ) )
+        if ( TransactionType.CARD_PAYMENT.equals( fromBank.getType() ) )
         {
             transaction.type( FormOfPayment.CARD_PAYMENT );
-            populateMerchant( transaction, transactionFromBank );
+            populateMerchant( transaction, fromBank );
         }
-        else if ( TransactionType.TRANSFER.equals( transactionFromBank.getType() )
-                || TransactionType.TOPUP.equals( transactionFromBank.getType() )
-                || TransactionType.FEE.equals( transactionFromBank.getType() ) )
+        else if ( TransactionType.TRANSFER.equals( fromBank.getType() )
+                || TransactionType.TOPUP.equals( fromBank.getType() )
+                || TransactionType.FEE.equals( fromBank.getType() ) )
         {
             transaction.type( FormOfPayment.TRANSFER );
             populateMerchant( transaction, leg );
         }
-        else if ( TransactionType.CARD_REFUND.equals( transactionFromBank.getType() )
-                || TransactionType.REFUND.equals( transactionFromBank.getType() ) )
+        else if ( TransactionType.CARD_REFUND.equals( fromBank.getType() )
+                || TransactionType.REFUND.equals( fromBank.getType() ) )
         {
             transaction.type( FormOfPayment.REFUND );
-            populateMerchant( transaction, transactionFromBank );
+            populateMerchant( transaction, fromBank );
         }
 
-        List<TransactionCategory> categories = categoryService.resolveCategories( transaction );
-        transaction.setCategories( categories );
-        transaction.addOrigin( json() );
-
         if ( transaction.getBillAmount() != null
                 && transaction.getAmount() != null
                 && !Strings.isNullOrEmpty( transaction.getBillCurrency() )
@@ -239,12 +408,182 @@ public class TransactionCreatedTask
 
             rate.rate( calcRate );
         }
+    }
 
-        transaction.save();
-        LOGGER.info( "Revolut Transaction [" + transaction.getId() + "] has been processed." );
+    /**
+     * Returns {@code true} if the transaction has failed (declined, failed or reverted) according to the bank.
+     * The state taken from the web-hook in trusted mode is not final until verified.
+     */
+    private static boolean isFailed( @Nonnull CommonTransaction transaction )
+    {
+        CommonTransaction.State status = transaction.getStatus();
+        return !transaction.isVerificationPending()
+                && ( status == CommonTransaction.State.DECLINED
+                || status == CommonTransaction.State.FAILED
+                || status == CommonTransaction.State.REVERTED );
+    }
+
+    /**
+     * Returns the values of the transaction set by this task, to find out whether the bank has brought a change.
+     * The exchange rate is derived from the amounts, it's being compared by them.
+     */
+    private static List<Object> bankValues( @Nonnull CommonTransaction transaction )
+    {
+        List<Object> values = new ArrayList<>( Arrays.asList( transaction.getBankCode(),
+                transaction.getBankAccountKey(),
+                transaction.getCurrency(),
+                transaction.getBalance(),
+                transaction.getReference(),
+                transaction.getAmount(),
+                transaction.isCredit(),
+                transaction.getBillAmount(),
+                transaction.getBillCurrency(),
+                transaction.getType(),
+                transaction.getCounterparty(),
+                transaction.isFailure(),
+                transaction.getStatus(),
+                transaction.getCompletedAt(),
+                new ArrayList<>( transaction.getCategories() ),
+                transaction.isVerificationPending() ) );
+
+        if ( transaction instanceof TransactionReceipt )
+        {
+            TransactionReceipt receipt = ( TransactionReceipt ) transaction;
+            values.add( receipt.getMerchantName() );
+            values.add( receipt.getCategory() );
+            values.add( receipt.getCity() );
+        }
+        return values;
+    }
+
+    /**
+     * Returns {@code true} if the transaction taken from the web-hook is trusted to be processed
+     * without being fetched from the bank first. Configured by the system property {@link #TRUSTED_PROPERTY}.
+     */
+    static boolean isTrusted()
+    {
+        return Boolean.getBoolean( TRUSTED_PROPERTY );
     }
 
-    private void populateMerchant( @Nonnull CommonTransaction transaction, @Nonnull Transaction fromBank )
+    /**
+     * Returns the counterparty bank account, resolved in the following order:
+     * <ul>
+     *     <li>the counterparties recently resolved on this instance</li>
+     *     <li>the beneficiary bank account synced to the bank under the counterparty ID, if it has a name</li>
+     *     <li>the remote call to the bank</li>
+     * </ul>
+     */
+    private CounterpartyBankAccount getCounterparty( @Nonnull String counterpartyId )
+    {
+        CounterpartyBankAccount cached = COUNTERPARTIES.getIfPresent( counterpartyId );
+        if ( cached == null )
+        {
+            BeneficiaryBankAccount beneficiary = config.getBeneficiaryByExternalId( REVOLUT_BANK_CODES,
+                    counterpartyId );
+            // beneficiaries synced before their name has been recorded are taken from the bank
+            if ( beneficiary != null && !Strings.isNullOrEmpty( beneficiary.getName() ) )
+            {
+                cached = new CounterpartyBankAccount();
+                cached.setIban( beneficiary.getIbanString() );
+                cached.setBic( beneficiary.getBic() );
+                cached.setName( beneficiary.getName() );
+            }
+            else
+            {
+                Counterparty counterparty = facade.get( Counterparty.class ).identifiedBy( counterpartyId ).finish();
+                CounterpartyAccount counterpartyAccount = counterparty.getAccounts().get( 0 );
+
+                cached = new CounterpartyBankAccount();
+                cached.setIban( counterpartyAccount.getIban() );
+                cached.setBic( counterpartyAccount.getBic() );
+                cached.setName( counterpartyAccount.getName() );
+            }
+            COUNTERPARTIES.put( counterpartyId, cached );
+        }
+
+        // the cached instance is shared, the transaction gets its own copy
+        CounterpartyBankAccount counterpartyBankAccount = new CounterpartyBankAccount();
+        counterpartyBankAccount.setIban( cached.getIban() );
+        counterpartyBankAccount.setBic( cached.getBic() );
+        counterpartyBankAccount.setName( cached.getName() );
+
+        return counterpartyBankAccount;
+    }
+
+    /**
+     * Submits the lookup to be executed within its own Objectify context.
+     */
+    static <V> Future<V> submit( @Nonnull ExecutorService executor, @Nonnull Work<V> lookup )
+    {
+        return executor.submit( () -> ObjectifyService.run( lookup ) );
+    }
+
+    /**
+     * Returns the deadline to be shared by the lookups submitted from now on, {@link #LOOKUP_TIMEOUT_SECONDS} ahead.
+     *
+     * @return the deadline in terms of {@link System#nanoTime()}
+     */
+    static long deadline()
+    {
+        return System.nanoTime() + TimeUnit.SECONDS.toNanos( LOOKUP_TIMEOUT_SECONDS );
+    }
+
+    /**
+     * Waits for the lookup result until the deadline, shared by all of the lookups of single task execution.
+     * A failure is rethrown in order to handle retry of the task. The lookup not finished before the deadline
+     * is being cancelled and interrupted, thus only a lookup that does not write might be awaited this way.
+     *
+     * @param deadline the deadline in terms of {@link System#nanoTime()}
+     */
+    static <V> V await( @Nonnull Future<V> future, @Nonnull String lookup, long deadline )
+    {
+        try
+        {
+            return future.get( Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+        }
+        catch ( TimeoutException e )
+        {
+            future.cancel( true );
+            throw new IllegalStateException( lookup + " has not finished before the deadline", e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( lookup + " has been interrupted", e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException )
+            {
+                throw ( RuntimeException ) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw ( Error ) cause;
+            }
+            throw new IllegalStateException( lookup + " has failed", cause );
+        }
+    }
+
+    private static void cancel( @Nullable Future<?> future )
+    {
+        if ( future != null )
+        {
+            future.cancel( true );
+        }
+    }
+
+    /**
+     * Discards all of the counterparties cached so far.
+     */
+    @VisibleForTesting
+    static void invalidateCounterparties()
+    {
+        COUNTERPARTIES.invalidateAll();
+    }
+
+    private static void populateMerchant( @Nonnull CommonTransaction transaction, @Nonnull Transaction fromBank )
     {
         TransactionMerchant merchant = fromBank.getMerchant();
         if ( merchant != null && transaction instanceof TransactionReceipt )
@@ -256,7 +595,7 @@ public class TransactionCreatedTask
         }
     }
 
-    private void populateMerchant( @Nonnull CommonTransaction transaction, @Nonnull TransactionLeg leg )
+    private static void populateMerchant( @Nonnull CommonTransaction transaction, @Nonnull TransactionLeg leg )
     {
         String description = leg.getDescription();
         if ( description != null && transaction instanceof TransactionReceipt )
@@ -289,4 +628,10 @@ public class TransactionCreatedTask
     {
         this.categoryService = categoryService;
     }
+
+    @Inject
+    void setTaskExecutor( TaskExecutor taskExecutor )
+    {
+        this.taskExecutor = taskExecutor;
+    }
 }
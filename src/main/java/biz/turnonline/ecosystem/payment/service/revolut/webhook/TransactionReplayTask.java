@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.revolut.webhook;
+
+import biz.turnonline.ecosystem.payment.service.CategoryService;
+import biz.turnonline.ecosystem.payment.service.category.CategoryRuleSet;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.ExchangeRate;
+import biz.turnonline.ecosystem.payment.service.model.ReplayCheckpoint;
+import biz.turnonline.ecosystem.payment.service.model.TransactionCategory;
+import biz.turnonline.ecosystem.payment.service.model.TransactionOrigin;
+import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
+import biz.turnonline.ecosystem.payment.subscription.JsonReaders;
+import biz.turnonline.ecosystem.payment.subscription.TransactionBatchPublisherTask;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.Transaction;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionLeg;
+import com.google.cloud.datastore.Cursor;
+import com.google.common.base.Strings;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+import com.googlecode.objectify.cmd.QueryResultIterator;
+import org.ctoolkit.services.task.Task;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask.LOOKUPS;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Offline replay that rebuilds the transactions from their stored origins, to reprocess history once
+ * the mapping of {@link TransactionCreatedTask} or the categories have changed.
+ * <p>
+ * The origins are being streamed in key order, thus grouped by the transaction they belong to, in chunks,
+ * one chunk per task. The latest complete origin (with a leg) of each transaction is being mapped
+ * by the same logic as {@link TransactionCreatedTask#populate(CommonTransaction, Transaction, TransactionLeg)}
+ * in parallel by the lookup threads shared with {@link TransactionCreatedTask}, without any remote call.
+ * The state of the transaction, the counterparty and the bank account are kept as they are, as these have been
+ * taken from the bank later than the origin has been received.
+ * Changed transactions of the chunk are being rebuilt again within a datastore transaction (the transaction
+ * might have been changed meanwhile), saved and published to product-billing,
+ * in dry-run mode nothing is being saved and the differences are collected by {@link ReplayCheckpoint} instead.
+ * <p>
+ * The task is bound to the generation of the checkpoint, once a new replay has been started
+ * this task will quit without any action. Origins still embedded within not yet migrated transactions
+ * are not replayed.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionReplayTask
+        extends Task<ReplayCheckpoint>
+{
+    /**
+     * The number of the origins streamed per chunk.
+     */
+    static final int CHUNK_SIZE = 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( TransactionReplayTask.class );
+
+    private static final long serialVersionUID = 3186637049275841860L;
+
+    private final long generation;
+
+    @Inject
+    transient private CategoryService categoryService;
+
+    @Inject
+    transient private TaskExecutor executor;
+
+    /**
+     * Constructor.
+     *
+     * @param generation the generation of the replay this task belongs to
+     */
+    public TransactionReplayTask( long generation )
+    {
+        super( "Transaction-Replay" );
+        setEntityKey( ReplayCheckpoint.key() );
+        this.generation = generation;
+    }
+
+    @Override
+    protected void execute()
+    {
+        ReplayCheckpoint checkpoint = workWith();
+        if ( checkpoint == null || checkpoint.getGeneration() != generation || checkpoint.isDone() )
+        {
+            LOGGER.info( "Replay of generation " + generation + " has been superseded or finished: " + checkpoint );
+            return;
+        }
+
+        Query<TransactionOrigin> query = ofy().load().type( TransactionOrigin.class ).limit( CHUNK_SIZE );
+        Cursor previous = null;
+        if ( !Strings.isNullOrEmpty( checkpoint.getCursor() ) )
+        {
+            previous = Cursor.fromUrlSafe( checkpoint.getCursor() );
+            query = query.startAt( previous );
+        }
+
+        // origins in key order, grouped by the transaction they belong to
+        Map<Key<CommonTransaction>, List<TransactionOrigin>> groups = new LinkedHashMap<>();
+        Cursor lastGroupStart = previous;
+        QueryResultIterator<TransactionOrigin> iterator = query.iterator();
+        int count = 0;
+        while ( iterator.hasNext() )
+        {
+            TransactionOrigin origin = iterator.next();
+            count++;
+
+            if ( !groups.containsKey( origin.getTransaction() ) )
+            {
+                lastGroupStart = previous;
+            }
+            groups.computeIfAbsent( origin.getTransaction(), key -> new ArrayList<>() ).add( origin );
+            previous = iterator.getCursor();
+        }
+
+        String cursor = null;
+        if ( count == CHUNK_SIZE )
+        {
+            if ( groups.size() > 1 && lastGroupStart != null )
+            {
+                // the origins of the last transaction might continue in the next chunk, replayed there
+                Key<CommonTransaction> last = null;
+                for ( Key<CommonTransaction> key : groups.keySet() )
+                {
+                    last = key;
+                }
+                groups.remove( last );
+                cursor = lastGroupStart.toUrlSafe();
+            }
+            else
+            {
+                cursor = iterator.getCursor().toUrlSafe();
+            }
+        }
+
+        boolean dryRun = checkpoint.isDryRun();
+        Map<Key<CommonTransaction>, CommonTransaction> transactions = ofy().load().keys( groups.keySet() );
+
+        // compiled for each chunk, the rules are applied again within the datastore transaction
+        CategoryRuleSet rules = categoryService.compileRules();
+
+        List<CommonTransaction> changed = new ArrayList<>();
+        List<String> differences = new ArrayList<>();
+        int failed = 0;
+
+        // replayed by the lookup threads within the deadline shared by the chunk, the replay itself does not write
+        long deadline = TransactionCreatedTask.deadline();
+        List<CommonTransaction> replayed = new ArrayList<>();
+        List<Future<String>> futures = new ArrayList<>();
+        for ( Map.Entry<Key<CommonTransaction>, List<TransactionOrigin>> entry : groups.entrySet() )
+        {
+            CommonTransaction transaction = transactions.get( entry.getKey() );
+            if ( transaction != null )
+            {
+                List<TransactionOrigin> origins = entry.getValue();
+                replayed.add( transaction );
+                futures.add( TransactionCreatedTask.submit( LOOKUPS, () -> replay( transaction, origins, rules ) ) );
+            }
+        }
+
+        for ( int index = 0; index < futures.size(); index++ )
+        {
+            CommonTransaction transaction = replayed.get( index );
+            try
+            {
+                Future<String> future = futures.get( index );
+                String difference = TransactionCreatedTask.await( future, "Transaction replay", deadline );
+                if ( difference != null )
+                {
+                    changed.add( transaction );
+                    differences.add( difference );
+                }
+            }
+            catch ( RuntimeException e )
+            {
+                failed++;
+                LOGGER.error( "Replay of the transaction has failed: " + transaction, e );
+            }
+        }
+
+        int saved = 0;
+        if ( dryRun )
+        {
+            differences.forEach( LOGGER::info );
+            saved = changed.size();
+        }
+        else
+        {
+            // rebuilt again from the transaction loaded within a transaction, it might have been changed meanwhile
+            for ( CommonTransaction transaction : changed )
+            {
+                Key<CommonTransaction> key = Key.create( CommonTransaction.class, transaction.getId() );
+                List<TransactionOrigin> origins = groups.get( key );
+                boolean updated = CommonTransaction.update( transaction.getId(), current -> {
+                    if ( replay( current, origins, rules ) == null )
+                    {
+                        return false;
+                    }
+
+                    // enqueued within the save to be pushed to product-billing
+                    current.publish();
+                    return true;
+                } );
+                saved += updated ? 1 : 0;
+            }
+
+            if ( saved > 0 )
+            {
+                TransactionBatchPublisherTask.schedule( executor );
+            }
+        }
+
+        int processed = transactions.size();
+        int updated = saved;
+        int failures = failed;
+        String next = cursor;
+
+        boolean current = ofy().transact( () -> {
+            ReplayCheckpoint latest = ofy().load().key( ReplayCheckpoint.key() ).now();
+            if ( latest == null || latest.getGeneration() != generation )
+            {
+                return false;
+            }
+
+            latest.advance( next, processed, updated, failures, differences );
+            ofy().defer().save().entity( latest );
+            return true;
+        } );
+
+        if ( !current )
+        {
+            LOGGER.info( "Replay of generation " + generation + " has been superseded" );
+        }
+        else if ( next == null )
+        {
+            LOGGER.info( "Replay of generation " + generation + " has finished" );
+        }
+        else
+        {
+            executor.schedule( new TransactionReplayTask( generation ) );
+        }
+
+        LOGGER.info( updated + " out of " + processed + " transactions differ after replay"
+                + ( dryRun ? " (dry-run)" : "" ) + ", " + failures + " failed." );
+    }
+
+    /**
+     * Rebuilds the transaction from the latest complete origin.
+     *
+     * @param transaction the transaction to be rebuilt
+     * @param origins     the stored origins of the transaction
+     * @param rules       the category rules to be applied
+     * @return the description of the differences or {@code null} if nothing has changed
+     */
+    String replay( @Nonnull CommonTransaction transaction,
+                   @Nonnull List<TransactionOrigin> origins,
+                   @Nonnull CategoryRuleSet rules )
+    {
+        Transaction fromBank = latest( origins );
+        if ( fromBank == null )
+        {
+            return null;
+        }
+
+        Map<String, Object> before = snapshot( transaction );
+        List<TransactionCategory> categoriesBefore = transaction.getCategories();
+        ExchangeRate rate = transaction.getExchangeRate();
+        Date rateDate = rate == null ? null : rate.getRateDate();
+
+        TransactionCreatedTask.populate( transaction, fromBank, fromBank.getLegs().get( 0 ) );
+        transaction.setCategories( categoryService.resolveCategories( transaction, rules ) );
+
+        // the replay does not change the date of the exchange rate
+        if ( rateDate != null && transaction.getExchangeRate() != null )
+        {
+            transaction.getExchangeRate().rateDate( rateDate );
+        }
+
+        Map<String, Object> after = snapshot( transaction );
+        List<String> diff = new ArrayList<>();
+        after.forEach( ( name, value ) -> {
+            Object old = before.get( name );
+            if ( !Objects.equals( old, value ) )
+            {
+                diff.add( name + ": " + old + " -> " + value );
+            }
+        } );
+
+        if ( diff.isEmpty() && Objects.equals( categoriesBefore, transaction.getCategories() ) )
+        {
+            return null;
+        }
+
+        return "Transaction " + transaction.getId() + " (" + transaction.getExternalId() + ") " + diff;
+    }
+
+    /**
+     * Returns the latest origin that contains a complete transaction, or {@code null} if none.
+     */
+    static Transaction latest( @Nonnull List<TransactionOrigin> origins )
+    {
+        List<TransactionOrigin> sorted = origins.stream()
+                .sorted( Comparator.comparingInt( TransactionOrigin::getSequence ).reversed() )
+                .collect( Collectors.toList() );
+
+        for ( TransactionOrigin origin : sorted )
+        {
+            String json = origin.getOrigin();
+            if ( Strings.isNullOrEmpty( json ) )
+            {
+                continue;
+            }
+
+            try
+            {
+                Transaction transaction = JsonReaders.forType( Transaction.class ).readValue( json );
+                List<TransactionLeg> legs = transaction.getLegs();
+                if ( legs != null && !legs.isEmpty() )
+                {
+                    return transaction;
+                }
+            }
+            catch ( IOException e )
+            {
+                LOGGER.warn( "Origin is not a valid transaction: " + origin, e );
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The values of the transaction populated by the replay.
+     */
+    private static Map<String, Object> snapshot( @Nonnull CommonTransaction transaction )
+    {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put( "amount", transaction.getAmount() );
+        values.put( "credit", transaction.isCredit() );
+        values.put( "currency", transaction.getCurrency() );
+        values.put( "balance", transaction.getBalance() );
+        values.put( "billAmount", transaction.getBillAmount() );
+        values.put( "billCurrency", transaction.getBillCurrency() );
+        values.put( "reference", transaction.getReference() );
+        values.put( "type", transaction.getType() );
+
+        ExchangeRate rate = transaction.getExchangeRate();
+        values.put( "exchangeRate", rate == null ? null : rate.getRate() );
+
+        List<TransactionCategory> categories = transaction.getCategories();
+        values.put( "categories", categories == null
+                ? null
+                : categories.stream().map( TransactionCategory::getName ).collect( Collectors.toList() ) );
+
+        if ( transaction instanceof TransactionReceipt )
+        {
+            TransactionReceipt receipt = ( TransactionReceipt ) transaction;
+            values.put( "merchantName", receipt.getMerchantName() );
+            values.put( "merchantCategory", receipt.getCategory() );
+            values.put( "merchantCity", receipt.getCity() );
+        }
+        return values;
+    }
+}
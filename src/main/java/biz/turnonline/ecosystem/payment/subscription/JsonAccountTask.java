@@ -35,6 +35,7 @@ import static com.googlecode.objectify.ObjectifyService.ofy;
 /**
  * The base task that accepts JSON string to be deserialized to target entity (data type) while processing the task.
  * By default local account association is being required.
+ * The JSON is carried by the task within {@link TaskPayload} envelope.
  *
  * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
  */
@@ -49,7 +50,17 @@ public abstract class JsonAccountTask<T>
 
     private final boolean delete;
 
-    private final String json;
+    /**
+     * The JSON payload of the tasks enqueued before the payload envelope, {@code null} otherwise.
+     */
+    private String json;
+
+    private final TaskPayload payload;
+
+    /**
+     * The de-serialized instance memoized within single task execution.
+     */
+    private transient T resource;
 
     /**
      * Constructor.
@@ -63,10 +74,26 @@ public abstract class JsonAccountTask<T>
                             @Nonnull String json,
                             boolean delete,
                             String namePrefix )
+    {
+        this( accountKey, TaskPayload.of( checkNotNull( json, "JSON can't be null" ) ), delete, namePrefix );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param accountKey the key of a local account as an owner of the payload
+     * @param payload    the JSON payload envelope, might be shared by the tasks of a chain
+     * @param delete     {@code true} if message represents a deletion
+     * @param namePrefix the task name prefix as it will appear in task queue console
+     */
+    public JsonAccountTask( @Nonnull Key<LocalAccount> accountKey,
+                            @Nonnull TaskPayload payload,
+                            boolean delete,
+                            String namePrefix )
     {
         super( namePrefix );
         this.accountKey = checkNotNull( accountKey, "Debtor's account key can't be null" );
-        this.json = checkNotNull( json, "JSON can't be null" );
+        this.payload = checkNotNull( payload, "JSON payload can't be null" );
         this.delete = delete;
     }
 
@@ -80,30 +107,54 @@ public abstract class JsonAccountTask<T>
             return;
         }
 
-        execute( localAccount, workWith() );
+        try
+        {
+            execute( localAccount, workWith() );
+        }
+        finally
+        {
+            resource = null;
+        }
     }
 
     /**
      * De-serializes the JSON by the same implementation as Pub/Sub,
-     * see {@link PubsubCommand#fromString(String, Class)}
+     * see {@link PubsubCommand#fromString(String, Class)}.
+     * The instance is being de-serialized only once within single task execution.
      *
      * @return the de-serialized instance
      */
     @Override
     public final T workWith()
     {
+        if ( resource != null )
+        {
+            return resource;
+        }
+
         try
         {
             Class<T> type = checkNotNull( type(), "Data type can't be null" );
-            return PubsubCommand.fromString( json, type );
+            resource = PubsubCommand.fromString( json(), type );
+            return resource;
         }
         catch ( IOException e )
         {
-            LOGGER.error( "Deserialization from JSON has failed: \n" + json, e );
+            LOGGER.error( "Deserialization from JSON has failed: \n" + json(), e );
             throw new NoRetryException();
         }
     }
 
+    /**
+     * Returns the JSON payload as it was taken from the incoming message.
+     *
+     * @return the JSON payload
+     */
+    protected String json()
+    {
+        return payload == null ? json : payload.json();
+    }
+
     /**
      * Returns the boolean indication whether Pub/Sub message represents a deletion.
      *
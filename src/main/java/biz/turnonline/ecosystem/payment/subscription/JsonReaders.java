@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Process wide registry of the pre-configured {@link ObjectReader}s keyed by the target data type,
+ * to be shared by all of the {@link JsonTask} executions. The readers are immutable and thread-safe,
+ * thus the deserializers resolved once for the type are reused.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public final class JsonReaders
+{
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            // to be backward compatible if some properties are added over time
+            .disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES )
+            .registerModule( new JavaTimeModule() );
+
+    private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+
+    private JsonReaders()
+    {
+    }
+
+    /**
+     * Returns the reader of the given data type, created on first use.
+     *
+     * @param type the data type to be de-serialized to
+     * @return the reader of the data type
+     */
+    public static ObjectReader forType( @Nonnull Class<?> type )
+    {
+        checkNotNull( type, "Target data type can't be null" );
+        return READERS.computeIfAbsent( type, MAPPER::readerFor );
+    }
+}
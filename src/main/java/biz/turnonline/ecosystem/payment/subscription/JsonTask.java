@@ -19,9 +19,7 @@
 package biz.turnonline.ecosystem.payment.subscription;
 
 import biz.turnonline.ecosystem.payment.service.NoRetryException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.google.common.annotations.VisibleForTesting;
 import org.ctoolkit.services.task.Task;
 import org.slf4j.Logger;
@@ -34,6 +32,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * The base task that accepts JSON string to be deserialized to target entity (data type) by {@link ObjectMapper}.
+ * The JSON is carried by the task within {@link TaskPayload} envelope.
  *
  * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
  */
@@ -44,7 +43,17 @@ public abstract class JsonTask<T>
 
     private static final long serialVersionUID = -576061063009827910L;
 
-    private final String json;
+    /**
+     * The JSON payload of the tasks enqueued before the payload envelope, {@code null} otherwise.
+     */
+    private String json;
+
+    private final TaskPayload payload;
+
+    /**
+     * The de-serialized instance memoized within single task execution.
+     */
+    private transient T resource;
 
     /**
      * Constructor.
@@ -55,37 +64,46 @@ public abstract class JsonTask<T>
     public JsonTask( @Nonnull String json, @Nonnull String namePrefix )
     {
         super( namePrefix );
-        this.json = checkNotNull( json, "JSON can't be null" );
+        this.payload = TaskPayload.of( checkNotNull( json, "JSON can't be null" ) );
     }
 
     @VisibleForTesting
     @Override
     public final void execute()
     {
-        execute( workWith() );
+        try
+        {
+            execute( workWith() );
+        }
+        finally
+        {
+            resource = null;
+        }
     }
 
     /**
-     * De-serializes the JSON.
+     * De-serializes the JSON by the reader shared for the data type, see {@link JsonReaders}.
+     * The instance is being de-serialized only once within single task execution.
      *
      * @return the de-serialized instance
      */
     @Override
     public final T workWith()
     {
+        if ( resource != null )
+        {
+            return resource;
+        }
+
         try
         {
             Class<T> type = checkNotNull( type(), "Target data type can't be null" );
-            ObjectMapper mapper = new ObjectMapper()
-                    // to be backward compatible if some properties are added over time
-                    .disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES )
-                    .registerModule( new JavaTimeModule() );
-
-            return mapper.readValue( json, type );
+            resource = JsonReaders.forType( type ).readValue( json() );
+            return resource;
         }
         catch ( IOException e )
         {
-            LOGGER.error( "Deserialization from JSON has failed: \n" + json, e );
+            LOGGER.error( "Deserialization from JSON has failed: \n" + json(), e );
             throw new NoRetryException();
         }
     }
@@ -97,7 +115,7 @@ public abstract class JsonTask<T>
      */
     protected String json()
     {
-        return json;
+        return payload == null ? json : payload.json();
     }
 
     /**
@@ -275,8 +275,14 @@ class ProductBillingChangesSubscription
                         Key<LocalAccount> debtorKey = account.entityKey();
                         Key<CompanyBankAccount> debtorBankKey = debtorBank.entityKey();
 
-                        Task<IncomingInvoice> tasks = new RevolutBeneficiarySyncTask( debtorKey, data, debtorBankKey );
-                        tasks.addNext( new RevolutPaymentDraftProcessorTask( debtorKey, data, delete, debtorBankKey, tDraft ) );
+                        // the payload shared by the chain is carried only once
+                        TaskPayload payload = TaskPayload.of( data );
+                        Task<IncomingInvoice> tasks = new RevolutBeneficiarySyncTask( debtorKey, payload, debtorBankKey );
+                        tasks.addNext( new RevolutPaymentDraftProcessorTask( debtorKey,
+                                payload,
+                                delete,
+                                debtorBankKey,
+                                tDraft ) );
 
                         executor.schedule( tasks );
                         timestamp.done();
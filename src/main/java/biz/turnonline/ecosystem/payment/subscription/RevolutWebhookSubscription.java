@@ -19,16 +19,17 @@
 package biz.turnonline.ecosystem.payment.subscription;
 
 import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask;
-import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionStateChanged;
-import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionStateChangedTask;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.base.Strings;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.common.io.ByteStreams;
 import org.ctoolkit.services.task.TaskExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServlet;
@@ -36,17 +37,24 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Enumeration;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Revolut web-hook mechanism that allows you to receive updates about business account.
- * Once a valid event has been received a corresponding task will be scheduled to process the event.
+ * Once a valid event has been received a task will be scheduled to process the event.
  * Currently the following events are supported:
  * <ul>
- *     <li>Transaction created processed by {@link TransactionCreatedTask}</li>
- *     <li>{@link TransactionStateChanged} processed by {@link TransactionStateChangedTask}</li>
+ *     <li>Transaction created</li>
+ *     <li>Transaction state changed</li>
  * </ul>
+ * Both of them are processed by {@link TransactionCreatedTask} delayed by {@link WebhookCoalescing#WINDOW_MILLIS},
+ * it takes the latest state of the transaction from the bank. Events of the same transaction received
+ * until the task starts are coalesced into that task, see {@link WebhookCoalescing}, the task processes
+ * the payload of the latest one.
+ * Revolut redelivers events, a redelivery recognized by {@link WebhookDeduplication} is acknowledged
+ * without any task being scheduled.
  *
  * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
  */
@@ -58,12 +66,22 @@ public class RevolutWebhookSubscription
 
     private static final Logger LOGGER = LoggerFactory.getLogger( RevolutWebhookSubscription.class );
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     private final TaskExecutor executor;
 
+    private final WebhookDeduplication deduplication;
+
+    private final WebhookCoalescing coalescing;
+
     @Inject
-    public RevolutWebhookSubscription( TaskExecutor executor )
+    public RevolutWebhookSubscription( TaskExecutor executor,
+                                       WebhookDeduplication deduplication,
+                                       WebhookCoalescing coalescing )
     {
         this.executor = executor;
+        this.deduplication = deduplication;
+        this.coalescing = coalescing;
     }
 
     @Override
@@ -82,31 +100,33 @@ public class RevolutWebhookSubscription
 
     private void process( HttpServletRequest request, HttpServletResponse response ) throws IOException
     {
-        Enumeration<String> headerNames = request.getHeaderNames();
-        String name;
-        String value;
-        while ( headerNames.hasMoreElements() )
+        InputStream stream = request.getInputStream();
+        if ( stream == null )
         {
-            name = headerNames.nextElement();
-            value = request.getHeader( name );
-            LOGGER.info( "Request header [" + name + " - " + value + "]" );
+            response.setStatus( HttpServletResponse.SC_BAD_REQUEST );
+            return;
         }
 
-        InputStream stream = request.getInputStream();
-        if ( stream == null )
+        byte[] body = ByteStreams.toByteArray( stream );
+        if ( LOGGER.isDebugEnabled() )
         {
+            LOGGER.debug( "Request body: " + new String( body, StandardCharsets.UTF_8 ) );
+        }
+
+        Envelope envelope;
+        try
+        {
+            envelope = Envelope.parse( body );
+        }
+        catch ( JsonProcessingException e )
+        {
+            LOGGER.warn( "Malformed Revolut web-hook event: " + e.getOriginalMessage() );
             response.setStatus( HttpServletResponse.SC_BAD_REQUEST );
             return;
         }
 
-        // Parse the JSON event in order to read first the event type
-        JsonElement element = JsonParser.parseReader( new InputStreamReader( stream ) );
-        JsonObject jsonObject = element.getAsJsonObject();
-        JsonElement jsonEvent = jsonObject.get( "event" );
-        String event = jsonEvent == null ? "" : jsonEvent.getAsString();
-        JsonElement dataElement = jsonObject.get( "data" );
-        JsonElement idElement = dataElement == null ? null : dataElement.getAsJsonObject().get( "id" );
-        String id = idElement == null ? null : idElement.getAsString();
+        String event = envelope.event;
+        String id = envelope.id;
 
         if ( Strings.isNullOrEmpty( id ) )
         {
@@ -114,32 +134,150 @@ public class RevolutWebhookSubscription
             return;
         }
 
-        switch ( event )
+        if ( !"TransactionCreated".equals( event ) && !"TransactionStateChanged".equals( event ) )
+        {
+            LOGGER.warn( "Unknown Revolut web-hook event type: " + event );
+            LOGGER.info( "Request body: " + new String( body, StandardCharsets.UTF_8 ) );
+            response.setStatus( HttpServletResponse.SC_OK );
+            return;
+        }
+
+        // redelivered event is acknowledged without being processed again
+        String deliveryKey = envelope.deliveryKey();
+        if ( deduplication.seen( deliveryKey ) )
+        {
+            LOGGER.info( "Redelivered " + event + " event ignored: " + deliveryKey );
+            response.setStatus( HttpServletResponse.SC_OK );
+            return;
+        }
+
+        // events of the same transaction are coalesced into single delayed task until it starts,
+        // it fetches the latest state of the transaction from the bank once the window is over
+        try
         {
-            case "TransactionCreated":
+            if ( coalescing.schedule( executor, id, envelope.data( body ) ) )
             {
-                TransactionCreatedTask task = new TransactionCreatedTask( dataElement.toString() );
-                task.addNext( new TransactionPublisherTask( id ) );
-                executor.schedule( task );
-                LOGGER.info( event + " task scheduled" );
-                break;
+                LOGGER.info( event + " task scheduled for " + id );
             }
-            case "TransactionStateChanged":
+            else
             {
-                TransactionStateChangedTask task = new TransactionStateChangedTask( jsonObject.toString() );
-                task.addNext( new TransactionPublisherTask( id ) );
-                executor.schedule( task );
-                LOGGER.info( event + " task scheduled" );
-                break;
+                LOGGER.info( event + " event coalesced with the already scheduled task for " + id );
             }
-            default:
+        }
+        catch ( RuntimeException e )
+        {
+            // not scheduled, the redelivery has to be accepted
+            deduplication.forget( deliveryKey );
+            throw e;
+        }
+
+        response.setStatus( HttpServletResponse.SC_OK );
+    }
+
+    /**
+     * The event type and transaction ID read by the streaming parser, together with the position
+     * of the 'data' object within the request body. Rest of the body is being skipped without being parsed.
+     */
+    static class Envelope
+    {
+        String event = "";
+
+        String id;
+
+        private String timestamp;
+
+        private String newState;
+
+        private int dataStart = -1;
+
+        private int dataEnd = -1;
+
+        /**
+         * Reads the event type and the transaction ID ('data.id') from the web-hook JSON body.
+         *
+         * @param body the web-hook request body
+         * @return the envelope of the event
+         * @throws IOException if the body is not a valid JSON, see {@link JsonProcessingException}
+         */
+        static Envelope parse( @Nonnull byte[] body ) throws IOException
+        {
+            Envelope envelope = new Envelope();
+
+            try ( JsonParser parser = JSON_FACTORY.createParser( body ) )
             {
-                LOGGER.warn( "Unknown Revolut web-hook event type: " + event );
-                LOGGER.info( "Request body: " + jsonObject );
+                if ( parser.nextToken() != JsonToken.START_OBJECT )
+                {
+                    return envelope;
+                }
+
+                while ( parser.nextToken() == JsonToken.FIELD_NAME )
+                {
+                    String field = parser.getCurrentName();
+                    JsonToken token = parser.nextToken();
+
+                    if ( "event".equals( field ) && token.isScalarValue() )
+                    {
+                        envelope.event = parser.getValueAsString( "" );
+                    }
+                    else if ( "timestamp".equals( field ) && token.isScalarValue() )
+                    {
+                        envelope.timestamp = parser.getValueAsString();
+                    }
+                    else if ( "data".equals( field ) && token == JsonToken.START_OBJECT )
+                    {
+                        envelope.dataStart = ( int ) parser.getTokenLocation().getByteOffset();
+                        while ( parser.nextToken() == JsonToken.FIELD_NAME )
+                        {
+                            String dataField = parser.getCurrentName();
+                            JsonToken value = parser.nextToken();
+                            if ( "id".equals( dataField ) && value.isScalarValue() )
+                            {
+                                envelope.id = parser.getValueAsString();
+                            }
+                            else if ( "new_state".equals( dataField ) && value.isScalarValue() )
+                            {
+                                envelope.newState = parser.getValueAsString();
+                            }
+                            else
+                            {
+                                parser.skipChildren();
+                            }
+                        }
+                        // current token is END_OBJECT of the 'data'
+                        envelope.dataEnd = ( int ) parser.getTokenLocation().getByteOffset() + 1;
+                    }
+                    else
+                    {
+                        parser.skipChildren();
+                    }
+                }
             }
+
+            return envelope;
         }
 
-        // temporary logging of the body
-        LOGGER.info( jsonObject.toString() );
+        /**
+         * Returns the key that identifies the delivery of the event, the same for all its redeliveries.
+         * The state change is identified by the new state, otherwise the event timestamp is taken.
+         *
+         * @return the delivery key
+         */
+        String deliveryKey()
+        {
+            String version = Strings.isNullOrEmpty( newState ) ? Strings.nullToEmpty( timestamp ) : newState;
+            return event + ":" + id + ":" + version;
+        }
+
+        /**
+         * Returns the 'data' object exactly as it was received, without de-serialization round trip.
+         *
+         * @param body the web-hook request body the envelope has been parsed from
+         * @return the JSON of the 'data' object
+         */
+        String data( @Nonnull byte[] body )
+        {
+            checkArgument( dataStart >= 0 && dataEnd > dataStart, "The 'data' object has not been found" );
+            return new String( body, dataStart, dataEnd - dataStart, StandardCharsets.UTF_8 );
+        }
     }
 }
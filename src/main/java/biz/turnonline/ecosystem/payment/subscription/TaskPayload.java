@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.service.model.TaskPayloadBlob;
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The envelope of the JSON payload carried by the task through the task queue.
+ * <ul>
+ *     <li>Payload smaller than {@link #COMPRESSION_THRESHOLD} bytes is carried as it is</li>
+ *     <li>Larger payload is carried compressed (GZIP)</li>
+ *     <li>Payload larger than {@link #OFFLOAD_THRESHOLD} bytes once compressed is offloaded
+ *     to {@link TaskPayloadBlob}, only its hash is being carried</li>
+ * </ul>
+ * The same envelope instance shared by the tasks of a chain is serialized only once with the chain,
+ * the offloaded payload is stored only once as it's identified by the hash of its content.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public final class TaskPayload
+        implements Serializable
+{
+    static final int COMPRESSION_THRESHOLD = 1024;
+
+    static final int OFFLOAD_THRESHOLD = 64 * 1024;
+
+    private static final long serialVersionUID = 4113025857690376041L;
+
+    private final byte[] content;
+
+    private final boolean compressed;
+
+    private final String hash;
+
+    private transient String json;
+
+    private TaskPayload( byte[] content, boolean compressed, String hash )
+    {
+        this.content = content;
+        this.compressed = compressed;
+        this.hash = hash;
+    }
+
+    /**
+     * Wraps the JSON payload to be carried by the task. Large payload is offloaded to the datastore right away.
+     *
+     * @param json the JSON payload
+     * @return the payload envelope
+     */
+    public static TaskPayload of( @Nonnull String json )
+    {
+        checkNotNull( json, "JSON can't be null" );
+        byte[] bytes = json.getBytes( StandardCharsets.UTF_8 );
+
+        TaskPayload payload;
+        if ( bytes.length < COMPRESSION_THRESHOLD )
+        {
+            payload = new TaskPayload( bytes, false, null );
+        }
+        else
+        {
+            byte[] compressed = compress( bytes );
+            if ( compressed.length > OFFLOAD_THRESHOLD )
+            {
+                String hash = Hashing.sha256().hashBytes( bytes ).toString();
+                TaskPayloadBlob.store( hash, compressed );
+                payload = new TaskPayload( null, true, hash );
+            }
+            else
+            {
+                payload = new TaskPayload( compressed, true, null );
+            }
+        }
+
+        payload.json = json;
+        return payload;
+    }
+
+    /**
+     * Returns the JSON payload, decompressed or loaded from the datastore if offloaded.
+     *
+     * @return the JSON payload
+     * @throws IllegalStateException if offloaded payload is no longer available
+     */
+    public String json()
+    {
+        if ( json == null )
+        {
+            byte[] bytes = content;
+            if ( hash != null )
+            {
+                bytes = TaskPayloadBlob.load( hash );
+                if ( bytes == null )
+                {
+                    throw new IllegalStateException( "Offloaded task payload not found: " + hash );
+                }
+            }
+
+            bytes = compressed ? decompress( bytes ) : bytes;
+            json = new String( bytes, StandardCharsets.UTF_8 );
+        }
+        return json;
+    }
+
+    /**
+     * Returns {@code true} if the payload has been offloaded to the datastore.
+     */
+    public boolean isOffloaded()
+    {
+        return hash != null;
+    }
+
+    /**
+     * The number of bytes carried by the envelope itself.
+     */
+    public int size()
+    {
+        return content == null ? 0 : content.length;
+    }
+
+    private static byte[] compress( byte[] bytes )
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try ( OutputStream gzip = new GZIPOutputStream( output ) )
+        {
+            gzip.write( bytes );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] decompress( byte[] bytes )
+    {
+        try ( InputStream gzip = new GZIPInputStream( new ByteArrayInputStream( bytes ) ) )
+        {
+            return ByteStreams.toByteArray( gzip );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "size", size() )
+                .add( "compressed", compressed )
+                .add( "hash", hash )
+                .toString();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.billing.model.Transaction;
+import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The group of the transactions of single account to be pushed to the product-billing service by single insert call
+ * on behalf of the account, see {@link TransactionBatchAdaptee}. The result is being recorded per item.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionBatch
+{
+    private final LocalAccount onBehalfOf;
+
+    private final List<Item> items = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param onBehalfOf the account the transactions belong to, each of them is pushed on behalf of this account
+     */
+    public TransactionBatch( @Nonnull LocalAccount onBehalfOf )
+    {
+        this.onBehalfOf = checkNotNull( onBehalfOf, "Account can't be null" );
+    }
+
+    /**
+     * Adds the transaction to the batch.
+     *
+     * @param extId       the external ID of the transaction, to pair the result
+     * @param transaction the transaction to be pushed
+     * @return this batch to chain calls
+     */
+    public TransactionBatch add( @Nonnull String extId, @Nonnull Transaction transaction )
+    {
+        items.add( new Item( extId, transaction ) );
+        return this;
+    }
+
+    public LocalAccount getOnBehalfOf()
+    {
+        return onBehalfOf;
+    }
+
+    public List<Item> getItems()
+    {
+        return Collections.unmodifiableList( items );
+    }
+
+    public boolean isEmpty()
+    {
+        return items.isEmpty();
+    }
+
+    public int size()
+    {
+        return items.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper( this )
+                .add( "onBehalfOf", onBehalfOf.getEmail() )
+                .add( "size", items.size() )
+                .toString();
+    }
+
+    /**
+     * Single transaction of the batch together with its result.
+     */
+    public static class Item
+    {
+        private final String extId;
+
+        private final Transaction transaction;
+
+        private String error;
+
+        Item( @Nonnull String extId, @Nonnull Transaction transaction )
+        {
+            this.extId = checkNotNull( extId, "Transaction Ext ID can't be null" );
+            this.transaction = checkNotNull( transaction, "Transaction can't be null" );
+        }
+
+        public String getExtId()
+        {
+            return extId;
+        }
+
+        public Transaction getTransaction()
+        {
+            return transaction;
+        }
+
+        /**
+         * Marks the item as failed to be pushed.
+         *
+         * @param error the error description
+         */
+        public void failed( String error )
+        {
+            this.error = error == null ? "Unknown error" : error;
+        }
+
+        /**
+         * Returns {@code true} if the item has failed to be pushed.
+         */
+        public boolean isFailed()
+        {
+            return error != null;
+        }
+
+        public String getError()
+        {
+            return error;
+        }
+    }
+}
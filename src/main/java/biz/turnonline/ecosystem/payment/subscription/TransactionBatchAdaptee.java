@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.billing.model.Transaction;
+import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import org.ctoolkit.restapi.client.Identifier;
+import org.ctoolkit.restapi.client.adaptee.InsertExecutorAdaptee;
+import org.ctoolkit.restapi.client.adaptee.MediaProvider;
+import org.ctoolkit.restapi.client.provider.TokenProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bulk insert of the {@link TransactionBatch} to the product-billing service.
+ * The product-billing client has no bulk resource, thus each transaction of the batch is being inserted
+ * by the single transaction adaptee, all within single facade call. The facade applies the 'on behalf of' headers
+ * to the batch request only, thus the headers of the batch account are being applied to each inner request here.
+ * A failure of single item is recorded within the batch and does not stop the rest of the batch.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionBatchAdaptee
+        implements InsertExecutorAdaptee<TransactionBatch>
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( TransactionBatchAdaptee.class );
+
+    private final InsertExecutorAdaptee<Transaction> adaptee;
+
+    private final TokenProvider<LocalAccount> tokenProvider;
+
+    @Inject
+    public TransactionBatchAdaptee( InsertExecutorAdaptee<Transaction> adaptee,
+                                    TokenProvider<LocalAccount> tokenProvider )
+    {
+        this.adaptee = adaptee;
+        this.tokenProvider = tokenProvider;
+    }
+
+    @Override
+    public Object prepareInsert( @Nonnull TransactionBatch batch,
+                                 @Nullable Identifier parentKey,
+                                 @Nullable MediaProvider provider )
+    {
+        return batch;
+    }
+
+    @Override
+    public Object executeInsert( @Nonnull Object request,
+                                 @Nullable Map<String, Object> parameters,
+                                 @Nullable Locale locale )
+    {
+        TransactionBatch batch = ( TransactionBatch ) request;
+        Map<String, String> headers = tokenProvider.headers( batch.getOnBehalfOf() );
+
+        for ( TransactionBatch.Item item : batch.getItems() )
+        {
+            try
+            {
+                Object single = adaptee.prepareInsert( item.getTransaction(), null, null );
+                if ( single instanceof AbstractGoogleClientRequest && headers != null )
+                {
+                    HttpHeaders requestHeaders = ( ( AbstractGoogleClientRequest<?> ) single ).getRequestHeaders();
+                    headers.forEach( requestHeaders::set );
+                }
+                adaptee.executeInsert( single, parameters, locale );
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                item.failed( e.getMessage() );
+                LOGGER.warn( "Push of the transaction " + item.getExtId() + " has failed: " + e.getMessage() );
+            }
+        }
+        return batch;
+    }
+}
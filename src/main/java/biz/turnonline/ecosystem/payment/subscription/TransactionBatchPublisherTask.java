@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.billing.model.TransactionCounterparty;
+import biz.turnonline.ecosystem.payment.api.model.Bill;
+import biz.turnonline.ecosystem.payment.api.model.CounterpartyBankAccount;
+import biz.turnonline.ecosystem.payment.api.model.ExchangeAmount;
+import biz.turnonline.ecosystem.payment.api.model.ExchangeRate;
+import biz.turnonline.ecosystem.payment.api.model.Merchant;
+import biz.turnonline.ecosystem.payment.api.model.Transaction;
+import biz.turnonline.ecosystem.payment.api.model.TransactionBank;
+import biz.turnonline.ecosystem.payment.service.LocalAccountProvider;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
+import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
+import biz.turnonline.ecosystem.payment.service.model.TransactionExternalId;
+import biz.turnonline.ecosystem.payment.service.model.TransactionOutbox;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.api.client.util.DateTime;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.googlecode.objectify.Key;
+import ma.glasnost.orika.MapperFacade;
+import ma.glasnost.orika.MappingContext;
+import org.ctoolkit.restapi.client.RestFacade;
+import org.ctoolkit.services.task.Task;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Pushes the transactions waiting in the {@link TransactionOutbox} to the product-billing service in groups
+ * of at most {@link #BATCH_SIZE} transactions, by single bulk insert call on behalf of the local account
+ * (see {@link TransactionBatchAdaptee}).
+ * <p>
+ * The flush is delayed to the end of the current time window, all of the transactions enqueued within
+ * the window are pushed together. A full group is followed by the next flush immediately.
+ * The transactions are leased for {@link #LEASE_MILLIS} in the order they have been enqueued, thus concurrent
+ * flushes never push the same transaction at the same time. A transaction whose lease has expired
+ * (the flush has failed) is pushed again by the next flush, see {@link TransactionOutboxCron}.
+ * Each transaction is pushed in its latest state, unless it has not changed since its last push
+ * (see {@link CommonTransaction#getPushedHash()}).
+ * A pushed transaction is removed from the outbox, a failed one stays in the outbox to be pushed
+ * by the next flush, at most {@link #MAX_ATTEMPTS} times.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionBatchPublisherTask
+        extends Task<TransactionOutbox>
+{
+    static final int BATCH_SIZE = 50;
+
+    static final int MAX_ATTEMPTS = 10;
+
+    static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis( 5 );
+
+    private static final long WINDOW_MILLIS = TimeUnit.SECONDS.toMillis( 10 );
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( TransactionBatchPublisherTask.class );
+
+    private static final ObjectWriter HASH_WRITER = new ObjectMapper()
+            .configure( MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true )
+            .configure( SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true )
+            .writer();
+
+    private static final long serialVersionUID = 5571038716484904383L;
+
+    @Inject
+    private transient RestFacade facade;
+
+    @Inject
+    private transient MapperFacade mapper;
+
+    @Inject
+    private transient LocalAccountProvider lap;
+
+    @Inject
+    private transient TaskExecutor executor;
+
+    public TransactionBatchPublisherTask()
+    {
+        super( "Push-Batch" );
+    }
+
+    /**
+     * Schedules the flush of the outbox delayed to the end of the current window.
+     * All of the requests within the window are coalesced into single flush.
+     *
+     * @param executor the task executor
+     */
+    public static void schedule( @Nonnull TaskExecutor executor )
+    {
+        long window = System.currentTimeMillis() / WINDOW_MILLIS;
+        TaskOptions options = TaskOptions.Builder
+                .withTaskName( "Push-Batch-" + window )
+                .countdownMillis( WINDOW_MILLIS );
+
+        try
+        {
+            executor.schedule( new TransactionBatchPublisherTask(), options );
+        }
+        catch ( TaskAlreadyExistsException e )
+        {
+            LOGGER.info( "Push of the transactions already scheduled within current window" );
+        }
+    }
+
+    @Override
+    protected void execute()
+    {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        LocalAccount lAccount = lap.get();
+        if ( lAccount == null )
+        {
+            LOGGER.error( "Local account has not been configured yet." );
+            return;
+        }
+
+        List<TransactionOutbox> outbox = TransactionOutbox.lease( BATCH_SIZE, LEASE_MILLIS );
+        if ( outbox.isEmpty() )
+        {
+            LOGGER.info( "No transaction to be pushed" );
+            return;
+        }
+
+        // the transactions loaded by single batch lookup of their external IDs
+        List<String> extIds = outbox.stream().map( TransactionOutbox::getExtId ).collect( Collectors.toList() );
+        Map<String, Key<CommonTransaction>> keys = TransactionExternalId.lookup( extIds );
+        Map<Key<CommonTransaction>, CommonTransaction> transactions = keys.isEmpty()
+                ? Collections.emptyMap()
+                : ofy().load().keys( keys.values() );
+
+        // bank accounts of the whole group loaded in single batch instead of a get per transaction
+        MappingContext context = new MappingContext( new HashMap<>() );
+        context.setProperty( CompanyBankAccount.class, CommonTransaction.loadBankAccounts( transactions.values() ) );
+
+        // all of the transactions belong to the local account, pushed by single bulk call on behalf of the account
+        TransactionBatch batch = new TransactionBatch( lAccount );
+        Map<String, TransactionOutbox> leased = new HashMap<>();
+        Map<String, String> hashes = new HashMap<>();
+
+        for ( TransactionOutbox item : outbox )
+        {
+            Key<CommonTransaction> key = keys.get( item.getExtId() );
+            CommonTransaction transaction = key == null ? null : transactions.get( key );
+
+            if ( transaction == null || !transaction.propagate() || !transaction.isAmount() )
+            {
+                LOGGER.warn( "Transaction will not be pushed to product-billing service: " + item );
+                item.pushed();
+                continue;
+            }
+
+            Transaction api = mapper.map( transaction, Transaction.class, context );
+            biz.turnonline.ecosystem.billing.model.Transaction pbt = toProductBilling( api );
+
+            String hash = contentHash( pbt );
+            if ( hash.equals( transaction.getPushedHash() ) )
+            {
+                LOGGER.info( "Transaction has not changed since last push: " + item );
+                item.pushed();
+                continue;
+            }
+
+            batch.add( item.getExtId(), pbt );
+            leased.put( item.getExtId(), item );
+            hashes.put( item.getExtId(), hash );
+        }
+
+        if ( !batch.isEmpty() )
+        {
+            try
+            {
+                // Transaction type taken from product-billing service to be pushed, a failure recorded per item
+                facade.insert( batch )
+                        .onBehalfOf( lAccount )
+                        .finish();
+            }
+            catch ( RuntimeException e )
+            {
+                batch.getItems().forEach( item -> item.failed( e.getMessage() ) );
+            }
+        }
+
+        int pushed = 0;
+        int failed = 0;
+        int retry = 0;
+
+        for ( TransactionBatch.Item result : batch.getItems() )
+        {
+            TransactionOutbox item = leased.get( result.getExtId() );
+            if ( result.isFailed() )
+            {
+                LOGGER.warn( "Push of the transaction " + item.getExtId() + " has failed: " + result.getError() );
+
+                failed++;
+                if ( item.failed( result.getError(), MAX_ATTEMPTS ) )
+                {
+                    retry++;
+                }
+                else
+                {
+                    LOGGER.error( "Transaction has not been pushed after " + MAX_ATTEMPTS + " attempts: " + item );
+                }
+                continue;
+            }
+
+            transactions.get( keys.get( item.getExtId() ) ).pushed( hashes.get( item.getExtId() ) );
+            item.pushed();
+            pushed++;
+        }
+
+        if ( outbox.size() == BATCH_SIZE )
+        {
+            // the outbox might contain more transactions
+            executor.schedule( new TransactionBatchPublisherTask() );
+        }
+        else if ( retry > 0 )
+        {
+            schedule( executor );
+        }
+
+        LOGGER.info( pushed + " out of " + outbox.size()
+                + " transactions has been pushed to product-billing service, " + failed + " failed. Took "
+                + stopwatch.stop() );
+    }
+
+    /**
+     * Calculates the content hash of the product-billing transaction, SHA-256 of its JSON with sorted properties.
+     * The same content always yields the same hash, regardless of the order the values have been set in.
+     *
+     * @param pbt the product-billing transaction
+     * @return the content hash
+     */
+    static String contentHash( @Nonnull biz.turnonline.ecosystem.billing.model.Transaction pbt )
+    {
+        try
+        {
+            return Hashing.sha256().hashBytes( HASH_WRITER.writeValueAsBytes( pbt ) ).toString();
+        }
+        catch ( JsonProcessingException e )
+        {
+            throw new IllegalArgumentException( "Content hash of the transaction can't be calculated", e );
+        }
+    }
+
+    /**
+     * Converts the transaction to the product-billing transaction to be pushed.
+     *
+     * @param api the transaction API representation
+     * @return the product-billing transaction
+     */
+    static biz.turnonline.ecosystem.billing.model.Transaction toProductBilling( @Nonnull Transaction api )
+    {
+        biz.turnonline.ecosystem.billing.model.Transaction pbt;
+        pbt = new biz.turnonline.ecosystem.billing.model.Transaction();
+
+        pbt.setAmount( api.getAmount() );
+        pbt.setBalance( api.getBalance() );
+        pbt.setCredit( api.isCredit() );
+        pbt.setCurrency( api.getCurrency() );
+        pbt.setReference( api.getReference() );
+        pbt.setKey( api.getKey() );
+        pbt.setStatus( api.getStatus() );
+        pbt.setTransactionId( api.getTransactionId() );
+        pbt.setType( api.getType() );
+        pbt.setBillAmount( api.getBillAmount() );
+        pbt.setBillCurrency( api.getBillCurrency() );
+
+        Date completedAt = api.getCompletedAt();
+        pbt.setCompletedAt( completedAt == null ? null : new DateTime( completedAt ) );
+
+        TransactionBank bankAccount = api.getBankAccount();
+        if ( bankAccount != null )
+        {
+            biz.turnonline.ecosystem.billing.model.TransactionBank bank;
+            bank = new biz.turnonline.ecosystem.billing.model.TransactionBank();
+            bank.setCode( bankAccount.getCode() );
+            bank.setIban( bankAccount.getIban() );
+
+            pbt.setBankAccount( bank );
+        }
+
+        Bill apiBill = api.getBill();
+        if ( apiBill != null )
+        {
+            biz.turnonline.ecosystem.billing.model.Bill bill;
+            bill = new biz.turnonline.ecosystem.billing.model.Bill();
+            bill.setReceipt( apiBill.getReceipt() );
+            bill.setOrder( apiBill.getOrder() );
+            bill.setInvoice( apiBill.getInvoice() );
+
+            pbt.setBill( bill );
+        }
+
+        Merchant merchant = api.getMerchant();
+
+        // checking whether there is at least one non null property
+        if ( merchant != null
+                && ( !isNullOrEmpty( merchant.getCategory() )
+                || !isNullOrEmpty( merchant.getCity() )
+                || !isNullOrEmpty( merchant.getName() ) ) )
+        {
+            pbt.setMerchant( new biz.turnonline.ecosystem.billing.model.Merchant()
+                    .setCategory( merchant.getCategory() )
+                    .setCity( merchant.getCity() )
+                    .setName( merchant.getName() ) );
+        }
+
+        CounterpartyBankAccount counterparty = api.getCounterparty();
+        if ( counterparty != null && !Strings.isNullOrEmpty( counterparty.getIban() ) )
+        {
+            pbt.setCounterparty( new TransactionCounterparty() );
+            pbt.getCounterparty().setIban( counterparty.getIban() );
+            pbt.getCounterparty().setBic( counterparty.getBic() );
+            pbt.getCounterparty().setName( counterparty.getName() );
+        }
+
+        ExchangeRate rate = api.getExchangeRate();
+        if ( rate != null )
+        {
+            biz.turnonline.ecosystem.billing.model.ExchangeRate pbRate;
+            pbRate = new biz.turnonline.ecosystem.billing.model.ExchangeRate();
+
+            Date rateDate = rate.getRateDate();
+            pbRate.setFrom( toPbAmount( rate.getFrom() ) )
+                    .setTo( toPbAmount( rate.getTo() ) )
+                    .setFee( toPbAmount( rate.getFee() ) )
+                    .setRate( rate.getRate() )
+                    .setRateDate( rateDate == null ? null : new DateTime( rateDate ) );
+
+            pbt.setExchangeRate( pbRate );
+        }
+
+        return pbt;
+    }
+
+    private static biz.turnonline.ecosystem.billing.model.ExchangeAmount toPbAmount( @Nullable ExchangeAmount amount )
+    {
+        if ( amount == null )
+        {
+            return null;
+        }
+
+        return new biz.turnonline.ecosystem.billing.model.ExchangeAmount()
+                .setAmount( amount.getAmount() )
+                .setCurrency( amount.getCurrency() );
+    }
+}
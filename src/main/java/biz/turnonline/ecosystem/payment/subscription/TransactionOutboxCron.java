@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.service.model.TransactionOutbox;
+import org.ctoolkit.services.task.TaskExecutor;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Cron handler that schedules the flush of the {@link TransactionOutbox} by {@link TransactionBatchPublisherTask}.
+ * It pushes the transactions whose flush has not been scheduled or has failed, with an expired lease.
+ * The flush is coalesced with the one already scheduled within the current window.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Singleton
+public class TransactionOutboxCron
+        extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+
+    private final TaskExecutor executor;
+
+    @Inject
+    public TransactionOutboxCron( TaskExecutor executor )
+    {
+        this.executor = executor;
+    }
+
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response )
+    {
+        TransactionBatchPublisherTask.schedule( executor );
+        response.setStatus( HttpServletResponse.SC_OK );
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.service.model.ReconciliationCheckpoint;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Cron handler that starts the pull reconciliation of the Revolut transactions,
+ * processed by {@link TransactionReconciliationTask}. A new run is not started while
+ * the previous one is still running.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Singleton
+public class TransactionReconciliationCron
+        extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( TransactionReconciliationCron.class );
+
+    private final TaskExecutor executor;
+
+    @Inject
+    public TransactionReconciliationCron( TaskExecutor executor )
+    {
+        this.executor = executor;
+    }
+
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response )
+    {
+        ReconciliationCheckpoint checkpoint = ReconciliationCheckpoint.start();
+        if ( checkpoint == null )
+        {
+            LOGGER.info( "Reconciliation of the Revolut transactions is still running" );
+        }
+        else
+        {
+            executor.schedule( new TransactionReconciliationTask( checkpoint ) );
+            LOGGER.info( "Reconciliation of the Revolut transactions started: " + checkpoint );
+        }
+
+        response.setStatus( HttpServletResponse.SC_OK );
+    }
+}
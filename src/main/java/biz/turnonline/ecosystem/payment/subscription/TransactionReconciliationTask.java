@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.ReconciliationCheckpoint;
+import biz.turnonline.ecosystem.payment.service.model.TransactionExternalId;
+import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.Transaction;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionState;
+import com.google.common.base.Strings;
+import com.googlecode.objectify.Key;
+import org.ctoolkit.restapi.client.ListRetrievalRequest;
+import org.ctoolkit.restapi.client.RestFacade;
+import org.ctoolkit.services.task.Task;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Pull reconciliation of the Revolut transactions, the safety net for the web-hook events that went missing.
+ * Bank transactions created since the high-water mark of the {@link ReconciliationCheckpoint} are being listed
+ * page by page, one page per task, thus memory is bounded regardless the number of transactions.
+ * The next page overlaps the previous one by the creation date of its oldest transaction, as more transactions
+ * might have been created at the same time, those already listed by the previous page are being skipped.
+ * Each page is being compared against the local transactions by single batch lookup of their external IDs.
+ * Only a transaction that is missing locally or whose state has changed is being synchronized
+ * by {@link TransactionCreatedTask} followed by the push to product-billing, scheduled the same way
+ * as for the web-hook events, see {@link WebhookCoalescing}.
+ * <p>
+ * Once the last page has been processed the high-water mark moves to the creation date of the oldest
+ * transaction that has not been settled yet, or to the newest listed transaction if all of them are settled.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionReconciliationTask
+        extends Task<ReconciliationCheckpoint>
+{
+    /**
+     * The number of the bank transactions listed per page, the maximum accepted by Revolut.
+     */
+    static final int PAGE_SIZE = 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( TransactionReconciliationTask.class );
+
+    private static final long serialVersionUID = 6427919063258405153L;
+
+    private final long run;
+
+    private final Date from;
+
+    private final Date to;
+
+    private final Date newest;
+
+    private final Date oldestPending;
+
+    private final ArrayList<String> boundary;
+
+    @Inject
+    transient private RestFacade facade;
+
+    @Inject
+    transient private TaskExecutor executor;
+
+    @Inject
+    transient private WebhookCoalescing coalescing;
+
+    /**
+     * Constructor of the first page of the run.
+     *
+     * @param checkpoint the checkpoint of the started run
+     */
+    public TransactionReconciliationTask( @Nonnull ReconciliationCheckpoint checkpoint )
+    {
+        this( checkpoint.getRun(), checkpoint.getHighWaterMark(), null, null, null, Collections.emptyList() );
+    }
+
+    private TransactionReconciliationTask( long run,
+                                           @Nullable Date from,
+                                           @Nullable Date to,
+                                           @Nullable Date newest,
+                                           @Nullable Date oldestPending,
+                                           @Nonnull Collection<String> boundary )
+    {
+        super( "Revolut-Transaction-Reconciliation" );
+        setEntityKey( ReconciliationCheckpoint.key() );
+        this.run = run;
+        this.from = from;
+        this.to = to;
+        this.newest = newest;
+        this.oldestPending = oldestPending;
+        this.boundary = new ArrayList<>( boundary );
+    }
+
+    @Override
+    protected void execute()
+    {
+        ReconciliationCheckpoint checkpoint = workWith();
+        if ( checkpoint == null || checkpoint.getRun() != run || checkpoint.isDone() )
+        {
+            LOGGER.info( "Reconciliation run " + run + " has been superseded or finished: " + checkpoint );
+            return;
+        }
+
+        ListRetrievalRequest<Transaction> request = facade.list( Transaction.class )
+                .addCriteria( "count", PAGE_SIZE );
+        if ( from != null )
+        {
+            request.addCriteria( "from", from.toInstant().toString() );
+        }
+        if ( to != null )
+        {
+            // the 'to' is exclusive, the page overlaps the previous one by the creation date of its oldest transaction
+            request.addCriteria( "to", to.toInstant().plusMillis( 1 ).toString() );
+        }
+
+        List<Transaction> page = request.finish();
+
+        // the page is ordered from the newest transaction to the oldest one
+        Map<String, Transaction> listed = new LinkedHashMap<>();
+        Date pageNewest = newest;
+        Date pageOldest = null;
+        Date pagePending = oldestPending;
+
+        if ( page != null )
+        {
+            for ( Transaction next : page )
+            {
+                if ( boundary.contains( next.getId() ) )
+                {
+                    // already listed by the previous page
+                    continue;
+                }
+
+                Date createdAt = toDate( next.getCreatedAt() );
+                if ( createdAt != null )
+                {
+                    pageNewest = pageNewest == null || createdAt.after( pageNewest ) ? createdAt : pageNewest;
+                    pageOldest = pageOldest == null || createdAt.before( pageOldest ) ? createdAt : pageOldest;
+
+                    if ( !isSettled( next.getState() ) && ( pagePending == null || createdAt.before( pagePending ) ) )
+                    {
+                        pagePending = createdAt;
+                    }
+                }
+
+                if ( !Strings.isNullOrEmpty( next.getId() ) )
+                {
+                    listed.put( next.getId(), next );
+                }
+            }
+        }
+
+        int scheduled = synchronize( listed );
+        int size = listed.size();
+
+        // a full page means there might be more transactions, next page ends where this one ends;
+        // a page with no transaction of its own means there is nothing more to be listed
+        int pageSize = page == null ? 0 : page.size();
+        boolean more = pageSize >= PAGE_SIZE && pageOldest != null && size > 0;
+        Date mark = pagePending != null ? pagePending : pageNewest;
+
+        boolean current = ofy().transact( () -> {
+            ReconciliationCheckpoint latest = ofy().load().key( ReconciliationCheckpoint.key() ).now();
+            if ( latest == null || latest.getRun() != run )
+            {
+                return false;
+            }
+
+            latest.advance( size, scheduled );
+            if ( !more )
+            {
+                latest.finish( mark );
+            }
+            ofy().defer().save().entity( latest );
+            return true;
+        } );
+
+        if ( !current )
+        {
+            LOGGER.info( "Reconciliation run " + run + " has been superseded" );
+        }
+        else if ( more )
+        {
+            List<String> nextBoundary = boundary( listed.values(), pageOldest );
+            if ( pageOldest.equals( to ) )
+            {
+                // still at the creation date of the previous page boundary, it remains within the overlap
+                nextBoundary.addAll( boundary );
+            }
+            executor.schedule( new TransactionReconciliationTask( run,
+                    from,
+                    pageOldest,
+                    pageNewest,
+                    pagePending,
+                    nextBoundary ) );
+        }
+        else
+        {
+            LOGGER.info( "Reconciliation run " + run + " has finished, high-water mark: " + mark );
+        }
+
+        LOGGER.info( scheduled + " out of " + size + " bank transactions scheduled to be synchronized." );
+    }
+
+    /**
+     * Schedules synchronization of the bank transactions missing locally or whose state has changed.
+     *
+     * @param listed the bank transactions mapped by their ID
+     * @return the number of the scheduled transactions
+     */
+    private int synchronize( @Nonnull Map<String, Transaction> listed )
+    {
+        Map<String, Key<CommonTransaction>> keys = TransactionExternalId.lookup( listed.keySet() );
+        Map<Key<CommonTransaction>, CommonTransaction> local = keys.isEmpty()
+                ? Collections.emptyMap()
+                : ofy().load().keys( keys.values() );
+
+        int scheduled = 0;
+        for ( Map.Entry<String, Transaction> entry : listed.entrySet() )
+        {
+            String extId = entry.getKey();
+            Key<CommonTransaction> key = keys.get( extId );
+            CommonTransaction transaction = key == null ? null : local.get( key );
+
+            if ( transaction == null || !sameState( transaction, entry.getValue() ) )
+            {
+                // coalesced with the web-hook events of the same transaction
+                coalescing.schedule( executor, extId, "{\"id\":\"" + extId + "\"}" );
+                scheduled++;
+            }
+        }
+
+        return scheduled;
+    }
+
+    /**
+     * Returns the IDs of the transactions created at the same time as the oldest one of the page.
+     */
+    private static List<String> boundary( @Nonnull Collection<Transaction> listed, @Nonnull Date pageOldest )
+    {
+        List<String> ids = new ArrayList<>();
+        for ( Transaction next : listed )
+        {
+            if ( pageOldest.equals( toDate( next.getCreatedAt() ) ) )
+            {
+                ids.add( next.getId() );
+            }
+        }
+        return ids;
+    }
+
+    static boolean sameState( @Nonnull CommonTransaction transaction, @Nonnull Transaction fromBank )
+    {
+        TransactionState state = fromBank.getState();
+        return state == null || CommonTransaction.State.fromValue( state.getValue() ) == transaction.getStatus();
+    }
+
+    /**
+     * Returns {@code true} if the state of the transaction is final and is not expected to change anymore.
+     */
+    static boolean isSettled( @Nullable TransactionState state )
+    {
+        return state != null
+                && !TransactionState.CREATED.equals( state )
+                && !TransactionState.PENDING.equals( state );
+    }
+
+    private static Date toDate( @Nullable OffsetDateTime dateTime )
+    {
+        return dateTime == null ? null : Date.from( dateTime.toInstant() );
+    }
+
+    /**
+     * The creation date of the bank transactions this task lists from.
+     */
+    Date getFrom()
+    {
+        return from;
+    }
+
+    /**
+     * The creation date of the bank transactions this task lists to, {@code null} for the first page.
+     */
+    Date getTo()
+    {
+        return to;
+    }
+
+    /**
+     * The IDs of the bank transactions listed by the previous page, created at the same time as its oldest one.
+     */
+    List<String> getBoundary()
+    {
+        return boundary;
+    }
+}
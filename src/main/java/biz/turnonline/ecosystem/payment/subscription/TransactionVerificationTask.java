@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.Transaction;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionLeg;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.cloud.datastore.Cursor;
+import com.google.common.base.Strings;
+import com.googlecode.objectify.cmd.Query;
+import com.googlecode.objectify.cmd.QueryResultIterator;
+import org.ctoolkit.restapi.client.NotFoundException;
+import org.ctoolkit.restapi.client.RestFacade;
+import org.ctoolkit.services.task.Task;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * Background verification of the transactions taken directly from the web-hook
+ * (see {@link CommonTransaction#isVerificationPending()}) against the bank.
+ * <p>
+ * The recent bank transactions are being fetched by single list call, only transactions missing in the list
+ * are being fetched one by one. Matching transactions are marked as verified, a mismatched transaction
+ * is being synchronized again by {@link TransactionCreatedTask} followed by the push to product-billing,
+ * scheduled the same way as for the web-hook events, see {@link WebhookCoalescing}.
+ * A transaction not found in the bank is never marked as verified, it's flagged as failed instead.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionVerificationTask
+        extends Task<CommonTransaction>
+{
+    static final int BATCH_SIZE = 100;
+
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis( 10 );
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( TransactionVerificationTask.class );
+
+    private static final long serialVersionUID = -3871806925166213904L;
+
+    @Inject
+    private transient RestFacade facade;
+
+    @Inject
+    private transient TaskExecutor executor;
+
+    @Inject
+    private transient WebhookCoalescing coalescing;
+
+    private final String cursor;
+
+    public TransactionVerificationTask()
+    {
+        this( null );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param cursor the cursor the batch starts at, {@code null} to start with the first batch
+     */
+    TransactionVerificationTask( @Nullable String cursor )
+    {
+        super( "Revolut-Transaction-Verification" );
+        this.cursor = cursor;
+    }
+
+    /**
+     * Schedules the verification delayed to the end of the current window.
+     * All of the requests within the window are coalesced into single verification.
+     *
+     * @param executor the task executor
+     */
+    public static void schedule( @Nonnull TaskExecutor executor )
+    {
+        long window = System.currentTimeMillis() / WINDOW_MILLIS;
+        TaskOptions options = TaskOptions.Builder
+                .withTaskName( "Revolut-Transaction-Verification-" + window )
+                .countdownMillis( WINDOW_MILLIS );
+
+        try
+        {
+            executor.schedule( new TransactionVerificationTask(), options );
+        }
+        catch ( TaskAlreadyExistsException e )
+        {
+            LOGGER.info( "Transaction verification already scheduled within current window" );
+        }
+    }
+
+    @Override
+    protected void execute()
+    {
+        Query<CommonTransaction> query = ofy().load()
+                .type( CommonTransaction.class )
+                .filter( "verificationPending", true )
+                .limit( BATCH_SIZE );
+
+        if ( !Strings.isNullOrEmpty( cursor ) )
+        {
+            query = query.startAt( Cursor.fromUrlSafe( cursor ) );
+        }
+
+        QueryResultIterator<CommonTransaction> iterator = query.iterator();
+        List<CommonTransaction> pending = new ArrayList<>();
+        iterator.forEachRemaining( pending::add );
+
+        if ( pending.isEmpty() )
+        {
+            LOGGER.info( "No transaction to be verified" );
+            return;
+        }
+
+        Map<String, Transaction> recent = new HashMap<>();
+        List<Transaction> list = facade.list( Transaction.class ).finish();
+        if ( list != null )
+        {
+            list.forEach( next -> recent.put( next.getId(), next ) );
+        }
+
+        int verified = 0;
+        int notFound = 0;
+        int mismatched = 0;
+
+        // the verification fields are being set to the transaction loaded within a transaction,
+        // the transaction might have been synchronized concurrently since the batch has been loaded
+        for ( CommonTransaction transaction : pending )
+        {
+            String extId = transaction.getExternalId();
+            Transaction fromBank = recent.get( extId );
+            if ( fromBank == null && extId != null )
+            {
+                try
+                {
+                    fromBank = facade.get( Transaction.class ).identifiedBy( extId ).finish();
+                }
+                catch ( NotFoundException e )
+                {
+                    // unknown to the bank, thus it can't be verified, flagged as failed and pushed to product-billing
+                    LOGGER.error( "Transaction taken from the web-hook not found in the bank: " + transaction );
+                    notFound += CommonTransaction.update( transaction.getId(), current -> {
+                        // already taken from the bank in the meantime, its state is not being overwritten
+                        if ( !current.isVerificationPending() )
+                        {
+                            return false;
+                        }
+                        current.status( CommonTransaction.State.FAILED ).failure( true );
+                        current.verificationPending( false ).publish();
+                        return true;
+                    } ) ? 1 : 0;
+                    continue;
+                }
+            }
+
+            Transaction bank = fromBank;
+            if ( bank == null || matches( transaction, bank ) )
+            {
+                verified += CommonTransaction.update( transaction.getId(), current -> {
+                    if ( !current.isVerificationPending() || ( bank != null && !matches( current, bank ) ) )
+                    {
+                        return false;
+                    }
+                    current.verificationPending( false );
+                    return true;
+                } ) ? 1 : 0;
+            }
+            else
+            {
+                // synchronized again from the bank, no longer pending as the task takes the bank values
+                LOGGER.warn( "Transaction taken from the web-hook does not match the bank: " + transaction );
+                CommonTransaction.update( transaction.getId(), current -> {
+                    if ( !current.isVerificationPending() )
+                    {
+                        return false;
+                    }
+                    current.verificationPending( false );
+                    return true;
+                } );
+                coalescing.schedule( executor, extId, "{\"id\":\"" + extId + "\"}" );
+                mismatched++;
+            }
+        }
+
+        LOGGER.info( verified + " transactions has been verified, " + mismatched + " scheduled to sync again, "
+                + notFound + " not found in the bank." );
+
+        if ( notFound > 0 )
+        {
+            // enqueued within the save
+            TransactionBatchPublisherTask.schedule( executor );
+        }
+
+        if ( pending.size() == BATCH_SIZE )
+        {
+            // next batch starts where this one ends, regardless of the transactions left pending
+            executor.schedule( new TransactionVerificationTask( iterator.getCursor().toUrlSafe() ) );
+        }
+    }
+
+    /**
+     * Compares the values taken from the web-hook with the bank transaction.
+     */
+    static boolean matches( @Nonnull CommonTransaction transaction, @Nonnull Transaction fromBank )
+    {
+        if ( fromBank.getState() != null
+                && CommonTransaction.State.fromValue( fromBank.getState().getValue() ) != transaction.getStatus() )
+        {
+            return false;
+        }
+
+        List<TransactionLeg> legs = fromBank.getLegs();
+        Double amount = legs == null || legs.isEmpty() ? null : legs.get( 0 ).getAmount();
+        Double expected = amount == null ? null : Math.abs( amount );
+
+        return amount == null || Objects.equals( expected, transaction.getAmount() );
+    }
+}
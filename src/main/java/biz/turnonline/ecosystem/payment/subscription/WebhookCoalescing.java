@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.service.model.TransactionSyncSequence;
+import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import org.ctoolkit.services.task.TaskExecutor;
+
+import javax.annotation.Nonnull;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the synchronization task of the transaction ({@link TransactionCreatedTask}) delayed by
+ * {@link #WINDOW_MILLIS} and named in order to coalesce the requests to synchronize the same transaction,
+ * based on the {@link TransactionSyncSequence} shared by all instances. It's the single path the web-hook events
+ * as well as the background reconciliation and verification schedule the synchronization through.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Singleton
+class WebhookCoalescing
+{
+    static final long WINDOW_MILLIS = TimeUnit.SECONDS.toMillis( 5 );
+
+    /**
+     * Returns the name of the synchronization task of the transaction that has not been started yet.
+     * Events of the same transaction get the same name until the task starts.
+     *
+     * @param transactionId the transaction external ID
+     * @return the task name
+     */
+    String taskName( @Nonnull String transactionId )
+    {
+        return "Revolut-Transaction-" + transactionId + "-" + TransactionSyncSequence.current( transactionId );
+    }
+
+    /**
+     * Schedules the synchronization of the transaction, unless its task has been scheduled already
+     * and has not started yet. The payload is offered to the {@link TransactionSyncSequence}, thus the task
+     * processes the payload of the latest request coalesced into it.
+     *
+     * @param executor      the task executor
+     * @param transactionId the transaction external ID
+     * @param payload       the JSON payload of the task, see {@link TransactionCreatedTask}
+     * @return {@code true} if a new task has been scheduled, {@code false} if coalesced into the scheduled one
+     */
+    boolean schedule( @Nonnull TaskExecutor executor, @Nonnull String transactionId, @Nonnull String payload )
+    {
+        // only the first payload is carried by the task, the task takes the latest one once started
+        TransactionSyncSequence.offer( transactionId, payload );
+        TransactionCreatedTask task = new TransactionCreatedTask( payload );
+
+        String name = taskName( transactionId );
+        boolean scheduled = schedule( executor, task, name );
+        if ( !scheduled )
+        {
+            // the name might be taken by the task that has just started, check the tombstone
+            String latest = taskName( transactionId );
+            scheduled = !latest.equals( name ) && schedule( executor, task, latest );
+        }
+        return scheduled;
+    }
+
+    /**
+     * Schedules the task delayed by the coalescing window under the given name.
+     *
+     * @return false if the task of the same name already exists
+     */
+    private boolean schedule( @Nonnull TaskExecutor executor,
+                              @Nonnull TransactionCreatedTask task,
+                              @Nonnull String name )
+    {
+        TaskOptions options = TaskOptions.Builder
+                .withTaskName( name )
+                .countdownMillis( WINDOW_MILLIS );
+
+        try
+        {
+            executor.schedule( task, options );
+            return true;
+        }
+        catch ( TaskAlreadyExistsException e )
+        {
+            return false;
+        }
+    }
+}
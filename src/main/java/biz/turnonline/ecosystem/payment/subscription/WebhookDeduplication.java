@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.service.model.WebhookDelivery;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.annotation.Nonnull;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recognizes redelivered web-hook events. Recently seen deliveries are kept in memory of the instance,
+ * the rest is being checked against the {@link WebhookDelivery} marker shared by all instances.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@Singleton
+class WebhookDeduplication
+{
+    /**
+     * Bounded cache of the recently seen delivery keys, shared across requests on the instance.
+     */
+    private final Cache<String, Boolean> recent = CacheBuilder.newBuilder()
+            .maximumSize( 10000 )
+            .expireAfterWrite( 10, TimeUnit.MINUTES )
+            .build();
+
+    /**
+     * Checks whether the delivery has been already seen, otherwise it's being recorded as seen.
+     *
+     * @param key the delivery key
+     * @return true if it's a redelivery
+     */
+    boolean seen( @Nonnull String key )
+    {
+        if ( recent.getIfPresent( key ) != null )
+        {
+            return true;
+        }
+
+        boolean duplicate = !WebhookDelivery.register( key );
+        recent.put( key, Boolean.TRUE );
+        return duplicate;
+    }
+
+    /**
+     * Forgets the delivery, to accept its redelivery once the event has failed to be processed.
+     *
+     * @param key the delivery key
+     */
+    void forget( @Nonnull String key )
+    {
+        recent.invalidate( key );
+        WebhookDelivery.release( key );
+    }
+}
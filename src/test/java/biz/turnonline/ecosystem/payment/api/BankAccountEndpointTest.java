@@ -21,6 +21,7 @@ package biz.turnonline.ecosystem.payment.api;
 import biz.turnonline.ecosystem.payment.api.model.BankAccount;
 import biz.turnonline.ecosystem.payment.api.model.Certificate;
 import biz.turnonline.ecosystem.payment.api.model.Transaction;
+import biz.turnonline.ecosystem.payment.api.model.TransactionBatchItem;
 import biz.turnonline.ecosystem.payment.service.BankAccountNotFound;
 import biz.turnonline.ecosystem.payment.service.BankCodeNotFound;
 import biz.turnonline.ecosystem.payment.service.PaymentConfig;
@@ -29,6 +30,7 @@ import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.FormOfPayment;
 import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
+import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
 import biz.turnonline.ecosystem.steward.model.Account;
 import com.google.api.server.spi.auth.common.User;
 import com.google.api.server.spi.response.BadRequestException;
@@ -50,9 +52,14 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import static biz.turnonline.ecosystem.payment.service.PaymentConfig.REVOLUT_BANK_CODE;
 import static com.google.common.truth.Truth.assertThat;
@@ -874,7 +881,7 @@ public class BankAccountEndpointTest
 
                 config.filterTransactions( ( PaymentConfig.Filter ) any );
 
-                mapper.mapAsList( ( List<CommonTransaction> ) any, Transaction.class );
+                mapper.mapAsList( ( List<CommonTransaction> ) any, Transaction.class, ( MappingContext ) any );
                 result = transactions;
             }
         };
@@ -1025,7 +1032,7 @@ public class BankAccountEndpointTest
                 common.checkAccount( authUser, request );
                 result = account;
 
-                mapper.mapAsList( ( List<CommonTransaction> ) any, Transaction.class );
+                mapper.mapAsList( ( List<CommonTransaction> ) any, Transaction.class, ( MappingContext ) any );
                 result = new RuntimeException( "Mapping failure" );
             }
         };
@@ -1117,4 +1124,90 @@ public class BankAccountEndpointTest
 
         endpoint.getTransaction( 67L, request, authUser );
     }
+
+    @Test
+    public void getTransactions_MissingReportedPerItem() throws Exception
+    {
+        Map<Long, CommonTransaction> found = new HashMap<>();
+        found.put( 2991L, new TransactionReceipt( "2a6b0f6e-cc82-4e81-a9f6-0e5a5e1b5fd4" ) );
+
+        new Expectations()
+        {
+            {
+                common.checkAccount( authUser, request );
+                result = account;
+
+                config.getTransactions( ( Collection<Long> ) any );
+                result = found;
+
+                mapper.map( any, Transaction.class, ( MappingContext ) any );
+                result = new Transaction();
+            }
+        };
+
+        List<TransactionBatchItem> items = endpoint.getTransactions( Arrays.asList( 2991L, 13L, 2991L ),
+                request,
+                authUser );
+
+        assertWithMessage( "Number of batch items (without duplicates)" )
+                .that( items )
+                .hasSize( 2 );
+
+        assertWithMessage( "Found transaction" )
+                .that( items.get( 0 ).getTransaction() )
+                .isNotNull();
+
+        assertWithMessage( "Found transaction error" )
+                .that( items.get( 0 ).getError() )
+                .isNull();
+
+        assertWithMessage( "Missing transaction ID" )
+                .that( items.get( 1 ).getTransactionId() )
+                .isEqualTo( 13L );
+
+        assertWithMessage( "Missing transaction" )
+                .that( items.get( 1 ).getTransaction() )
+                .isNull();
+
+        assertWithMessage( "Missing transaction error" )
+                .that( items.get( 1 ).getError() )
+                .isNotNull();
+    }
+
+    @Test( expectedExceptions = BadRequestException.class )
+    public void getTransactions_TooManyIds() throws Exception
+    {
+        List<Long> ids = new ArrayList<>();
+        for ( long id = 1; id <= BankAccountEndpoint.BATCH_GET_MAX_SIZE + 1; id++ )
+        {
+            ids.add( id );
+        }
+
+        new Expectations()
+        {
+            {
+                common.checkAccount( authUser, request );
+                result = account;
+            }
+        };
+
+        endpoint.getTransactions( ids, request, authUser );
+    }
+
+    @Test( expectedExceptions = InternalServerErrorException.class )
+    public void getTransactions_BackendError() throws Exception
+    {
+        new Expectations()
+        {
+            {
+                common.checkAccount( authUser, request );
+                result = account;
+
+                config.getTransactions( ( Collection<Long> ) any );
+                result = new RuntimeException();
+            }
+        };
+
+        endpoint.getTransactions( Collections.singletonList( 67L ), request, authUser );
+    }
 }
\ No newline at end of file
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.api;
+
+import biz.turnonline.ecosystem.payment.service.LocalAccountProvider;
+import biz.turnonline.ecosystem.payment.service.PaymentConfig;
+import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ma.glasnost.orika.MapperFacade;
+import mockit.Expectations;
+import mockit.Injectable;
+import mockit.Mocked;
+import mockit.Tested;
+import mockit.Verifications;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.ZoneId;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * {@link TransactionExport} unit testing.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionExportTest
+{
+    @Tested
+    private TransactionExport tested;
+
+    @Injectable
+    private PaymentConfig config;
+
+    @Injectable
+    private LocalAccountProvider lap;
+
+    @Injectable
+    private MapperFacade mapper;
+
+    @Injectable
+    private ObjectMapper objectMapper;
+
+    @Mocked
+    private LocalAccount account;
+
+    @Mocked
+    private HttpServletRequest request;
+
+    @Mocked
+    private HttpServletResponse response;
+
+    @Test
+    public void doGet_InvalidAccountId() throws IOException
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = account;
+
+                account.getZoneId();
+                result = ZoneId.of( "Europe/Paris" );
+
+                request.getParameter( "accountId" );
+                result = "invalid";
+            }
+        };
+
+        tested.doGet( request, response );
+
+        new Verifications()
+        {
+            {
+                response.sendError( HttpServletResponse.SC_BAD_REQUEST, anyString );
+                config.pageTransactions( ( PaymentConfig.Filter ) any );
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void doGet_InvalidDate() throws IOException
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = account;
+
+                account.getZoneId();
+                result = ZoneId.of( "Europe/Paris" );
+
+                request.getParameter( "from" );
+                result = "2020-13-01";
+            }
+        };
+
+        tested.doGet( request, response );
+
+        new Verifications()
+        {
+            {
+                response.sendError( HttpServletResponse.SC_BAD_REQUEST, anyString );
+                config.pageTransactions( ( PaymentConfig.Filter ) any );
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void doGet_ApiValidationFailure() throws IOException
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = account;
+
+                account.getZoneId();
+                result = ZoneId.of( "Europe/Paris" );
+
+                config.pageTransactions( ( PaymentConfig.Filter ) any );
+                result = ApiValidationException.prepare( "errors.validation.query.operation.invalid", "both-1" );
+            }
+        };
+
+        tested.doGet( request, response );
+
+        new Verifications()
+        {
+            {
+                response.sendError( HttpServletResponse.SC_BAD_REQUEST, anyString );
+                response.getOutputStream();
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void doGet_AccountNotFound() throws IOException
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = null;
+            }
+        };
+
+        tested.doGet( request, response );
+
+        new Verifications()
+        {
+            {
+                response.sendError( HttpServletResponse.SC_NOT_FOUND, anyString );
+                config.pageTransactions( ( PaymentConfig.Filter ) any );
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void writeCsvLine_Escaping() throws IOException
+    {
+        StringWriter writer = new StringWriter();
+        TransactionExport.writeCsvLine( writer, new Object[]{1L, null, "a,b", "say \"hi\"", true, 10.5} );
+
+        assertWithMessage( "CSV line" )
+                .that( writer.toString() )
+                .isEqualTo( "1,,\"a,b\",\"say \"\"hi\"\"\",true,10.5\r\n" );
+    }
+}
@@ -142,6 +142,8 @@ public class BackendServiceTestCase
     public void beforeMethod()
     {
         helper.setUp();
+        // the datastore is empty for each test, bank account snapshot taken by singleton bean is outdated
+        CompanyBankAccountSnapshot.invalidateAll();
     }
 
     @AfterMethod
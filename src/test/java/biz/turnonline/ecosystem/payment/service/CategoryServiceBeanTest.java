@@ -10,6 +10,7 @@ import mockit.Expectations;
 import mockit.Mocked;
 import org.ctoolkit.services.storage.EntityExecutor;
 import org.ctoolkit.services.storage.criteria.Criteria;
+import org.ctoolkit.services.task.TaskExecutor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -30,11 +31,14 @@ public class CategoryServiceBeanTest
     @Mocked
     private EntityExecutor datastore;
 
+    @Mocked
+    private TaskExecutor executor;
+
     @BeforeMethod
     public void setUp()
     {
         mapperFacade = new DefaultMapperFactory.Builder().build().getMapperFacade();
-        this.tested = new CategoryServiceBean( mapperFacade, datastore );
+        this.tested = new CategoryServiceBean( mapperFacade, datastore, executor );
     }
 
     @Test
@@ -102,6 +106,25 @@ public class CategoryServiceBeanTest
         assertThat( transactionCategory.isPropagate() ).isTrue();
     }
 
+    @Test
+    public void testResolveCategories_CategoriesCached()
+    {
+        TransactionReceipt transaction = new TransactionReceipt( "1" );
+        transaction.setMerchantName( "Istores" );
+
+        new Expectations()
+        {
+            {
+                datastore.list( withAny( Criteria.of( Category.class ) ) );
+                result = Collections.singletonList( mockCategory() );
+                times = 1;
+            }
+        };
+
+        assertThat( tested.resolveCategories( transaction ).size() ).isEqualTo( 1 );
+        assertThat( tested.resolveCategories( transaction ).size() ).isEqualTo( 1 );
+    }
+
     private Category mockCategory()
     {
         CategoryFilter filter = new CategoryFilter();
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service;
+
+import biz.turnonline.ecosystem.payment.service.model.TaskPayloadBlob;
+import biz.turnonline.ecosystem.payment.service.model.WebhookDelivery;
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.Entity;
+import com.google.inject.Injector;
+import com.googlecode.objectify.Key;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.util.Date;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * {@link ExpiredRecordsPurgeTask} testing against emulated (local) App Engine datastore.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class ExpiredRecordsPurgeTaskDbTest
+        extends BackendServiceTestCase
+{
+    @Inject
+    private Injector injector;
+
+    @Test
+    public void execute_ExpiredWebhookDeliveryPurged()
+    {
+        WebhookDelivery.register( "TransactionCreated:valid" );
+
+        // marker accepted long time ago
+        Entity expired = Entity.newBuilder( Key.create( WebhookDelivery.class, "TransactionCreated:expired" ).getRaw() )
+                .set( "expireAt", Timestamp.of( new Date( System.currentTimeMillis() - 1000 ) ) )
+                .build();
+        ofy().factory().datastore().put( expired );
+
+        ExpiredRecordsPurgeTask task = new ExpiredRecordsPurgeTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        assertWithMessage( "Expired web-hook delivery marker" )
+                .that( ofy().load().type( WebhookDelivery.class ).id( "TransactionCreated:expired" ).now() )
+                .isNull();
+
+        assertWithMessage( "Valid web-hook delivery marker" )
+                .that( ofy().load().type( WebhookDelivery.class ).id( "TransactionCreated:valid" ).now() )
+                .isNotNull();
+    }
+
+    @Test
+    public void execute_ExpiredTaskPayloadBlobPurged()
+    {
+        TaskPayloadBlob.store( "valid-hash", new byte[]{1, 2, 3} );
+
+        // payload offloaded long time ago
+        Entity expired = Entity.newBuilder( Key.create( TaskPayloadBlob.class, "expired-hash" ).getRaw() )
+                .set( "expireAt", Timestamp.of( new Date( System.currentTimeMillis() - 1000 ) ) )
+                .build();
+        ofy().factory().datastore().put( expired );
+
+        ExpiredRecordsPurgeTask task = new ExpiredRecordsPurgeTask( ExpiredRecordsPurgeTask.Kind.TASK_PAYLOAD_BLOB );
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        assertWithMessage( "Expired task payload" )
+                .that( TaskPayloadBlob.load( "expired-hash" ) )
+                .isNull();
+
+        assertWithMessage( "Valid task payload" )
+                .that( TaskPayloadBlob.load( "valid-hash" ) )
+                .isNotNull();
+    }
+}
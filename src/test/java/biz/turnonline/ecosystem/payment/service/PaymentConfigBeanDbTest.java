@@ -22,18 +22,24 @@ import biz.turnonline.ecosystem.billing.model.IncomingInvoice;
 import biz.turnonline.ecosystem.payment.api.ApiValidationException;
 import biz.turnonline.ecosystem.payment.api.model.Certificate;
 import biz.turnonline.ecosystem.payment.oauth.RevolutCredentialAdministration;
+import biz.turnonline.ecosystem.payment.service.model.BankAccountExternalId;
 import biz.turnonline.ecosystem.payment.service.model.BeneficiaryBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.FormOfPayment;
 import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
 import biz.turnonline.ecosystem.payment.service.model.PaymentGate;
+import biz.turnonline.ecosystem.payment.service.model.TransactionExternalId;
 import biz.turnonline.ecosystem.payment.service.model.TransactionInvoice;
+import biz.turnonline.ecosystem.payment.service.model.TransactionInvoiceId;
+import biz.turnonline.ecosystem.payment.service.model.TransactionOrigin;
 import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
 import biz.turnonline.ecosystem.payment.service.revolut.RevolutDebtorBankAccountsInit;
 import biz.turnonline.ecosystem.steward.model.Account;
 import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.cloud.datastore.Cursor;
 import com.google.inject.Injector;
+import com.googlecode.objectify.Key;
 import mockit.Mock;
 import mockit.MockUp;
 import nl.garvelink.iban.IBAN;
@@ -48,18 +54,24 @@ import org.testng.annotations.Test;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import static biz.turnonline.ecosystem.payment.service.PaymentConfig.REVOLUT_BANK_CODE;
+import static biz.turnonline.ecosystem.payment.service.PaymentConfig.REVOLUT_BANK_CODES;
 import static biz.turnonline.ecosystem.payment.service.PaymentConfig.REVOLUT_BANK_EU_CODE;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
@@ -88,6 +100,8 @@ public class PaymentConfigBeanDbTest
 
     private static final String BANK_ACCOUNT_EXT_ID = "9967e306-af32-4663-923b-09b5dff13c3c";
 
+    private static final List<String> BANK_CODES = Collections.singletonList( "0900" );
+
     @Inject
     private PaymentConfig bean;
 
@@ -484,6 +498,31 @@ public class PaymentConfigBeanDbTest
         bean.deleteBankAccount( bankAccount.getId() );
     }
 
+    @Test
+    public void getPrimaryBankAccount_CopyHandedOut()
+    {
+        ImportTask task = new ImportTask( "/testdataset/changeset_local-account.xml" );
+        task.run();
+
+        CompanyBankAccount first = bean.getPrimaryBankAccount( null );
+        String name = first.getName();
+        first.setName( "Modified by caller" );
+
+        CompanyBankAccount second = bean.getPrimaryBankAccount( null );
+
+        assertWithMessage( "Primary bank account instance shared by snapshot" )
+                .that( second == first )
+                .isFalse();
+
+        assertWithMessage( "Primary bank account name unaffected by the previous caller" )
+                .that( second.getName() )
+                .isEqualTo( name );
+
+        assertWithMessage( "Primary bank account ID" )
+                .that( second.getId() )
+                .isEqualTo( first.getId() );
+    }
+
     @Test( expectedExceptions = BankAccountNotFound.class )
     public void deleteBankAccount_NotFound()
     {
@@ -534,7 +573,7 @@ public class PaymentConfigBeanDbTest
         ofy().clear();
 
         // test call
-        CompanyBankAccount bankAccount = bean.getBankAccount( BANK_ACCOUNT_EXT_ID );
+        CompanyBankAccount bankAccount = bean.getBankAccount( BANK_CODES, BANK_ACCOUNT_EXT_ID );
 
         assertWithMessage( "Company bank account identified by external Id" )
                 .that( bankAccount )
@@ -545,10 +584,104 @@ public class PaymentConfigBeanDbTest
                 .isEqualTo( bankAccountWithExtId );
     }
 
+    @Test
+    public void getBankAccount_ExternalIdLookupRecordInSync()
+    {
+        CompanyBankAccount bankAccount = bean.getBankAccounts( "0900" ).get( 0 );
+        bankAccount.setExternalId( BANK_ACCOUNT_EXT_ID );
+        bankAccount.save();
+
+        String recordId = BankAccountExternalId.id( "0900", BANK_ACCOUNT_EXT_ID );
+        BankAccountExternalId record = ofy().load().type( BankAccountExternalId.class ).id( recordId ).now();
+        assertWithMessage( "External ID lookup record" )
+                .that( record )
+                .isNotNull();
+
+        assertWithMessage( "External ID lookup record bank account key" )
+                .that( record.getBankAccount().getId() )
+                .isEqualTo( bankAccount.getId() );
+
+        bankAccount.delete();
+        ofy().clear();
+
+        assertWithMessage( "External ID lookup record after bank account deletion" )
+                .that( ofy().load().type( BankAccountExternalId.class ).id( recordId ).now() )
+                .isNull();
+
+        assertWithMessage( "Company bank account identified by external Id after deletion" )
+                .that( bean.getBankAccount( BANK_CODES, BANK_ACCOUNT_EXT_ID ) )
+                .isNull();
+    }
+
+    @Test
+    public void getBankAccount_ExternalIdChangedStaleRecordDeleted()
+    {
+        CompanyBankAccount bankAccount = bean.getBankAccounts( "0900" ).get( 0 );
+        bankAccount.setExternalId( BANK_ACCOUNT_EXT_ID );
+        bankAccount.save();
+        ofy().clear();
+
+        String changedExtId = "1b6c1e4d-7f1e-4c1a-a0f3-5d0e2f3b7a90";
+        bankAccount = bean.getBankAccount( bankAccount.getId() );
+        bankAccount.setExternalId( changedExtId );
+        bankAccount.save();
+        ofy().clear();
+
+        assertWithMessage( "Stale external ID lookup record" )
+                .that( ofy().load()
+                        .type( BankAccountExternalId.class )
+                        .id( BankAccountExternalId.id( "0900", BANK_ACCOUNT_EXT_ID ) )
+                        .now() )
+                .isNull();
+
+        assertWithMessage( "Company bank account identified by changed external Id" )
+                .that( bean.getBankAccount( BANK_CODES, changedExtId ) )
+                .isEqualTo( bankAccount );
+    }
+
+    @Test
+    public void getBankAccount_ExternalIdOfAnotherBank()
+    {
+        CompanyBankAccount bankAccount = bean.getBankAccounts( "0900" ).get( 0 );
+        bankAccount.setExternalId( BANK_ACCOUNT_EXT_ID );
+        bankAccount.save();
+        ofy().clear();
+
+        assertWithMessage( "Company bank account identified by external Id issued by another bank" )
+                .that( bean.getBankAccount( REVOLUT_BANK_CODES, BANK_ACCOUNT_EXT_ID ) )
+                .isNull();
+    }
+
+    @Test
+    public void getBankAccount_ExternalIdRecordBackfilled()
+    {
+        CompanyBankAccount bankAccount = bean.getBankAccounts( "0900" ).get( 0 );
+        bankAccount.setExternalId( BANK_ACCOUNT_EXT_ID );
+        bankAccount.save();
+
+        // simulate the bank account saved before the lookup records have been keyed by the bank code
+        ofy().delete()
+                .type( BankAccountExternalId.class )
+                .id( BankAccountExternalId.id( "0900", BANK_ACCOUNT_EXT_ID ) )
+                .now();
+        ofy().clear();
+
+        assertWithMessage( "Company bank account identified by external Id without lookup record" )
+                .that( bean.getBankAccount( BANK_CODES, BANK_ACCOUNT_EXT_ID ) )
+                .isNull();
+
+        bean.getBankAccount( bankAccount.getId() ).backfillExternalIdRecords();
+        ofy().clear();
+
+        assertWithMessage( "Company bank account identified by external Id once backfilled" )
+                .that( bean.getBankAccount( BANK_CODES, BANK_ACCOUNT_EXT_ID ) )
+                .isEqualTo( bankAccount );
+    }
+
     @Test
     public void getBankAccount_ByExternalIdNotFound()
     {
-        CompanyBankAccount bankAccount = bean.getBankAccount( BANK_ACCOUNT_EXT_ID );
+        CompanyBankAccount bankAccount = bean.getBankAccount( BANK_CODES, BANK_ACCOUNT_EXT_ID );
 
         assertWithMessage( "Company bank account identified by external Id" )
                 .that( bankAccount )
@@ -616,6 +749,30 @@ public class PaymentConfigBeanDbTest
                 .isEqualTo( numberOf );
     }
 
+    @Test
+    public void getBeneficiaryByExternalId()
+    {
+        String counterpartyId = "4161edb6-7ba3-4501-951a-5825888307ff";
+        BeneficiaryBankAccount beneficiary = bean.insertBeneficiary( REVOLUT_IBAN_SET, REVOLUT_BIC, "EUR" );
+        beneficiary.setExternalId( REVOLUT_BANK_CODE, counterpartyId );
+        beneficiary.save();
+        ofy().clear();
+
+        BeneficiaryBankAccount found = bean.getBeneficiaryByExternalId( REVOLUT_BANK_CODES, counterpartyId );
+
+        assertWithMessage( "Beneficiary found by external ID" )
+                .that( found )
+                .isNotNull();
+
+        assertWithMessage( "Beneficiary IBAN" )
+                .that( found.getIBAN().toPlainString() )
+                .isEqualTo( REVOLUT_IBAN_SET );
+
+        assertWithMessage( "Beneficiary for unknown external ID" )
+                .that( bean.getBeneficiaryByExternalId( REVOLUT_BANK_CODES, "e7a0c3d5-cf1f-4a2b-8f3e-0c9a0b6c7d11" ) )
+                .isNull();
+    }
+
     @Test( expectedExceptions = IllegalArgumentException.class )
     public void beneficiaryInsert_InvalidBIC()
     {
@@ -728,6 +885,48 @@ public class PaymentConfigBeanDbTest
                 .isEqualTo( 1 );
     }
 
+    @Test
+    public void initGetTransactionDraft_LegacyDraftBackfilled()
+    {
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        assertWithMessage( "Invoice lookup record before backfill" )
+                .that( TransactionInvoiceId.lookup( 476807L, 366806L ) )
+                .isNull();
+
+        TransactionInvoice legacy = ofy().load()
+                .type( TransactionInvoice.class )
+                .filter( "orderId", 476807L )
+                .filter( "invoiceId", 366806L )
+                .first()
+                .now();
+        legacy.backfillLookupRecords();
+        ofy().clear();
+
+        CommonTransaction transaction = bean.initGetTransactionDraft( 476807L, 366806L );
+
+        assertWithMessage( "Transaction draft resolved via backfilled lookup record" )
+                .that( transaction.getId() )
+                .isEqualTo( legacy.getId() );
+
+        TransactionInvoiceId record = TransactionInvoiceId.lookup( 476807L, 366806L );
+        assertWithMessage( "Invoice lookup record" )
+                .that( record )
+                .isNotNull();
+
+        assertWithMessage( "Invoice lookup record transaction key" )
+                .that( record.getTransaction().getId() )
+                .isEqualTo( transaction.getId() );
+
+        transaction.delete();
+        ofy().clear();
+
+        assertWithMessage( "Invoice lookup record after transaction deletion" )
+                .that( TransactionInvoiceId.lookup( 476807L, 366806L ) )
+                .isNull();
+    }
+
     @Test
     public void searchInitTransaction_Idempotent()
     {
@@ -763,6 +962,103 @@ public class PaymentConfigBeanDbTest
                 .isEqualTo( 1 );
     }
 
+    @Test
+    public void searchInitTransaction_OriginsStoredDeduplicated()
+    {
+        String extId = "2f6bd1a7-0c09-4b4e-9a0f-5b1fcd4a7e0e";
+        CommonTransaction transaction = bean.searchInitTransaction( extId, null );
+        transaction.addOrigin( "{\"id\":\"1\"}" );
+        transaction.addOrigin( "{\"id\":\"2\"}" );
+        transaction.save();
+
+        // redelivered origin
+        transaction.addOrigin( "{\"id\":\"1\"}" );
+        transaction.save();
+        ofy().clear();
+
+        transaction = bean.searchTransaction( extId );
+        assertWithMessage( "Number of stored origins" )
+                .that( transaction.getOriginCount() )
+                .isEqualTo( 2 );
+
+        assertWithMessage( "Transaction origins" )
+                .that( transaction.getOrigins() )
+                .containsExactly( "{\"id\":\"1\"}", "{\"id\":\"2\"}" )
+                .inOrder();
+
+        transaction.delete();
+        ofy().clear();
+
+        assertWithMessage( "Number of origins after transaction deletion" )
+                .that( ofy().load().type( TransactionOrigin.class ).count() )
+                .isEqualTo( 0 );
+    }
+
+    @Test
+    public void searchInitTransaction_OriginsNumberedConsecutively()
+    {
+        String extId = "9a1c3e5f-7b2d-4f6a-8c0e-2b4d6f8a0c1e";
+        CommonTransaction transaction = bean.searchInitTransaction( extId, null );
+        transaction.addOrigin( "{\"id\":\"1\"}" );
+        transaction.save();
+
+        // redelivered origin followed by new ones
+        transaction.addOrigin( "{\"id\":\"1\"}" );
+        transaction.addOrigin( "{\"id\":\"2\"}" );
+        transaction.addOrigin( "{\"id\":\"3\"}" );
+        transaction.save();
+        ofy().clear();
+
+        transaction = bean.searchTransaction( extId );
+        assertWithMessage( "Number of stored origins" )
+                .that( transaction.getOriginCount() )
+                .isEqualTo( 3 );
+
+        List<Integer> sequences = ofy().load().type( TransactionOrigin.class )
+                .ancestor( transaction.entityKey() )
+                .list()
+                .stream()
+                .map( TransactionOrigin::getSequence )
+                .sorted()
+                .collect( Collectors.toList() );
+
+        assertWithMessage( "Sequence of the stored origins" )
+                .that( sequences )
+                .containsExactly( 0, 1, 2 )
+                .inOrder();
+    }
+
+    @Test
+    public void searchInitTransaction_OriginsStoredByConcurrentSave()
+    {
+        String extId = "5c0b2f1e-3a7d-4e8b-9f6c-1d2e3f4a5b6c";
+        CommonTransaction transaction = bean.searchInitTransaction( extId, null );
+        transaction.save();
+        ofy().clear();
+
+        // two instances of the same transaction loaded before any of them has been saved
+        CommonTransaction first = bean.searchTransaction( extId );
+        ofy().clear();
+        CommonTransaction second = bean.searchTransaction( extId );
+
+        first.addOrigin( "{\"id\":\"1\"}" );
+        first.save();
+
+        second.addOrigin( "{\"id\":\"2\"}" );
+        second.save();
+        ofy().clear();
+
+        transaction = bean.searchTransaction( extId );
+        assertWithMessage( "Number of stored origins" )
+                .that( transaction.getOriginCount() )
+                .isEqualTo( 2 );
+
+        assertWithMessage( "Transaction origins" )
+                .that( transaction.getOrigins() )
+                .containsExactly( "{\"id\":\"1\"}", "{\"id\":\"2\"}" )
+                .inOrder();
+    }
+
     @Test
     public void searchInitTransaction_SearchByKey_NotYetCompleted_ExternalIdPairingSuccessful()
     {
@@ -805,6 +1101,59 @@ public class PaymentConfigBeanDbTest
                 .isInstanceOf( TransactionReceipt.class );
     }
 
+    @Test
+    public void searchTransaction_ExternalIdLookupRecordInSync()
+    {
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        String extId = "7fa8816a-1fe5-4fc7-9e86-fd659b753167";
+        assertWithMessage( "External ID lookup record before backfill" )
+                .that( TransactionExternalId.lookup( extId ) )
+                .isNull();
+
+        ofy().load()
+                .type( CommonTransaction.class )
+                .filter( "extId", extId )
+                .first()
+                .now()
+                .backfillLookupRecords();
+        ofy().clear();
+
+        CommonTransaction transaction = bean.searchTransaction( extId );
+
+        Key<CommonTransaction> key = TransactionExternalId.lookup( extId );
+        assertWithMessage( "External ID lookup record transaction key" )
+                .that( key )
+                .isNotNull();
+
+        assertWithMessage( "External ID lookup record transaction ID" )
+                .that( key.getId() )
+                .isEqualTo( transaction.getId() );
+
+        transaction.delete();
+        ofy().clear();
+
+        assertWithMessage( "External ID lookup record after transaction deletion" )
+                .that( TransactionExternalId.lookup( extId ) )
+                .isNull();
+    }
+
+    @Test( expectedExceptions = TransactionNotFound.class )
+    public void searchTransaction_LegacyNotBackfilledNotFound()
+    {
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        bean.searchTransaction( "7fa8816a-1fe5-4fc7-9e86-fd659b753167" );
+    }
+
+    @Test( expectedExceptions = TransactionNotFound.class )
+    public void searchTransaction_NotFound()
+    {
+        bean.searchTransaction( "c1ec4e2b-5bba-4a08-a5a4-4d1f1a0ad0a3" );
+    }
+
     @Test
     public void countTransactionInvoice()
     {
@@ -816,6 +1165,19 @@ public class PaymentConfigBeanDbTest
                 .isEqualTo( 1 );
     }
 
+    @Test
+    public void getTransactions_MissingIdsNotPresent()
+    {
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        Map<Long, CommonTransaction> transactions = bean.getTransactions( Arrays.asList( 680L, 681L, 782L, 999L ) );
+
+        assertWithMessage( "Found transactions" )
+                .that( transactions.keySet() )
+                .containsExactly( 680L, 681L, 782L );
+    }
+
     @Test
     public void filterTransactions_All()
     {
@@ -843,6 +1205,70 @@ public class PaymentConfigBeanDbTest
                 .hasSize( 3 );
     }
 
+    @Test
+    public void pageTransactions_PageToken()
+    {
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        PaymentConfig.TransactionPage page = bean.pageTransactions( new PaymentConfig.Filter().limit( 3 ) );
+
+        assertWithMessage( "First page size" )
+                .that( page.getItems() )
+                .hasSize( 3 );
+
+        assertWithMessage( "Next page token" )
+                .that( page.getNextPageToken() )
+                .isNotNull();
+
+        List<Long> ids = new ArrayList<>();
+        page.getItems().forEach( t -> ids.add( t.getId() ) );
+
+        while ( page.getNextPageToken() != null )
+        {
+            page = bean.pageTransactions( new PaymentConfig.Filter().limit( 3 ).pageToken( page.getNextPageToken() ) );
+            page.getItems().forEach( t -> ids.add( t.getId() ) );
+        }
+
+        assertWithMessage( "All transactions paged through, each only once" )
+                .that( ids )
+                .containsNoDuplicates();
+
+        assertWithMessage( "All transactions paged through" )
+                .that( ids )
+                .hasSize( 8 );
+    }
+
+    @Test( expectedExceptions = ApiValidationException.class )
+    public void pageTransactions_InvalidPageToken()
+    {
+        bean.pageTransactions( new PaymentConfig.Filter().pageToken( "invalid-token" ) );
+    }
+
+    @Test( expectedExceptions = ApiValidationException.class )
+    public void pageTransactions_PageTokenNotCursor()
+    {
+        // well formed web safe string, but not a cursor
+        String pageToken = Cursor.copyFrom( "not a cursor".getBytes( StandardCharsets.UTF_8 ) ).toUrlSafe();
+        bean.pageTransactions( new PaymentConfig.Filter().pageToken( pageToken ) );
+    }
+
+    @Test
+    public void filterTransactions_PageTokenIgnored()
+    {
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        // offset based paging stays on the criteria query, the page token is not taken into account
+        List<CommonTransaction> transactions = bean.filterTransactions( new PaymentConfig.Filter()
+                .offset( 5 )
+                .pageToken( "invalid-token" ) );
+
+        assertWithMessage( "Transaction list with offset" )
+                .that( transactions )
+                .hasSize( 3 );
+    }
+
     @Test
     public void filterTransactions_Ordering()
     {
@@ -26,7 +26,11 @@ import biz.turnonline.ecosystem.steward.facade.Domicile;
 import biz.turnonline.ecosystem.steward.model.Account;
 import mockit.Expectations;
 import mockit.Injectable;
+import mockit.Invocation;
+import mockit.Mock;
+import mockit.MockUp;
 import mockit.Tested;
+import mockit.Verifications;
 import org.ctoolkit.services.storage.EntityExecutor;
 import org.ctoolkit.services.task.TaskExecutor;
 import org.testng.annotations.BeforeMethod;
@@ -86,6 +90,16 @@ public class PrimaryAlternativeBankAccountTest
                 result = account;
             }
         };
+
+        // bank accounts of this test are not saved, thus handed out by the snapshot as they are
+        new MockUp<CompanyBankAccount>()
+        {
+            @Mock
+            public CompanyBankAccount copy( Invocation invocation )
+            {
+                return invocation.getInvokedInstance();
+            }
+        };
     }
 
     @Test
@@ -221,6 +235,60 @@ public class PrimaryAlternativeBankAccountTest
         tested.getPrimaryBankAccount( "AQ" );
     }
 
+    @Test
+    public void getPrimaryBankAccount_SnapshotReused()
+    {
+        final List<CompanyBankAccount> list = getBankAccounts();
+
+        new Expectations( tested )
+        {
+            {
+                tested.internalGetBankAccounts( null, null, null, null );
+                result = list;
+            }
+        };
+
+        CompanyBankAccount sk = tested.getPrimaryBankAccount( "SK" );
+        CompanyBankAccount cz = tested.getPrimaryBankAccount( "CZ" );
+
+        assertEquals( Domicile.SK.name(), sk.getCountry() );
+        assertEquals( Domicile.CZ.name(), cz.getCountry() );
+
+        new Verifications()
+        {
+            {
+                tested.internalGetBankAccounts( null, null, null, null );
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void getPrimaryBankAccount_SnapshotOutdated()
+    {
+        final List<CompanyBankAccount> list = getBankAccounts();
+
+        new Expectations( tested )
+        {
+            {
+                tested.internalGetBankAccounts( null, null, null, null );
+                result = list;
+            }
+        };
+
+        tested.getPrimaryBankAccount( "SK" );
+        CompanyBankAccountSnapshot.invalidateAll();
+        tested.getPrimaryBankAccount( "SK" );
+
+        new Verifications()
+        {
+            {
+                tested.internalGetBankAccounts( null, null, null, null );
+                times = 2;
+            }
+        };
+    }
+
     @Test
     public void getAlternativeBankAccountsSellerSkNoExclude()
     {
@@ -305,6 +373,34 @@ public class PrimaryAlternativeBankAccountTest
         assertEquals( getBankAccount4().getIbanString(), descriptions.get( 0 ).getIbanString() );
     }
 
+    @Test
+    public void getAlternativeBankAccountsFirstPageFromSnapshot()
+    {
+        final List<CompanyBankAccount> list = getBankAccounts();
+        expectationsBankAccountsDomicileSk( list );
+
+        new Expectations( tested )
+        {
+            {
+                tested.getInternalPrimaryBankAccount( anyString );
+                result = null;
+            }
+        };
+
+        List<CompanyBankAccount> descriptions = tested.getAlternativeBankAccounts( 0, 1, null, null );
+
+        assertEquals( 1, descriptions.size() );
+        assertEquals( getBankAccount1().getIbanString(), descriptions.get( 0 ).getIbanString() );
+
+        new Verifications()
+        {
+            {
+                tested.internalGetBankAccounts( 0, anyInt, anyString, anyString );
+                times = 0;
+            }
+        };
+    }
+
     @Test
     public void getAlternativeBankAccountsNoBankCode()
     {
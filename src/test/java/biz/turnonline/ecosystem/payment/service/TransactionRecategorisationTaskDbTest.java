@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service;
+
+import biz.turnonline.ecosystem.payment.service.category.CategoryRuleSet;
+import biz.turnonline.ecosystem.payment.service.model.Category;
+import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.RecategorisationCheckpoint;
+import com.google.inject.Injector;
+import mockit.Invocation;
+import mockit.Mock;
+import mockit.MockUp;
+import org.ctoolkit.agent.service.impl.ImportTask;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * {@link TransactionRecategorisationTask} testing against emulated (local) App Engine datastore.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionRecategorisationTaskDbTest
+        extends BackendServiceTestCase
+{
+    @Inject
+    private Injector injector;
+
+    @BeforeMethod
+    public void before()
+    {
+        // import test bank accounts and transactions
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        CategoryFilter filter = new CategoryFilter();
+        filter.setPropertyName( CategoryFilter.PropertyName.REFERENCE );
+        filter.setPropertyValue( "Payment for service" );
+        filter.setOperation( CategoryFilter.Operation.EQ );
+
+        Category category = new Category();
+        category.setName( "Services" );
+        category.setColor( "#fffaaa" );
+        category.setPropagate( true );
+        category.getFilters().add( filter );
+        category.save();
+    }
+
+    @Test
+    public void execute_CategoriesUpdated()
+    {
+        RecategorisationCheckpoint checkpoint = RecategorisationCheckpoint.next();
+
+        TransactionRecategorisationTask task = new TransactionRecategorisationTask( checkpoint.getGeneration() );
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        CommonTransaction categorised = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        assertWithMessage( "Transaction categories" )
+                .that( categorised.getCategories() )
+                .hasSize( 1 );
+
+        assertWithMessage( "Transaction category name" )
+                .that( categorised.getCategories().get( 0 ).getName() )
+                .isEqualTo( "Services" );
+
+        CommonTransaction another = ofy().load().type( CommonTransaction.class ).id( 681L ).now();
+        assertWithMessage( "Transaction categories" )
+                .that( another.getCategories() )
+                .isEmpty();
+
+        checkpoint = ofy().load().key( RecategorisationCheckpoint.key() ).now();
+        assertWithMessage( "Re-categorisation finished" )
+                .that( checkpoint.isDone() )
+                .isTrue();
+
+        assertWithMessage( "Number of processed transactions" )
+                .that( checkpoint.getProcessed() )
+                .isEqualTo( 8 );
+
+        assertWithMessage( "Number of updated transactions" )
+                .that( checkpoint.getUpdated() )
+                .isEqualTo( 1 );
+    }
+
+    @Test
+    public void execute_ConcurrentChangeNotOverwritten()
+    {
+        // the transaction has been reverted right after the chunk has been loaded by the task
+        new MockUp<CategoryRuleSet>()
+        {
+            @Mock
+            public List<Category> resolve( Invocation invocation, CommonTransaction transaction )
+            {
+                if ( invocation.getInvocationCount() == 1 )
+                {
+                    ofy().transact( () -> {
+                        CommonTransaction current = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+                        current.status( CommonTransaction.State.REVERTED );
+                        ofy().save().entity( current ).now();
+                    } );
+                }
+                return invocation.proceed();
+            }
+        };
+
+        RecategorisationCheckpoint checkpoint = RecategorisationCheckpoint.next();
+
+        TransactionRecategorisationTask task = new TransactionRecategorisationTask( checkpoint.getGeneration() );
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        CommonTransaction categorised = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        assertWithMessage( "Transaction categories" )
+                .that( categorised.getCategories() )
+                .hasSize( 1 );
+
+        assertWithMessage( "Transaction status changed concurrently" )
+                .that( categorised.getStatus() )
+                .isEqualTo( CommonTransaction.State.REVERTED );
+    }
+
+    @Test
+    public void execute_CategoriesChangedByAnotherInstance()
+    {
+        // rules cached by this instance
+        CategoryService categoryService = injector.getInstance( CategoryService.class );
+        categoryService.resolveCategories( ofy().load().type( CommonTransaction.class ).id( 680L ).now() );
+
+        // the cached rules remain valid, the category change made by another instance is not known yet
+        new MockUp<CategoryRuleSet>()
+        {
+            @Mock
+            public boolean isValid()
+            {
+                return true;
+            }
+        };
+        ofy().delete().entities( ofy().load().type( Category.class ).list() ).now();
+        ofy().clear();
+
+        RecategorisationCheckpoint checkpoint = RecategorisationCheckpoint.next();
+
+        TransactionRecategorisationTask task = new TransactionRecategorisationTask( checkpoint.getGeneration() );
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        assertWithMessage( "Transaction categories" )
+                .that( transaction.getCategories() )
+                .isEmpty();
+
+        checkpoint = ofy().load().key( RecategorisationCheckpoint.key() ).now();
+        assertWithMessage( "Number of updated transactions" )
+                .that( checkpoint.getUpdated() )
+                .isEqualTo( 0 );
+    }
+
+    @Test
+    public void execute_GenerationSuperseded()
+    {
+        RecategorisationCheckpoint checkpoint = RecategorisationCheckpoint.next();
+        RecategorisationCheckpoint.next();
+
+        TransactionRecategorisationTask task = new TransactionRecategorisationTask( checkpoint.getGeneration() );
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        assertWithMessage( "Transaction categories" )
+                .that( transaction.getCategories() )
+                .isEmpty();
+
+        checkpoint = ofy().load().key( RecategorisationCheckpoint.key() ).now();
+        assertWithMessage( "Re-categorisation of the latest generation" )
+                .that( checkpoint.isDone() )
+                .isFalse();
+
+        assertWithMessage( "Number of processed transactions" )
+                .that( checkpoint.getProcessed() )
+                .isEqualTo( 0 );
+    }
+}
@@ -0,0 +1,124 @@
+package biz.turnonline.ecosystem.payment.service.category;
+
+import biz.turnonline.ecosystem.payment.service.model.Category;
+import biz.turnonline.ecosystem.payment.service.model.CategoryFilter;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.CounterpartyBankAccount;
+import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * {@link CategoryRuleSet} unit testing, the result is expected to be the same as evaluated via predicates.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class CategoryRuleSetTest
+{
+    private final List<TransactionCategoryPredicate> predicates = Arrays.asList(
+            new TransactionCategoryPredicateForName(),
+            new TransactionCategoryPredicateForAmount(),
+            new TransactionCategoryPredicateForCurrency(),
+            new TransactionCategoryPredicateForCredit(),
+            new TransactionCategoryPredicateForCounterpartyIban(),
+            new TransactionCategoryPredicateForReference() );
+
+    @Test
+    public void resolve_SameAsPredicates()
+    {
+        List<Category> categories = new ArrayList<>();
+        for ( CategoryFilter.Operation operation : CategoryFilter.Operation.values() )
+        {
+            categories.add( mockCategory( CategoryFilter.PropertyName.AMOUNT, "10.5", operation ) );
+            categories.add( mockCategory( CategoryFilter.PropertyName.AMOUNT, "0", operation ) );
+            categories.add( mockCategory( CategoryFilter.PropertyName.CURRENCY, "EUR", operation ) );
+            categories.add( mockCategory( CategoryFilter.PropertyName.CREDIT, "true", operation ) );
+            categories.add( mockCategory( CategoryFilter.PropertyName.NAME, "Istores", operation ) );
+            categories.add( mockCategory( CategoryFilter.PropertyName.REFERENCE, "INV-.*", operation ) );
+            categories.add( mockCategory( CategoryFilter.PropertyName.COUNTERPARTY_IBAN, "SK1234567890", operation ) );
+            categories.add( mockCategory( CategoryFilter.PropertyName.COUNTERPARTY_IBAN, "SK.*", operation ) );
+        }
+
+        CategoryRuleSet tested = new CategoryRuleSet( Category.version(), categories, predicates );
+
+        for ( double amount : new double[]{-1.0, 0.0, 10.0, 10.5, 11.0} )
+        {
+            CommonTransaction transaction = mockTransaction( amount );
+
+            assertWithMessage( "Categories for amount " + amount )
+                    .that( names( tested.resolve( transaction ) ) )
+                    .containsExactlyElementsIn( names( resolveByPredicates( categories, transaction ) ) )
+                    .inOrder();
+        }
+    }
+
+    private List<String> names( List<Category> categories )
+    {
+        return categories.stream().map( Category::getName ).collect( Collectors.toList() );
+    }
+
+    private List<Category> resolveByPredicates( List<Category> categories, CommonTransaction transaction )
+    {
+        List<Category> result = new ArrayList<>();
+        for ( Category category : categories )
+        {
+            boolean matched = false;
+            for ( CategoryFilter filter : category.getFilters() )
+            {
+                for ( TransactionCategoryPredicate predicate : predicates )
+                {
+                    try
+                    {
+                        matched |= predicate.apply( filter, transaction ) && predicate.resolve( filter, transaction );
+                    }
+                    catch ( Exception ignored )
+                    {
+                    }
+                }
+            }
+            if ( matched )
+            {
+                result.add( category );
+            }
+        }
+        return result;
+    }
+
+    private Category mockCategory( CategoryFilter.PropertyName propertyName,
+                                   String value,
+                                   CategoryFilter.Operation operation )
+    {
+        CategoryFilter filter = new CategoryFilter();
+        filter.setPropertyName( propertyName );
+        filter.setPropertyValue( value );
+        filter.setOperation( operation );
+
+        Category category = new Category();
+        category.setName( propertyName + " " + operation + " " + value );
+        category.getFilters().add( filter );
+
+        return category;
+    }
+
+    private CommonTransaction mockTransaction( double amount )
+    {
+        TransactionReceipt receipt = new TransactionReceipt( "1" );
+        receipt.setMerchantName( "Istores" );
+        receipt.reference( "INV-2021" )
+                .amount( amount )
+                .currency( "EUR" )
+                .credit( true );
+
+        CounterpartyBankAccount counterparty = new CounterpartyBankAccount();
+        counterparty.setIban( "SK1234567890" );
+        receipt.setCounterparty( counterparty );
+
+        return receipt;
+    }
+}
@@ -45,6 +45,26 @@ public class TransactionCategoryPredicateForCounterpartyIbanTest
         assertThat( predicate.resolve( mockFilter( "SK1234567890", CategoryFilter.Operation.EQ ), mockTransaction() ) ).isTrue();
     }
 
+    @Test
+    public void testResolve_EQ_ExactCase()
+    {
+        assertThat( predicate.resolve( mockFilter( "sk1234567890", CategoryFilter.Operation.EQ ), mockTransaction() ) ).isFalse();
+        assertThat( predicate.compile( mockFilter( "sk1234567890", CategoryFilter.Operation.EQ ) ).test( mockTransaction() ) ).isFalse();
+        assertThat( predicate.compile( mockFilter( "SK1234567890", CategoryFilter.Operation.EQ ) ).test( mockTransaction() ) ).isTrue();
+    }
+
+    @Test
+    public void testResolve_MissingIban()
+    {
+        CommonTransaction transaction = mockTransaction();
+        transaction.getCounterparty().setIban( null );
+
+        assertThat( predicate.resolve( mockFilter( "SK1234567890", CategoryFilter.Operation.EQ ), transaction ) ).isFalse();
+        assertThat( predicate.resolve( mockFilter( "SK.*", CategoryFilter.Operation.REGEXP ), transaction ) ).isFalse();
+        assertThat( predicate.compile( mockFilter( "SK1234567890", CategoryFilter.Operation.EQ ) ).test( transaction ) ).isFalse();
+        assertThat( predicate.compile( mockFilter( "SK.*", CategoryFilter.Operation.REGEXP ) ).test( transaction ) ).isFalse();
+    }
+
     @Test
     public void testResolve_GT()
     {
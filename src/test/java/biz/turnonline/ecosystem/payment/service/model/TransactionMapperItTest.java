@@ -21,12 +21,17 @@ package biz.turnonline.ecosystem.payment.service.model;
 import biz.turnonline.ecosystem.payment.api.model.Transaction;
 import biz.turnonline.ecosystem.payment.api.model.TransactionBank;
 import biz.turnonline.ecosystem.payment.service.BackendServiceTestCase;
+import com.googlecode.objectify.Key;
 import ma.glasnost.orika.MapperFacade;
+import ma.glasnost.orika.MappingContext;
 import org.ctoolkit.agent.service.impl.ImportTask;
 import org.testng.annotations.Test;
 
 import javax.inject.Inject;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static biz.turnonline.ecosystem.payment.service.model.CommonTransaction.State.COMPLETED;
 import static biz.turnonline.ecosystem.payment.service.model.FormOfPayment.CARD_PAYMENT;
@@ -198,6 +203,41 @@ public class TransactionMapperItTest
                 .isEqualTo( counterpartyName );
     }
 
+    @Test
+    public void convert_ListWithBatchLoadedBankAccounts()
+    {
+        // import test bank accounts and transactions
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        List<CommonTransaction> backend = ofy().load().type( CommonTransaction.class ).list();
+        Map<Key<CompanyBankAccount>, CompanyBankAccount> bankAccounts = CommonTransaction.loadBankAccounts( backend );
+
+        assertWithMessage( "Number of distinct bank accounts" )
+                .that( bankAccounts )
+                .hasSize( 2 );
+
+        MappingContext context = new MappingContext( new HashMap<>() );
+        context.setProperty( CompanyBankAccount.class, bankAccounts );
+
+        // test call
+        List<Transaction> transactions = mapper.mapAsList( backend, Transaction.class, context );
+
+        assertWithMessage( "Number of mapped transactions" )
+                .that( transactions )
+                .hasSize( backend.size() );
+
+        for ( int index = 0; index < backend.size(); index++ )
+        {
+            CompanyBankAccount bankAccount = bankAccounts.get( backend.get( index ).getBankAccountKey() );
+            TransactionBank bank = transactions.get( index ).getBankAccount();
+
+            assertWithMessage( "Transaction bank account IBAN" )
+                    .that( bank == null ? null : bank.getIban() )
+                    .isEqualTo( bankAccount == null ? null : bankAccount.getIbanString() );
+        }
+    }
+
     private void validateEmpty( Transaction transaction )
     {
         assertWithMessage( "Transaction" )
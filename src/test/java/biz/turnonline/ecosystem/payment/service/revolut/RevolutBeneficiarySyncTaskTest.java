@@ -25,6 +25,7 @@ import biz.turnonline.ecosystem.payment.service.PaymentConfig;
 import biz.turnonline.ecosystem.payment.service.model.BeneficiaryBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
+import biz.turnonline.ecosystem.payment.subscription.TaskPayload;
 import biz.turnonline.ecosystem.revolut.business.counterparty.model.Counterparty;
 import biz.turnonline.ecosystem.revolut.business.counterparty.model.CreateCounterpartyRequest;
 import biz.turnonline.ecosystem.steward.model.Account;
@@ -70,7 +71,7 @@ public class RevolutBeneficiarySyncTaskTest
     private static final String CURRENCY = "EUR";
 
     @Injectable
-    private final String json = "{}";
+    private TaskPayload payload;
 
     private final LocalAccount account = new LocalAccount( new Account()
             .setId( 1735L )
@@ -124,7 +125,10 @@ public class RevolutBeneficiarySyncTaskTest
         bankAccount.setBic( invoice.getPayment().getBankAccount().getBic() );
         bankAccount.setCurrency( invoice.getPayment().getBankAccount().getCurrency() );
 
-        new Expectations( bankAccount )
+        CompanyBankAccount debtor = new CompanyBankAccount( codeBook );
+        debtor.setBankCode( REVOLUT_BANK_CODE );
+
+        new Expectations( bankAccount, tested )
         {
             {
                 config.insertBeneficiary( IBAN, BIC, CURRENCY );
@@ -132,6 +136,9 @@ public class RevolutBeneficiarySyncTaskTest
 
                 // ExternalId needs to be saved
                 bankAccount.save();
+
+                tested.getDebtorBankAccount();
+                result = debtor;
             }
         };
 
@@ -177,6 +184,9 @@ public class RevolutBeneficiarySyncTaskTest
                 .that( bankAccount.getExternalId( REVOLUT_BANK_CODE ) )
                 .isEqualTo( COUNTERPARTY_ID );
 
+        assertWithMessage( "Beneficiary bank account name" )
+                .that( bankAccount.getName() )
+                .isEqualTo( invoice.getCreditor().getBusinessName() );
     }
 
     @Test
@@ -195,7 +205,10 @@ public class RevolutBeneficiarySyncTaskTest
         bankAccount.setBic( inputBic );
         bankAccount.setCurrency( CURRENCY );
 
-        new Expectations( bankAccount )
+        CompanyBankAccount debtor = new CompanyBankAccount( codeBook );
+        debtor.setBankCode( REVOLUT_BANK_EU_CODE );
+
+        new Expectations( bankAccount, tested )
         {
             {
                 config.insertBeneficiary( inputIban, inputBic, CURRENCY );
@@ -203,6 +216,9 @@ public class RevolutBeneficiarySyncTaskTest
 
                 // ExternalId needs to be saved
                 bankAccount.save();
+
+                tested.getDebtorBankAccount();
+                result = debtor;
             }
         };
 
@@ -277,7 +293,10 @@ public class RevolutBeneficiarySyncTaskTest
         // make sure email is null
         invoice.getCreditor().setContact( null );
 
-        new Expectations( bankAccount )
+        CompanyBankAccount debtor = new CompanyBankAccount( codeBook );
+        debtor.setBankCode( REVOLUT_BANK_CODE );
+
+        new Expectations( bankAccount, tested )
         {
             {
                 config.insertBeneficiary( IBAN, BIC, CURRENCY );
@@ -285,6 +304,9 @@ public class RevolutBeneficiarySyncTaskTest
 
                 // ExternalId needs to be saved
                 bankAccount.save();
+
+                tested.getDebtorBankAccount();
+                result = debtor;
             }
         };
 
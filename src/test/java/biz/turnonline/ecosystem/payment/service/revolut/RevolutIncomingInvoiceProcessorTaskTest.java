@@ -26,6 +26,7 @@ import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.FormOfPayment;
 import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
 import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
+import biz.turnonline.ecosystem.payment.subscription.TaskPayload;
 import biz.turnonline.ecosystem.revolut.business.draft.model.CreatePaymentDraftRequest;
 import biz.turnonline.ecosystem.revolut.business.draft.model.CreatePaymentDraftResponse;
 import biz.turnonline.ecosystem.revolut.business.draft.model.PaymentReceiver;
@@ -86,7 +87,7 @@ public class RevolutIncomingInvoiceProcessorTaskTest
     private CommonTransaction transaction;
 
     @Injectable
-    private String json = "{}";
+    private TaskPayload payload;
 
     @Injectable
     private boolean delete;
@@ -21,11 +21,16 @@ package biz.turnonline.ecosystem.payment.service.revolut.webhook;
 import biz.turnonline.ecosystem.payment.service.BackendServiceTestCase;
 import biz.turnonline.ecosystem.payment.service.CategoryService;
 import biz.turnonline.ecosystem.payment.service.PaymentConfig;
+import biz.turnonline.ecosystem.payment.service.model.BeneficiaryBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
 import biz.turnonline.ecosystem.payment.service.model.CompanyBankAccount;
 import biz.turnonline.ecosystem.payment.service.model.FormOfPayment;
+import biz.turnonline.ecosystem.payment.service.model.TransactionOutbox;
 import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
+import biz.turnonline.ecosystem.payment.service.model.TransactionSyncSequence;
 import biz.turnonline.ecosystem.payment.subscription.MockedInputStream;
+import biz.turnonline.ecosystem.payment.subscription.TransactionBatchPublisherTask;
+import biz.turnonline.ecosystem.payment.subscription.TransactionVerificationTask;
 import biz.turnonline.ecosystem.revolut.business.account.model.AccountBankDetailsItem;
 import biz.turnonline.ecosystem.revolut.business.counterparty.model.Counterparty;
 import biz.turnonline.ecosystem.revolut.business.counterparty.model.CounterpartyAccount;
@@ -36,18 +41,20 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import mockit.Expectations;
 import mockit.Injectable;
 import mockit.Mocked;
-import mockit.Tested;
+import mockit.Verifications;
 import org.ctoolkit.agent.service.impl.ImportTask;
 import org.ctoolkit.restapi.client.ClientErrorException;
 import org.ctoolkit.restapi.client.NotFoundException;
 import org.ctoolkit.restapi.client.RestFacade;
 import org.ctoolkit.restapi.client.UnauthorizedException;
 import org.ctoolkit.services.task.Task;
+import org.ctoolkit.services.task.TaskExecutor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -56,9 +63,11 @@ import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Collections;
+import java.time.OffsetDateTime;
 import java.util.Date;
 import java.util.stream.Collectors;
 
+import static biz.turnonline.ecosystem.payment.service.PaymentConfig.REVOLUT_BANK_CODE;
 import static biz.turnonline.ecosystem.payment.service.PaymentConfig.REVOLUT_BANK_EU_CODE;
 import static biz.turnonline.ecosystem.payment.service.model.CommonTransaction.State.COMPLETED;
 import static biz.turnonline.ecosystem.payment.service.model.CommonTransaction.State.FAILED;
@@ -70,7 +79,7 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import static com.googlecode.objectify.ObjectifyService.ofy;
 
 /**
- * {@link TransactionCreatedTask} and {@link TransactionStateChangedTask} unit testing against emulated datastore.
+ * {@link TransactionCreatedTask} unit testing against emulated datastore.
  * <p>
  * Use case, where the transaction is being created first then its state will be changed to completed.
  * </p>
@@ -86,18 +95,14 @@ public class TransactionCreatedFlowTest
 
     static final String BANK_ACCOUNT_EXT_ID = "bdab1c20-8d8c-430d-b967-87ac01af060c";
 
+    private static final String COUNTERPARTY_ID = "4161edb6-7ba3-4501-951a-5825888307ff";
+
     static ObjectMapper mapper = new ObjectMapper()
             .disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES )
             .registerModule( new JavaTimeModule() );
 
     private TransactionCreatedTask created;
 
-    @Tested
-    private TransactionStateChangedTask stateChanged;
-
-    @Injectable
-    private String json;
-
     @Injectable
     @Inject
     private PaymentConfig config;
@@ -112,6 +117,9 @@ public class TransactionCreatedFlowTest
     @Mocked
     private Task<?> task;
 
+    @Injectable
+    private TaskExecutor taskExecutor;
+
     static String toJson( String fileName )
     {
         InputStream stream = MockedInputStream.class.getResourceAsStream( fileName );
@@ -124,7 +132,62 @@ public class TransactionCreatedFlowTest
     @BeforeMethod
     public void before()
     {
-        stateChanged = new TransactionStateChangedTask( toJson( "transaction-state-changed.json" ) );
+        TransactionCreatedTask.invalidateCounterparties();
+    }
+
+    /**
+     * Returns the 'data' object of the web-hook event, the JSON the task is being scheduled with.
+     */
+    private static String data( String fileName ) throws JsonProcessingException
+    {
+        return mapper.readTree( toJson( fileName ) ).get( "data" ).toString();
+    }
+
+    /**
+     * Returns the task scheduled by the web-hook for the 'transaction-state-changed.json' event.
+     */
+    private TransactionCreatedTask stateChanged() throws JsonProcessingException
+    {
+        return stateChanged( "transaction-state-changed.json" );
+    }
+
+    /**
+     * Returns the task scheduled by the web-hook for the given transaction state changed event.
+     */
+    private TransactionCreatedTask stateChanged( String fileName ) throws JsonProcessingException
+    {
+        TransactionCreatedTask stateChanged = new TransactionCreatedTask( data( fileName ) );
+        stateChanged.setConfig( config );
+        stateChanged.setFacade( facade );
+        stateChanged.setCategoryService( categoryService );
+        stateChanged.setTaskExecutor( taskExecutor );
+        return stateChanged;
+    }
+
+    /**
+     * Inserts the beneficiary synced to the bank under the counterparty ID of the 'transaction-created-transfer.json'.
+     */
+    private BeneficiaryBankAccount insertBeneficiary()
+    {
+        // import bank codes
+        ImportTask task = new ImportTask( "/dataset/changeset_00001.xml" );
+        task.run();
+
+        BeneficiaryBankAccount beneficiary = config.insertBeneficiary( "GB05REVO37687428278420", "REVOGB21", "EUR" );
+        beneficiary.setExternalId( REVOLUT_BANK_CODE, COUNTERPARTY_ID );
+        beneficiary.save();
+        return beneficiary;
+    }
+
+    /**
+     * Returns the transaction as it's returned by the bank once its state has been changed to completed.
+     */
+    private static Transaction completed( String json ) throws JsonProcessingException
+    {
+        Transaction transaction = mapper.readValue( json, Transaction.class );
+        transaction.setState( TransactionState.COMPLETED );
+        transaction.setCompletedAt( OffsetDateTime.parse( "2020-03-06T11:11:17.925965Z" ) );
+        return transaction;
     }
 
     /**
@@ -138,11 +201,11 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         // mocking of the transaction from remote bank system
         Transaction t = mapper.readValue( json, Transaction.class );
-        Transaction afterStateChanged = mapper.readValue( json, Transaction.class );
-        afterStateChanged.setState( TransactionState.fromValue( stateChanged.workWith().getData().getNewState() ) );
+        Transaction afterStateChanged = completed( json );
 
         new Expectations()
         {
@@ -227,9 +290,13 @@ public class TransactionCreatedFlowTest
                 .that( transaction.getExchangeRate() )
                 .isNull();
 
+        assertWithMessage( "Transaction enqueued to be published" )
+                .that( ofy().load().type( TransactionOutbox.class ).id( TRANSACTION_EXT_ID ).now() )
+                .isNotNull();
+
         Date modificationDate = transaction.getModificationDate();
 
-        stateChanged.execute();
+        stateChanged().execute();
         ofy().clear();
 
         int count = ofy().load().type( TransactionReceipt.class ).count();
@@ -268,6 +335,7 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         // mocking of the transaction from remote bank system
         Transaction t = mapper.readValue( toJsonCreated( CARD_PAYMENT.getValue() ), Transaction.class );
@@ -302,6 +370,7 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         // mocking of the transaction from remote bank system
         Transaction t = mapper.readValue( json, Transaction.class );
@@ -439,11 +508,12 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         // mocking of the transaction from remote bank system
         Transaction t = mapper.readValue( json, Transaction.class );
         Transaction afterStateChanged = mapper.readValue( json, Transaction.class );
-        afterStateChanged.setState( TransactionState.fromValue( stateChanged.workWith().getData().getNewState() ) );
+        afterStateChanged.setState( TransactionState.COMPLETED );
 
         AccountBankDetailsItem accountBankDetailsItem = new AccountBankDetailsItem();
         accountBankDetailsItem.setIban( "SK1234567890" );
@@ -532,10 +602,9 @@ public class TransactionCreatedFlowTest
         assertWithMessage( "Transaction name from description" )
                 .that( ( ( TransactionReceipt ) transaction ).getMerchantName() )
                 .isEqualTo( "From EUR source" );
-
         Date modificationDate = transaction.getModificationDate();
 
-        stateChanged.execute();
+        stateChanged().execute();
         ofy().clear();
 
         transaction = ofy().load().type( CommonTransaction.class ).first().now();
@@ -558,6 +627,308 @@ public class TransactionCreatedFlowTest
                 .isEquivalentAccordingToCompareTo( modificationDate );
     }
 
+    /**
+     * Card payment taken from the web-hook in trusted mode, without bank call.
+     */
+    @Test
+    public void trusted_CARD_PAYMENT()
+    {
+        String json = toJsonCreated( CARD_PAYMENT.getValue() );
+        created = new TransactionCreatedTask( json );
+        created.setConfig( config );
+        created.setFacade( facade );
+        created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
+
+        System.setProperty( TransactionCreatedTask.TRUSTED_PROPERTY, "true" );
+        try
+        {
+            // test call
+            created.execute();
+        }
+        finally
+        {
+            System.clearProperty( TransactionCreatedTask.TRUSTED_PROPERTY );
+        }
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).first().now();
+        verifyTransactionBasics( transaction );
+
+        assertWithMessage( "Transaction amount" )
+                .that( transaction.getAmount() )
+                .isEqualTo( 2.0 );
+
+        assertWithMessage( "Transaction verification pending" )
+                .that( transaction.isVerificationPending() )
+                .isTrue();
+
+        new Verifications()
+        {
+            {
+                facade.get( Transaction.class );
+                times = 0;
+
+                taskExecutor.schedule( ( TransactionVerificationTask ) any, ( TaskOptions ) any );
+                times = 1;
+
+                taskExecutor.schedule( ( TransactionBatchPublisherTask ) any, ( TaskOptions ) any );
+                times = 1;
+            }
+        };
+    }
+
+    /**
+     * Card payment declined, failed or reverted once it has been created, the state taken from the bank.
+     */
+    @Test
+    public void stateChanged_Declined() throws JsonProcessingException
+    {
+        assertStateChanged( "transaction-state-changed-declined.json", TransactionState.DECLINED );
+    }
+
+    @Test
+    public void stateChanged_Failed() throws JsonProcessingException
+    {
+        assertStateChanged( "transaction-state-changed-failed.json", TransactionState.FAILED );
+    }
+
+    @Test
+    public void stateChanged_Reverted() throws JsonProcessingException
+    {
+        assertStateChanged( "transaction-state-changed-reverted.json", TransactionState.REVERTED );
+    }
+
+    private void assertStateChanged( String fileName, TransactionState state ) throws JsonProcessingException
+    {
+        String json = toJsonCreated( CARD_PAYMENT.getValue() );
+        created = new TransactionCreatedTask( json );
+        created.setConfig( config );
+        created.setFacade( facade );
+        created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
+
+        // mocking of the transaction from remote bank system
+        Transaction t = mapper.readValue( json, Transaction.class );
+        Transaction afterStateChanged = mapper.readValue( json, Transaction.class );
+        afterStateChanged.setState( state );
+
+        new Expectations()
+        {
+            {
+                facade.get( Transaction.class ).identifiedBy( TRANSACTION_EXT_ID ).finish();
+                result = t;
+                result = afterStateChanged;
+            }
+        };
+
+        created.execute();
+        stateChanged( fileName ).execute();
+        ofy().clear();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).first().now();
+        assertWithMessage( "Transaction status" )
+                .that( transaction.getStatus() )
+                .isEqualTo( CommonTransaction.State.fromValue( state.getValue() ) );
+
+        assertWithMessage( "Transaction failure" )
+                .that( transaction.isFailure() )
+                .isTrue();
+
+        assertWithMessage( "Transaction status changed, origins" )
+                .that( transaction.getOrigins() )
+                .hasSize( 2 );
+    }
+
+    /**
+     * Failed transaction is final, the later state change to 'completed' is ignored.
+     */
+    @Test
+    public void stateChanged_FailedNeverCompleted() throws JsonProcessingException
+    {
+        String json = toJsonCreated( CARD_PAYMENT.getValue() );
+        created = new TransactionCreatedTask( json );
+        created.setConfig( config );
+        created.setFacade( facade );
+        created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
+
+        // mocking of the transaction from remote bank system
+        Transaction t = mapper.readValue( json, Transaction.class );
+        Transaction failed = mapper.readValue( json, Transaction.class );
+        failed.setState( TransactionState.FAILED );
+
+        new Expectations()
+        {
+            {
+                facade.get( Transaction.class ).identifiedBy( TRANSACTION_EXT_ID ).finish();
+                result = t;
+                result = failed;
+                result = completed( json );
+            }
+        };
+
+        created.execute();
+        stateChanged( "transaction-state-changed-failed.json" ).execute();
+        ofy().clear();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).first().now();
+        Date modificationDate = transaction.getModificationDate();
+
+        stateChanged().execute();
+        ofy().clear();
+
+        transaction = ofy().load().type( CommonTransaction.class ).first().now();
+        assertWithMessage( "Transaction status" )
+                .that( transaction.getStatus() )
+                .isEqualTo( FAILED );
+
+        assertWithMessage( "Transaction failure" )
+                .that( transaction.isFailure() )
+                .isTrue();
+
+        assertWithMessage( "Transaction completed at" )
+                .that( transaction.getCompletedAt() )
+                .isNull();
+
+        assertWithMessage( "Transaction status changed, origins" )
+                .that( transaction.getOrigins() )
+                .hasSize( 2 );
+
+        assertWithMessage( "Transaction modification date (modification not expected)" )
+                .that( transaction.getModificationDate() )
+                .isEquivalentAccordingToCompareTo( modificationDate );
+    }
+
+    /**
+     * The state taken from the bank has not changed yet, the incoming state ('completed') is ignored.
+     */
+    @Test
+    public void stateChanged_StateNotChangedInBank() throws JsonProcessingException
+    {
+        String json = toJsonCreated( CARD_PAYMENT.getValue() );
+        created = new TransactionCreatedTask( json );
+        created.setConfig( config );
+        created.setFacade( facade );
+        created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
+
+        // mocking of the transaction from remote bank system, still pending
+        Transaction t = mapper.readValue( json, Transaction.class );
+
+        new Expectations()
+        {
+            {
+                facade.get( Transaction.class ).identifiedBy( TRANSACTION_EXT_ID ).finish();
+                result = t;
+            }
+        };
+
+        created.execute();
+        ofy().clear();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).first().now();
+        Date modificationDate = transaction.getModificationDate();
+
+        stateChanged().execute();
+        ofy().clear();
+
+        transaction = ofy().load().type( CommonTransaction.class ).first().now();
+        assertWithMessage( "Transaction status" )
+                .that( transaction.getStatus() )
+                .isEqualTo( PENDING );
+
+        assertWithMessage( "Transaction origins" )
+                .that( transaction.getOrigins() )
+                .hasSize( 1 );
+
+        assertWithMessage( "Transaction modification date (modification not expected)" )
+                .that( transaction.getModificationDate() )
+                .isEquivalentAccordingToCompareTo( modificationDate );
+    }
+
+    @Test
+    public void stateChanged_MissingTransactionId() throws JsonProcessingException
+    {
+        stateChanged( "transaction-state-changed-no-id.json" ).execute();
+
+        int count = ofy().load().type( TransactionReceipt.class ).count();
+        assertWithMessage( "Final number of transactions" )
+                .that( count )
+                .isEqualTo( 0 );
+
+        new Verifications()
+        {
+            {
+                facade.get( Transaction.class );
+                times = 0;
+            }
+        };
+    }
+
+    /**
+     * The transaction created event is coalesced with the later state changed event into single task.
+     * In trusted mode the task would process its own (pending) payload without the bank call,
+     * the payload of the latest event is processed instead, its state taken from the bank.
+     */
+    @Test
+    public void coalesced_LatestEventProcessed() throws JsonProcessingException
+    {
+        String json = toJsonCreated( CARD_PAYMENT.getValue() );
+        created = new TransactionCreatedTask( json );
+        created.setConfig( config );
+        created.setFacade( facade );
+        created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
+
+        String latest = data( "transaction-state-changed.json" );
+        TransactionSyncSequence.offer( TRANSACTION_EXT_ID, json );
+        TransactionSyncSequence.offer( TRANSACTION_EXT_ID, latest );
+
+        Transaction afterStateChanged = completed( json );
+
+        new Expectations()
+        {
+            {
+                facade.get( Transaction.class ).identifiedBy( TRANSACTION_EXT_ID ).finish();
+                result = afterStateChanged;
+            }
+        };
+
+        System.setProperty( TransactionCreatedTask.TRUSTED_PROPERTY, "true" );
+        try
+        {
+            // test call
+            created.execute();
+        }
+        finally
+        {
+            System.clearProperty( TransactionCreatedTask.TRUSTED_PROPERTY );
+        }
+        ofy().clear();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).first().now();
+        assertWithMessage( "Transaction status" )
+                .that( transaction.getStatus() )
+                .isEqualTo( COMPLETED );
+
+        assertWithMessage( "Transaction verification pending" )
+                .that( transaction.isVerificationPending() )
+                .isFalse();
+
+        assertWithMessage( "Transaction origins" )
+                .that( transaction.getOrigins() )
+                .containsExactly( latest );
+
+        TransactionSyncSequence sequence = ofy().load()
+                .type( TransactionSyncSequence.class )
+                .id( TRANSACTION_EXT_ID )
+                .now();
+
+        assertWithMessage( "Latest event taken by the task" )
+                .that( sequence.getLatestEvent() )
+                .isNull();
+    }
+
     /**
      * Example of transaction for a payment to another Revolut business/user.
      */
@@ -569,11 +940,12 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         // mocking of the transaction from remote bank system
         Transaction t = mapper.readValue( json, Transaction.class );
         Transaction afterStateChanged = mapper.readValue( json, Transaction.class );
-        afterStateChanged.setState( TransactionState.fromValue( stateChanged.workWith().getData().getNewState() ) );
+        afterStateChanged.setState( TransactionState.COMPLETED );
 
         Counterparty counterparty = new Counterparty();
 
@@ -659,10 +1031,9 @@ public class TransactionCreatedFlowTest
         assertWithMessage( "Transaction counterparty (BIC)" )
                 .that( transaction.getCounterparty().getBic() )
                 .isEqualTo( "SLSPSK" );
-
         Date modificationDate = transaction.getModificationDate();
 
-        stateChanged.execute();
+        stateChanged().execute();
         ofy().clear();
 
         transaction = ofy().load().type( CommonTransaction.class ).first().now();
@@ -685,6 +1056,103 @@ public class TransactionCreatedFlowTest
                 .isEquivalentAccordingToCompareTo( modificationDate );
     }
 
+    /**
+     * Example of transaction for a payment to the beneficiary synced to the bank,
+     * the counterparty is resolved with no remote call.
+     */
+    @Test
+    public void successful_TRANSFER_ExternalBeneficiary() throws JsonProcessingException
+    {
+        BeneficiaryBankAccount beneficiary = insertBeneficiary();
+        beneficiary.setName( "Blows & Wistles Co." );
+        beneficiary.save();
+
+        String json = toJsonCreated( TRANSFER.getValue() );
+        created = new TransactionCreatedTask( json );
+        created.setConfig( config );
+        created.setFacade( facade );
+        created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
+
+        // mocking of the transaction from remote bank system
+        Transaction t = mapper.readValue( json, Transaction.class );
+
+        new Expectations()
+        {
+            {
+                facade.get( Transaction.class ).identifiedBy( TRANSACTION_EXT_ID ).finish();
+                result = t;
+            }
+        };
+
+        // test call
+        created.execute();
+
+        new Verifications()
+        {
+            {
+                facade.get( Counterparty.class );
+                times = 0;
+            }
+        };
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).first().now();
+        assertWithMessage( "Transaction counterparty name" )
+                .that( transaction.getCounterparty().getName() )
+                .isEqualTo( "Blows & Wistles Co." );
+
+        assertWithMessage( "Transaction counterparty IBAN" )
+                .that( transaction.getCounterparty().getIban() )
+                .isEqualTo( beneficiary.getIbanString() );
+    }
+
+    /**
+     * Example of transaction for a payment to the beneficiary synced to the bank before its name has been recorded,
+     * the counterparty is taken from the bank.
+     */
+    @Test
+    public void successful_TRANSFER_ExternalBeneficiaryWithoutName() throws JsonProcessingException
+    {
+        insertBeneficiary();
+
+        String json = toJsonCreated( TRANSFER.getValue() );
+        created = new TransactionCreatedTask( json );
+        created.setConfig( config );
+        created.setFacade( facade );
+        created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
+
+        // mocking of the transaction from remote bank system
+        Transaction t = mapper.readValue( json, Transaction.class );
+
+        Counterparty counterparty = new Counterparty();
+
+        CounterpartyAccount counterpartyAccount = new CounterpartyAccount();
+        counterpartyAccount.setIban( "SK1234567890" );
+        counterpartyAccount.setBic( "SLSPSK" );
+        counterpartyAccount.setName( "Blows & Wistles Co." );
+        counterparty.setAccounts( Collections.singletonList( counterpartyAccount ) );
+
+        new Expectations()
+        {
+            {
+                facade.get( Transaction.class ).identifiedBy( TRANSACTION_EXT_ID ).finish();
+                result = t;
+
+                facade.get( Counterparty.class ).identifiedBy( COUNTERPARTY_ID ).finish();
+                result = counterparty;
+            }
+        };
+
+        // test call
+        created.execute();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).first().now();
+        assertWithMessage( "Transaction counterparty name" )
+                .that( transaction.getCounterparty().getName() )
+                .isEqualTo( "Blows & Wistles Co." );
+    }
+
     /**
      * Example of transaction for a cross-currency payment to another Revolut business/user.
      */
@@ -696,11 +1164,12 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         // mocking of the transaction from remote bank system
         Transaction t = mapper.readValue( json, Transaction.class );
         Transaction afterStateChanged = mapper.readValue( json, Transaction.class );
-        afterStateChanged.setState( TransactionState.fromValue( stateChanged.workWith().getData().getNewState() ) );
+        afterStateChanged.setState( TransactionState.COMPLETED );
 
         Counterparty counterparty = new Counterparty();
 
@@ -790,10 +1259,9 @@ public class TransactionCreatedFlowTest
         assertWithMessage( "Transaction exchange rate" )
                 .that( transaction.getExchangeRate() )
                 .isNotNull();
-
         Date modificationDate = transaction.getModificationDate();
 
-        stateChanged.execute();
+        stateChanged().execute();
         ofy().clear();
 
         transaction = ofy().load().type( CommonTransaction.class ).first().now();
@@ -839,11 +1307,11 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         // mocking of the transaction from remote bank system
         Transaction t = mapper.readValue( json, Transaction.class );
-        Transaction afterStateChanged = mapper.readValue( json, Transaction.class );
-        afterStateChanged.setState( TransactionState.fromValue( stateChanged.workWith().getData().getNewState() ) );
+        Transaction afterStateChanged = completed( json );
 
         Counterparty counterparty = new Counterparty();
 
@@ -932,7 +1400,7 @@ public class TransactionCreatedFlowTest
 
         Date modificationDate = transaction.getModificationDate();
 
-        stateChanged.execute();
+        stateChanged().execute();
         ofy().clear();
 
         transaction = ofy().load().type( CommonTransaction.class ).first().now();
@@ -967,11 +1435,12 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         // mocking of the transaction from remote bank system
         Transaction t = mapper.readValue( json, Transaction.class );
         Transaction afterStateChanged = mapper.readValue( json, Transaction.class );
-        afterStateChanged.setState( TransactionState.fromValue( stateChanged.workWith().getData().getNewState() ) );
+        afterStateChanged.setState( TransactionState.COMPLETED );
 
         Counterparty counterparty = new Counterparty();
 
@@ -1057,10 +1526,9 @@ public class TransactionCreatedFlowTest
         assertWithMessage( "Transaction counterparty (BIC)" )
                 .that( transaction.getCounterparty().getBic() )
                 .isEqualTo( "SLSPSK" );
-
         Date modificationDate = transaction.getModificationDate();
 
-        stateChanged.execute();
+        stateChanged().execute();
         ofy().clear();
 
         transaction = ofy().load().type( CommonTransaction.class ).first().now();
@@ -1084,8 +1552,7 @@ public class TransactionCreatedFlowTest
     }
 
     /**
-     * Example of transaction for a failed transfer.
-     * Testing whether status change to 'completed' will be ignored.
+     * Example of transaction for a refund.
      */
     @Test
     public void successful_REFUND() throws JsonProcessingException
@@ -1095,11 +1562,12 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         // mocking of the transaction from remote bank system
         Transaction t = mapper.readValue( json, Transaction.class );
         Transaction afterStateChanged = mapper.readValue( json, Transaction.class );
-        afterStateChanged.setState( TransactionState.fromValue( stateChanged.workWith().getData().getNewState() ) );
+        afterStateChanged.setState( TransactionState.COMPLETED );
 
         new Expectations()
         {
@@ -1163,10 +1631,9 @@ public class TransactionCreatedFlowTest
         assertWithMessage( "Transaction failure" )
                 .that( transaction.isFailure() )
                 .isFalse();
-
         Date modificationDate = transaction.getModificationDate();
 
-        stateChanged.execute();
+        stateChanged().execute();
         ofy().clear();
 
         transaction = ofy().load().type( CommonTransaction.class ).first().now();
@@ -1198,6 +1665,7 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         new Expectations()
         {
@@ -1230,6 +1698,7 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         new Expectations()
         {
@@ -1269,6 +1738,7 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         new Expectations()
         {
@@ -1309,18 +1779,16 @@ public class TransactionCreatedFlowTest
         created.setConfig( config );
         created.setFacade( facade );
         created.setCategoryService( categoryService );
+        created.setTaskExecutor( taskExecutor );
 
         // mocking of the transaction from remote bank system
         Transaction t = mapper.readValue( json, Transaction.class );
-        Transaction afterStateChanged = mapper.readValue( json, Transaction.class );
-        afterStateChanged.setState( TransactionState.fromValue( stateChanged.workWith().getData().getNewState() ) );
 
         new Expectations()
         {
             {
                 facade.get( Transaction.class ).identifiedBy( TRANSACTION_EXT_ID ).finish();
                 result = t;
-                result = afterStateChanged;
             }
         };
 
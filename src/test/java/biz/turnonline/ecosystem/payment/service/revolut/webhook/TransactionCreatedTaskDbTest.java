@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.revolut.webhook;
+
+import biz.turnonline.ecosystem.payment.service.BackendServiceTestCase;
+import com.googlecode.objectify.Work;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask.LOOKUPS;
+import static biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask.await;
+import static biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask.submit;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * {@link TransactionCreatedTask} concurrent lookups testing against emulated (local) App Engine datastore.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionCreatedTaskDbTest
+        extends BackendServiceTestCase
+{
+    @Test
+    public void lookups_ExecutedConcurrently()
+    {
+        // each of the lookups finishes only once the other one has started too
+        CountDownLatch started = new CountDownLatch( 2 );
+        Work<Boolean> lookup = () -> {
+            started.countDown();
+            try
+            {
+                return started.await( 5, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                return false;
+            }
+        };
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( 10 );
+        Future<Boolean> first = submit( LOOKUPS, lookup );
+        Future<Boolean> second = submit( LOOKUPS, lookup );
+
+        assertWithMessage( "First lookup executed concurrently" )
+                .that( await( first, "First lookup", deadline ) )
+                .isTrue();
+
+        assertWithMessage( "Second lookup executed concurrently" )
+                .that( await( second, "Second lookup", deadline ) )
+                .isTrue();
+    }
+
+    @Test
+    public void lookups_DeadlineShared()
+    {
+        // lookups that never finish
+        CompletableFuture<Object> first = new CompletableFuture<>();
+        CompletableFuture<Object> second = new CompletableFuture<>();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( 300 );
+        boolean firstTimedOut = false;
+        try
+        {
+            await( first, "First lookup", deadline );
+        }
+        catch ( IllegalStateException e )
+        {
+            firstTimedOut = true;
+        }
+
+        long start = System.nanoTime();
+        boolean secondTimedOut = false;
+        try
+        {
+            await( second, "Second lookup", deadline );
+        }
+        catch ( IllegalStateException e )
+        {
+            secondTimedOut = true;
+        }
+        long waited = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        assertWithMessage( "First lookup timed out" )
+                .that( firstTimedOut )
+                .isTrue();
+
+        assertWithMessage( "Second lookup timed out" )
+                .that( secondTimedOut )
+                .isTrue();
+
+        assertWithMessage( "Second lookup waiting time (deadline already exceeded)" )
+                .that( waited )
+                .isLessThan( 200L );
+
+        assertWithMessage( "Second lookup cancelled" )
+                .that( second.isCancelled() )
+                .isTrue();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.service.revolut.webhook;
+
+import biz.turnonline.ecosystem.payment.service.BackendServiceTestCase;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.FormOfPayment;
+import biz.turnonline.ecosystem.payment.service.model.ReplayCheckpoint;
+import biz.turnonline.ecosystem.payment.service.model.TransactionOutbox;
+import biz.turnonline.ecosystem.payment.service.model.TransactionReceipt;
+import biz.turnonline.ecosystem.payment.subscription.MockedInputStream;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.inject.Injector;
+import mockit.Invocation;
+import mockit.Mock;
+import mockit.MockUp;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.function.Predicate;
+
+import static biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedFlowTest.TRANSACTION_EXT_ID;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * {@link TransactionReplayTask} testing against emulated (local) App Engine datastore.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionReplayTaskDbTest
+        extends BackendServiceTestCase
+{
+    @Inject
+    private Injector injector;
+
+    private Long transactionId;
+
+    @BeforeMethod
+    public void before()
+    {
+        InputStream stream = MockedInputStream.class.getResourceAsStream( "transaction-created-card_payment.json" );
+        JsonElement data = JsonParser.parseReader( new InputStreamReader( stream ) ).getAsJsonObject().get( "data" );
+
+        // the transaction stored by an older (wrong) mapping
+        TransactionReceipt transaction = new TransactionReceipt( TRANSACTION_EXT_ID );
+        transaction.amount( 5.0 ).credit( true ).currency( "EUR" );
+        transaction.addOrigin( data.toString() );
+        transaction.save();
+
+        transactionId = transaction.getId();
+        ofy().clear();
+    }
+
+    @Test
+    public void execute_DryRun()
+    {
+        ReplayCheckpoint checkpoint = ReplayCheckpoint.next( true );
+        execute( checkpoint );
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( transactionId ).now();
+        assertWithMessage( "Transaction amount untouched" )
+                .that( transaction.getAmount() )
+                .isEqualTo( 5.0 );
+
+        checkpoint = ofy().load().key( ReplayCheckpoint.key() ).now();
+        assertWithMessage( "Replay finished" )
+                .that( checkpoint.isDone() )
+                .isTrue();
+
+        assertWithMessage( "Number of processed transactions" )
+                .that( checkpoint.getProcessed() )
+                .isEqualTo( 1 );
+
+        assertWithMessage( "Number of changed transactions" )
+                .that( checkpoint.getChanged() )
+                .isEqualTo( 1 );
+
+        assertWithMessage( "Differences" )
+                .that( checkpoint.getDifferences() )
+                .hasSize( 1 );
+
+        assertWithMessage( "Amount difference" )
+                .that( checkpoint.getDifferences().get( 0 ) )
+                .contains( "amount: 5.0 -> 2.0" );
+
+        assertWithMessage( "Transaction enqueued to be published" )
+                .that( ofy().load().type( TransactionOutbox.class ).id( TRANSACTION_EXT_ID ).now() )
+                .isNull();
+    }
+
+    @Test
+    public void execute_Rebuilt()
+    {
+        ReplayCheckpoint checkpoint = ReplayCheckpoint.next( false );
+        execute( checkpoint );
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( transactionId ).now();
+        assertWithMessage( "Transaction amount" )
+                .that( transaction.getAmount() )
+                .isEqualTo( 2.0 );
+
+        assertWithMessage( "Transaction credit" )
+                .that( transaction.isCredit() )
+                .isFalse();
+
+        assertWithMessage( "Transaction type" )
+                .that( transaction.getType() )
+                .isEqualTo( FormOfPayment.CARD_PAYMENT );
+
+        assertWithMessage( "Transaction origins" )
+                .that( transaction.getOrigins() )
+                .hasSize( 1 );
+
+        assertWithMessage( "Transaction enqueued to be published" )
+                .that( ofy().load().type( TransactionOutbox.class ).id( TRANSACTION_EXT_ID ).now() )
+                .isNotNull();
+
+        checkpoint = ofy().load().key( ReplayCheckpoint.key() ).now();
+        assertWithMessage( "Number of changed transactions" )
+                .that( checkpoint.getChanged() )
+                .isEqualTo( 1 );
+    }
+
+    @Test
+    public void execute_ConcurrentChangeNotOverwritten()
+    {
+        new MockUp<CommonTransaction>()
+        {
+            @Mock
+            boolean update( Invocation invocation, Long id, Predicate<CommonTransaction> change )
+            {
+                // the transaction has been changed since loaded by the replay
+                ofy().transact( () -> ofy().load()
+                        .type( CommonTransaction.class )
+                        .id( id )
+                        .now()
+                        .status( CommonTransaction.State.REVERTED )
+                        .save() );
+
+                return invocation.proceed();
+            }
+        };
+
+        ReplayCheckpoint checkpoint = ReplayCheckpoint.next( false );
+        execute( checkpoint );
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( transactionId ).now();
+        assertWithMessage( "Transaction amount" )
+                .that( transaction.getAmount() )
+                .isEqualTo( 2.0 );
+
+        assertWithMessage( "Transaction status changed meanwhile" )
+                .that( transaction.getStatus() )
+                .isEqualTo( CommonTransaction.State.REVERTED );
+    }
+
+    private void execute( ReplayCheckpoint checkpoint )
+    {
+        TransactionReplayTask task = new TransactionReplayTask( checkpoint.getGeneration() );
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+    }
+}
@@ -18,10 +18,10 @@
 
 package biz.turnonline.ecosystem.payment.subscription;
 
+import biz.turnonline.ecosystem.payment.service.model.TransactionSyncSequence;
 import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask;
-import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionStateChanged;
-import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionStateChangedTask;
 import biz.turnonline.ecosystem.revolut.business.transaction.model.Transaction;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import mockit.Expectations;
 import mockit.Injectable;
@@ -35,6 +35,9 @@ import org.testng.annotations.Test;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import static biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedFlowTest.TRANSACTION_EXT_ID;
 import static biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionType.CARD_PAYMENT;
@@ -48,12 +51,18 @@ import static com.google.common.truth.Truth.assertWithMessage;
 @SuppressWarnings( "ConstantConditions" )
 public class RevolutWebhookSubscriptionTest
 {
-    @Tested
+    @Tested( fullyInitialized = true )
     private RevolutWebhookSubscription tested;
 
     @Injectable
     private TaskExecutor executor;
 
+    @Injectable
+    private WebhookDeduplication deduplication;
+
+    @Mocked
+    private TransactionSyncSequence sequence;
+
     @Mocked
     private HttpServletRequest request;
 
@@ -68,6 +77,9 @@ public class RevolutWebhookSubscriptionTest
             {
                 request.getInputStream();
                 result = new MockedInputStream( "transaction-created-card_payment.json" );
+
+                TransactionSyncSequence.current( TRANSACTION_EXT_ID );
+                result = 0L;
             }
         };
 
@@ -77,24 +89,20 @@ public class RevolutWebhookSubscriptionTest
         {
             {
                 Task<?> task;
-                executor.schedule( task = withCapture() );
+                executor.schedule( task = withCapture(), ( TaskOptions ) any );
 
                 assertWithMessage( "Event task" )
                         .that( task )
                         .isNotNull();
 
-                assertWithMessage( "Number of scheduled tasks" )
+                assertWithMessage( "Number of scheduled tasks (published through the outbox)" )
                         .that( task.countTasks() )
-                        .isEqualTo( 2 );
+                        .isEqualTo( 1 );
 
                 assertWithMessage( "Type of the event task" )
                         .that( task )
                         .isInstanceOf( TransactionCreatedTask.class );
 
-                assertWithMessage( "Publisher task" )
-                        .that( task.next() )
-                        .isInstanceOf( TransactionPublisherTask.class );
-
                 TransactionCreatedTask tt = ( TransactionCreatedTask ) task;
                 Transaction event = tt.workWith();
 
@@ -165,6 +173,9 @@ public class RevolutWebhookSubscriptionTest
             {
                 request.getInputStream();
                 result = new MockedInputStream( "transaction-state-changed.json" );
+
+                TransactionSyncSequence.current( TRANSACTION_EXT_ID );
+                result = 0L;
             }
         };
 
@@ -174,50 +185,113 @@ public class RevolutWebhookSubscriptionTest
         {
             {
                 Task<?> task;
-                executor.schedule( task = withCapture() );
+                executor.schedule( task = withCapture(), ( TaskOptions ) any );
 
                 assertWithMessage( "Event task" )
                         .that( task )
                         .isNotNull();
 
-                assertWithMessage( "Number of scheduled tasks" )
+                assertWithMessage( "Number of scheduled tasks (published through the outbox)" )
                         .that( task.countTasks() )
-                        .isEqualTo( 2 );
+                        .isEqualTo( 1 );
 
                 assertWithMessage( "Type of the event task" )
                         .that( task )
-                        .isInstanceOf( TransactionStateChangedTask.class );
-
-                assertWithMessage( "Publisher task" )
-                        .that( task.next() )
-                        .isInstanceOf( TransactionPublisherTask.class );
+                        .isInstanceOf( TransactionCreatedTask.class );
 
-                TransactionStateChangedTask tt = ( TransactionStateChangedTask ) task;
-                TransactionStateChanged event = tt.workWith();
+                TransactionCreatedTask tt = ( TransactionCreatedTask ) task;
+                Transaction event = tt.workWith();
 
-                assertWithMessage( "Event payload" )
+                assertWithMessage( "Task transaction payload" )
                         .that( event )
                         .isNotNull();
 
-                assertWithMessage( "Event type" )
-                        .that( event.getEvent() )
-                        .isEqualTo( "TransactionStateChanged" );
+                assertWithMessage( "Transaction ID" )
+                        .that( event.getId() )
+                        .isEqualTo( "0dfaec58-6043-11ea-bc55-0242ac130003" );
+            }
+        };
+    }
+
+    @Test
+    public void transactionStateChanged_CoalescedWithScheduledTask() throws IOException
+    {
+        new Expectations()
+        {
+            {
+                request.getInputStream();
+                result = new MockedInputStream( "transaction-state-changed.json" );
+
+                TransactionSyncSequence.current( TRANSACTION_EXT_ID );
+                result = 0L;
 
-                assertWithMessage( "Event timestamp" )
-                        .that( event.getTimestamp() )
-                        .isNotNull();
+                executor.schedule( ( Task<?> ) any, ( TaskOptions ) any );
+                result = new TaskAlreadyExistsException( "Task already exists" );
+            }
+        };
 
-                assertWithMessage( "Event data" )
-                        .that( event.getData() )
-                        .isNotNull();
+        tested.doPost( request, response );
 
-                assertWithMessage( "Event data old state" )
-                        .that( event.getData().getOldState() )
-                        .isEqualTo( "pending" );
+        new Verifications()
+        {
+            {
+                // not started yet, the same name
+                executor.schedule( ( Task<?> ) any, ( TaskOptions ) any );
+                times = 1;
+
+                // the payload of the coalesced event is going to be taken by the already scheduled task
+                String payload;
+                TransactionSyncSequence.offer( TRANSACTION_EXT_ID, payload = withCapture() );
+
+                assertWithMessage( "Offered payload of the coalesced event" )
+                        .that( payload )
+                        .contains( "\"new_state\": \"completed\"" );
+
+                deduplication.forget( anyString );
+                times = 0;
 
-                assertWithMessage( "Event data new state" )
-                        .that( event.getData().getNewState() )
-                        .isEqualTo( "completed" );
+                response.setStatus( HttpServletResponse.SC_OK );
+            }
+        };
+    }
+
+    @Test
+    public void transactionStateChanged_ScheduledOnceCoalescingTaskStarted() throws IOException
+    {
+        new Expectations()
+        {
+            {
+                request.getInputStream();
+                result = new MockedInputStream( "transaction-state-changed.json" );
+
+                // the task of the current sequence has just started, the sequence advanced
+                TransactionSyncSequence.current( TRANSACTION_EXT_ID );
+                result = 0L;
+                result = 1L;
+
+                executor.schedule( ( Task<?> ) any, ( TaskOptions ) any );
+                result = new TaskAlreadyExistsException( "Task already exists" );
+                result = null;
+            }
+        };
+
+        tested.doPost( request, response );
+
+        new Verifications()
+        {
+            {
+                List<TaskOptions> options = new ArrayList<>();
+                executor.schedule( ( Task<?> ) any, withCapture( options ) );
+                times = 2;
+
+                assertWithMessage( "Name of the task scheduled after the started one" )
+                        .that( options.get( 1 ).getTaskName() )
+                        .isEqualTo( "Revolut-Transaction-" + TRANSACTION_EXT_ID + "-1" );
+
+                deduplication.forget( anyString );
+                times = 0;
+
+                response.setStatus( HttpServletResponse.SC_OK );
             }
         };
     }
@@ -348,4 +422,95 @@ public class RevolutWebhookSubscriptionTest
             }
         };
     }
-}
\ No newline at end of file
+
+    @Test
+    public void transactionEvent_MalformedJsonBody() throws IOException
+    {
+        new Expectations()
+        {
+            {
+                request.getInputStream();
+                result = new MockedInputStream( "malformed-json.json" );
+            }
+        };
+
+        tested.doPost( request, response );
+
+        new Verifications()
+        {
+            {
+                response.setStatus( HttpServletResponse.SC_BAD_REQUEST );
+
+                executor.schedule( ( Task<?> ) any );
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void envelope_DataTakenAsReceived() throws IOException
+    {
+        String data = "{\"id\":\"5f4e\",\"legs\":[{\"amount\":15,\"description\":\"Caf\u00e9 {1}\"}],\"state\":\"pending\"}";
+        String json = "{\"event\":\"TransactionCreated\",\"extra\":{\"id\":\"ignored\"},\"data\":" + data + "}";
+        byte[] body = json.getBytes( StandardCharsets.UTF_8 );
+
+        RevolutWebhookSubscription.Envelope envelope = RevolutWebhookSubscription.Envelope.parse( body );
+
+        assertWithMessage( "Event type" )
+                .that( envelope.event )
+                .isEqualTo( "TransactionCreated" );
+
+        assertWithMessage( "Transaction ID" )
+                .that( envelope.id )
+                .isEqualTo( "5f4e" );
+
+        assertWithMessage( "Raw data" )
+                .that( envelope.data( body ) )
+                .isEqualTo( data );
+    }
+
+    @Test
+    public void transactionStateChanged_RedeliveryIgnored() throws IOException
+    {
+        new Expectations()
+        {
+            {
+                request.getInputStream();
+                result = new MockedInputStream( "transaction-state-changed.json" );
+
+                deduplication.seen( "TransactionStateChanged:0dfaec58-6043-11ea-bc55-0242ac130003:completed" );
+                result = true;
+            }
+        };
+
+        tested.doPost( request, response );
+
+        new Verifications()
+        {
+            {
+                response.setStatus( HttpServletResponse.SC_OK );
+
+                executor.schedule( ( Task<?> ) any );
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void envelope_DeliveryKey() throws IOException
+    {
+        String created = "{\"event\":\"TransactionCreated\",\"timestamp\":\"2020-03-06T09:11:37.925965Z\","
+                + "\"data\":{\"id\":\"5f4e\",\"state\":\"pending\"}}";
+
+        assertWithMessage( "Delivery key of the created transaction" )
+                .that( RevolutWebhookSubscription.Envelope.parse( created.getBytes( StandardCharsets.UTF_8 ) ).deliveryKey() )
+                .isEqualTo( "TransactionCreated:5f4e:2020-03-06T09:11:37.925965Z" );
+
+        String changed = "{\"event\":\"TransactionStateChanged\",\"timestamp\":\"2020-03-06T11:11:17.925965Z\","
+                + "\"data\":{\"id\":\"5f4e\",\"old_state\":\"pending\",\"new_state\":\"completed\"}}";
+
+        assertWithMessage( "Delivery key of the transaction state change" )
+                .that( RevolutWebhookSubscription.Envelope.parse( changed.getBytes( StandardCharsets.UTF_8 ) ).deliveryKey() )
+                .isEqualTo( "TransactionStateChanged:5f4e:completed" );
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.billing.model.Invoice;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.Transaction;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.common.io.ByteStreams;
+import org.ctoolkit.restapi.client.pubsub.PubsubCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload de-serializations per second of the {@code TransactionCreatedTask} and
+ * {@code InvoiceTransactionProcessorTask}, the part that runs at the beginning of each task execution.
+ * <p>
+ * The Revolut transaction payload read by the reader shared via {@link JsonReaders} is compared against
+ * the previous way, a new {@link ObjectMapper} configured for each execution. The invoice payload is a Google API
+ * client model parsed by {@link PubsubCommand} the same way as Pub/Sub does, a Jackson reader does not fit it,
+ * thus its single parse is measured, the cost saved by each repeated {@link JsonAccountTask#workWith()} call.
+ * <p>
+ * Run by {@code mvn test-compile exec:java -Dexec.mainClass=<this class> -Dexec.classpathScope=test}
+ * or from the IDE.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class TaskPayloadParsingBenchmark
+{
+    public static void main( String[] args ) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include( TaskPayloadParsingBenchmark.class.getSimpleName() )
+                .build();
+
+        new Runner( options ).run();
+    }
+
+    private static byte[] read( Class<?> base, String resource ) throws IOException
+    {
+        try ( InputStream stream = base.getResourceAsStream( resource ) )
+        {
+            return ByteStreams.toByteArray( stream );
+        }
+    }
+
+    @Benchmark
+    public Transaction transactionSharedReader( TransactionPayload payload ) throws IOException
+    {
+        return JsonReaders.forType( Transaction.class ).readValue( payload.json );
+    }
+
+    @Benchmark
+    public Transaction transactionFreshMapper( TransactionPayload payload ) throws IOException
+    {
+        ObjectMapper mapper = new ObjectMapper()
+                .disable( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES )
+                .registerModule( new JavaTimeModule() );
+
+        return mapper.readValue( payload.json, Transaction.class );
+    }
+
+    @Benchmark
+    public Invoice invoicePubsub( InvoicePayload payload ) throws IOException
+    {
+        return PubsubCommand.fromString( payload.json, Invoice.class );
+    }
+
+    /**
+     * The 'data' object of the web-hook event, the JSON the transaction task is being scheduled with.
+     */
+    @State( Scope.Benchmark )
+    public static class TransactionPayload
+    {
+        @Param( {"transaction-created-card_payment.json",
+                "transaction-created-transfer-cross-currency.json"} )
+        private String event;
+
+        private String json;
+
+        @Setup
+        public void setup() throws IOException
+        {
+            byte[] body = read( TaskPayloadParsingBenchmark.class, event );
+            json = RevolutWebhookSubscription.Envelope.parse( body ).data( body );
+        }
+    }
+
+    /**
+     * The invoice JSON as it has been taken from the Pub/Sub message.
+     */
+    @State( Scope.Benchmark )
+    public static class InvoicePayload
+    {
+        @Param( {"invoice-sent-pubsub.json"} )
+        private String message;
+
+        private String json;
+
+        @Setup
+        public void setup() throws IOException
+        {
+            json = new String( read( Invoice.class, message ), StandardCharsets.UTF_8 );
+        }
+    }
+}
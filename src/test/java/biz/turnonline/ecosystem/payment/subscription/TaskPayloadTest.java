@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.service.model.TaskPayloadBlob;
+import com.google.common.base.Strings;
+import mockit.Mock;
+import mockit.MockUp;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * {@link TaskPayload} unit testing.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TaskPayloadTest
+{
+    @Test
+    public void of_Small() throws Exception
+    {
+        String json = "{\"id\":\"1\"}";
+        TaskPayload payload = serialized( TaskPayload.of( json ) );
+
+        assertWithMessage( "Carried size of small payload" )
+                .that( payload.size() )
+                .isEqualTo( json.length() );
+
+        assertWithMessage( "Small payload" )
+                .that( payload.json() )
+                .isEqualTo( json );
+    }
+
+    @Test
+    public void of_Compressed() throws Exception
+    {
+        String json = "{\"reference\":\"" + Strings.repeat( "Payment for service ", 500 ) + "\"}";
+        TaskPayload payload = serialized( TaskPayload.of( json ) );
+
+        assertWithMessage( "Carried size of compressed payload" )
+                .that( payload.size() )
+                .isLessThan( json.length() / 10 );
+
+        assertWithMessage( "Compressed payload offloaded" )
+                .that( payload.isOffloaded() )
+                .isFalse();
+
+        assertWithMessage( "Decompressed payload" )
+                .that( payload.json() )
+                .isEqualTo( json );
+    }
+
+    @Test
+    public void of_Offloaded() throws Exception
+    {
+        Map<String, byte[]> store = new HashMap<>();
+        new MockUp<TaskPayloadBlob>()
+        {
+            @Mock
+            void store( String hash, byte[] content )
+            {
+                store.put( hash, content );
+            }
+
+            @Mock
+            byte[] load( String hash )
+            {
+                return store.get( hash );
+            }
+        };
+
+        StringBuilder builder = new StringBuilder( "[" );
+        while ( builder.length() < 4 * TaskPayload.OFFLOAD_THRESHOLD )
+        {
+            builder.append( '"' ).append( UUID.randomUUID() ).append( "\"," );
+        }
+        String json = builder.append( "\"\"]" ).toString();
+
+        TaskPayload first = TaskPayload.of( json );
+        TaskPayload payload = serialized( TaskPayload.of( json ) );
+
+        assertWithMessage( "Large payload offloaded" )
+                .that( payload.isOffloaded() )
+                .isTrue();
+
+        assertWithMessage( "Carried size of offloaded payload" )
+                .that( payload.size() )
+                .isEqualTo( 0 );
+
+        assertWithMessage( "Same payload stored once" )
+                .that( store )
+                .hasSize( 1 );
+
+        assertWithMessage( "Offloaded payload" )
+                .that( payload.json() )
+                .isEqualTo( first.json() );
+    }
+
+    private TaskPayload serialized( TaskPayload payload ) throws IOException, ClassNotFoundException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( ObjectOutputStream output = new ObjectOutputStream( bytes ) )
+        {
+            output.writeObject( payload );
+        }
+
+        try ( ObjectInputStream input = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+        {
+            return ( TaskPayload ) input.readObject();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.billing.model.Transaction;
+import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
+import biz.turnonline.ecosystem.steward.model.Account;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import mockit.Expectations;
+import mockit.Injectable;
+import mockit.Mocked;
+import mockit.Tested;
+import mockit.Verifications;
+import org.ctoolkit.restapi.client.adaptee.InsertExecutorAdaptee;
+import org.ctoolkit.restapi.client.provider.TokenProvider;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * {@link TransactionBatchAdaptee} unit testing.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionBatchAdapteeTest
+{
+    @Tested
+    private TransactionBatchAdaptee tested;
+
+    @Injectable
+    private InsertExecutorAdaptee<Transaction> adaptee;
+
+    @Injectable
+    private TokenProvider<LocalAccount> tokenProvider;
+
+    @Mocked
+    private AbstractGoogleClientRequest<Transaction> single;
+
+    @Mocked
+    private HttpHeaders headers;
+
+    private LocalAccount account;
+
+    @BeforeMethod
+    public void before()
+    {
+        account = new LocalAccount( new Account()
+                .setId( 1735L )
+                .setEmail( "my.account@turnonline.biz" )
+                .setIdentityId( "64HGtr6ks" ) );
+    }
+
+    @Test
+    public void executeInsert_OnBehalfOfHeadersPerItem() throws IOException
+    {
+        TransactionBatch batch = new TransactionBatch( account )
+                .add( "ext-1", new Transaction() )
+                .add( "ext-2", new Transaction() );
+
+        new Expectations()
+        {
+            {
+                tokenProvider.headers( account );
+                result = Collections.singletonMap( "On-Behalf-Of-Email", "my.account@turnonline.biz" );
+
+                adaptee.prepareInsert( ( Transaction ) any, null, null );
+                result = single;
+
+                single.getRequestHeaders();
+                result = headers;
+            }
+        };
+
+        Object request = tested.prepareInsert( batch, null, null );
+        tested.executeInsert( request, null, null );
+
+        new Verifications()
+        {
+            {
+                headers.set( "On-Behalf-Of-Email", "my.account@turnonline.biz" );
+                times = 2;
+
+                adaptee.executeInsert( single, null, null );
+                times = 2;
+            }
+        };
+    }
+
+    @Test
+    public void executeInsert_FailurePerItem() throws IOException
+    {
+        TransactionBatch batch = new TransactionBatch( account )
+                .add( "ext-1", new Transaction() )
+                .add( "ext-2", new Transaction() )
+                .add( "ext-3", new Transaction() );
+
+        new Expectations()
+        {
+            {
+                adaptee.executeInsert( any, null, null );
+                result = new Transaction();
+                result = new IOException( "Service unavailable" );
+                result = new Transaction();
+            }
+        };
+
+        Object request = tested.prepareInsert( batch, null, null );
+        tested.executeInsert( request, null, null );
+
+        assertWithMessage( "First item failed" )
+                .that( batch.getItems().get( 0 ).isFailed() )
+                .isFalse();
+
+        assertWithMessage( "Second item failed" )
+                .that( batch.getItems().get( 1 ).isFailed() )
+                .isTrue();
+
+        assertWithMessage( "Second item error" )
+                .that( batch.getItems().get( 1 ).getError() )
+                .isEqualTo( "Service unavailable" );
+
+        assertWithMessage( "Third item failed" )
+                .that( batch.getItems().get( 2 ).isFailed() )
+                .isFalse();
+    }
+}
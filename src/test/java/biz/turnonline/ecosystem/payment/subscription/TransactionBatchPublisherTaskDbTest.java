@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.api.model.Transaction;
+import biz.turnonline.ecosystem.payment.service.BackendServiceTestCase;
+import biz.turnonline.ecosystem.payment.service.LocalAccountProvider;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.LocalAccount;
+import biz.turnonline.ecosystem.payment.service.model.TransactionCategory;
+import biz.turnonline.ecosystem.payment.service.model.TransactionOutbox;
+import biz.turnonline.ecosystem.steward.model.Account;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.inject.Injector;
+import mockit.Capturing;
+import mockit.Expectations;
+import mockit.Invocation;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Verifications;
+import org.ctoolkit.agent.service.impl.ImportTask;
+import org.ctoolkit.restapi.client.RestFacade;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * {@link TransactionBatchPublisherTask} testing against emulated (local) App Engine datastore.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionBatchPublisherTaskDbTest
+        extends BackendServiceTestCase
+{
+    @Inject
+    private Injector injector;
+
+    @Capturing
+    private RestFacade facade;
+
+    @Capturing
+    private TaskExecutor executor;
+
+    @Capturing
+    private LocalAccountProvider lap;
+
+    private LocalAccount account;
+
+    @BeforeMethod
+    public void before()
+    {
+        // import test bank accounts and transactions
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        // both of the transactions enqueued to the outbox along with its external ID lookup records
+        ofy().load().type( CommonTransaction.class ).id( 680L ).now().publish().save();
+        ofy().load().type( CommonTransaction.class ).id( 681L ).now().publish().save();
+        ofy().clear();
+
+        account = new LocalAccount( new Account()
+                .setId( 1735L )
+                .setEmail( "my.account@turnonline.biz" )
+                .setIdentityId( "64HGtr6ks" ) );
+    }
+
+    @Test
+    public void execute_PushedOnBehalfOfAccountByBulkCall()
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = account;
+            }
+        };
+
+        TransactionBatchPublisherTask task = new TransactionBatchPublisherTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        new Verifications()
+        {
+            {
+                TransactionBatch batch;
+                facade.insert( batch = withCapture() ).onBehalfOf( account ).finish();
+                times = 1;
+
+                assertWithMessage( "Transactions pushed by single bulk call" )
+                        .that( batch.size() )
+                        .isEqualTo( 2 );
+
+                assertWithMessage( "Bulk call account" )
+                        .that( batch.getOnBehalfOf() )
+                        .isEqualTo( account );
+            }
+        };
+
+        assertWithMessage( "Outbox after push" )
+                .that( ofy().load().type( TransactionOutbox.class ).list() )
+                .isEmpty();
+
+        assertWithMessage( "Transaction 680 pushed hash" )
+                .that( ofy().load().type( CommonTransaction.class ).id( 680L ).now().getPushedHash() )
+                .isNotNull();
+
+        assertWithMessage( "Transaction 681 pushed hash" )
+                .that( ofy().load().type( CommonTransaction.class ).id( 681L ).now().getPushedHash() )
+                .isNotNull();
+    }
+
+    @Test
+    public void execute_NotChangedSkipped()
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = account;
+            }
+        };
+
+        TransactionBatchPublisherTask task = new TransactionBatchPublisherTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        // published again with no change since the last push
+        ofy().load().type( CommonTransaction.class ).id( 680L ).now().publish().save();
+        ofy().clear();
+
+        task = new TransactionBatchPublisherTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        new Verifications()
+        {
+            {
+                // the second flush has nothing to be pushed
+                facade.insert( any ).onBehalfOf( account ).finish();
+                times = 1;
+            }
+        };
+
+        assertWithMessage( "Outbox after push" )
+                .that( ofy().load().type( TransactionOutbox.class ).list() )
+                .isEmpty();
+    }
+
+    @Test
+    public void lease_PastLeasedItems()
+    {
+        List<TransactionOutbox> first = TransactionOutbox.lease( 1, TransactionBatchPublisherTask.LEASE_MILLIS );
+        List<TransactionOutbox> second = TransactionOutbox.lease( 1, TransactionBatchPublisherTask.LEASE_MILLIS );
+
+        assertWithMessage( "First lease" )
+                .that( first )
+                .hasSize( 1 );
+
+        assertWithMessage( "Second lease" )
+                .that( second )
+                .hasSize( 1 );
+
+        assertWithMessage( "Transaction leased by the second lease" )
+                .that( second.get( 0 ).getExtId() )
+                .isNotEqualTo( first.get( 0 ).getExtId() );
+
+        assertWithMessage( "Third lease, all of the transactions leased already" )
+                .that( TransactionOutbox.lease( 1, TransactionBatchPublisherTask.LEASE_MILLIS ) )
+                .isEmpty();
+    }
+
+    @Test
+    public void execute_FailedItemStaysInOutbox()
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = account;
+            }
+        };
+
+        // the push of the first transaction of the batch has failed
+        new MockUp<TransactionBatch.Item>()
+        {
+            @Mock
+            boolean isFailed( Invocation invocation )
+            {
+                TransactionBatch.Item item = invocation.getInvokedInstance();
+                return item.getExtId().equals( "7fa8816a-1fe5-4fc7-9e86-fd659b753167" );
+            }
+
+            @Mock
+            String getError()
+            {
+                return "temporal failure";
+            }
+        };
+
+        TransactionBatchPublisherTask task = new TransactionBatchPublisherTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        List<TransactionOutbox> remaining = ofy().load().type( TransactionOutbox.class ).list();
+        assertWithMessage( "Outbox after push" )
+                .that( remaining )
+                .hasSize( 1 );
+
+        assertWithMessage( "Failed item attempts" )
+                .that( remaining.get( 0 ).getAttempts() )
+                .isEqualTo( 1 );
+
+        assertWithMessage( "Failed item last error" )
+                .that( remaining.get( 0 ).getLastError() )
+                .isEqualTo( "temporal failure" );
+
+        new Verifications()
+        {
+            {
+                // the failed item is going to be pushed again by the next flush
+                executor.schedule( ( TransactionBatchPublisherTask ) any, ( TaskOptions ) any );
+            }
+        };
+    }
+
+    @Test
+    public void execute_BulkCallFailedAllItemsStay()
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = account;
+
+                facade.insert( any ).onBehalfOf( account ).finish();
+                result = new RuntimeException( "service unavailable" );
+            }
+        };
+
+        TransactionBatchPublisherTask task = new TransactionBatchPublisherTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        List<TransactionOutbox> remaining = ofy().load().type( TransactionOutbox.class ).list();
+        assertWithMessage( "Outbox after push" )
+                .that( remaining )
+                .hasSize( 2 );
+
+        assertWithMessage( "Failed item last error" )
+                .that( remaining.get( 0 ).getLastError() )
+                .isEqualTo( "service unavailable" );
+    }
+
+    @Test
+    public void execute_DoNotPropagate()
+    {
+        TransactionCategory category = new TransactionCategory();
+        category.setPropagate( false );
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        transaction.setCategories( Collections.singletonList( category ) );
+        transaction.publish().save();
+        ofy().clear();
+
+        assertNotPropagated();
+    }
+
+    @Test
+    public void execute_Incomplete()
+    {
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        transaction.currency( null ).billCurrency( null );
+        transaction.publish().save();
+        ofy().clear();
+
+        assertNotPropagated();
+    }
+
+    @Test
+    public void execute_LocalAccountNotFound()
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = null;
+            }
+        };
+
+        TransactionBatchPublisherTask task = new TransactionBatchPublisherTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        new Verifications()
+        {
+            {
+                facade.insert( any );
+                times = 0;
+            }
+        };
+
+        assertWithMessage( "Outbox, nothing pushed" )
+                .that( ofy().load().type( TransactionOutbox.class ).list() )
+                .hasSize( 2 );
+    }
+
+    /**
+     * On exception task will retry
+     */
+    @Test( expectedExceptions = RuntimeException.class )
+    public void execute_MapperFailure()
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = account;
+            }
+        };
+
+        new MockUp<TransactionBatchPublisherTask>()
+        {
+            @Mock
+            biz.turnonline.ecosystem.billing.model.Transaction toProductBilling( Transaction api )
+            {
+                throw new RuntimeException( "mapping failure" );
+            }
+        };
+
+        TransactionBatchPublisherTask task = new TransactionBatchPublisherTask();
+        injector.injectMembers( task );
+        task.execute();
+    }
+
+    /**
+     * Executes the push with transaction 680 not to be propagated, only transaction 681 is pushed.
+     */
+    private void assertNotPropagated()
+    {
+        new Expectations()
+        {
+            {
+                lap.get();
+                result = account;
+            }
+        };
+
+        TransactionBatchPublisherTask task = new TransactionBatchPublisherTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        new Verifications()
+        {
+            {
+                TransactionBatch batch;
+                facade.insert( batch = withCapture() ).onBehalfOf( account ).finish();
+                times = 1;
+
+                assertWithMessage( "Transactions pushed" )
+                        .that( batch.size() )
+                        .isEqualTo( 1 );
+
+                assertWithMessage( "Transaction pushed" )
+                        .that( batch.getItems().get( 0 ).getExtId() )
+                        .isEqualTo( "33869cb7-de3f-433e-a148-4170fe042beb" );
+            }
+        };
+
+        assertWithMessage( "Outbox after push, not propagated transaction removed too" )
+                .that( ofy().load().type( TransactionOutbox.class ).list() )
+                .isEmpty();
+
+        assertWithMessage( "Transaction 680 pushed hash" )
+                .that( ofy().load().type( CommonTransaction.class ).id( 680L ).now().getPushedHash() )
+                .isNull();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2020 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.api.model.Transaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ctoolkit.services.storage.PropertiesHashCode;
+import org.ctoolkit.services.storage.PropertiesHasher;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+
+import static biz.turnonline.ecosystem.payment.service.BackendServiceTestCase.getFromFile;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * {@link TransactionBatchPublisherTask} unit testing of the conversion to the product-billing transaction.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionBatchPublisherTaskTest
+{
+    private Transaction api;
+
+    @BeforeMethod
+    public void before()
+    {
+        api = getFromFile( "transaction.json", Transaction.class );
+    }
+
+    @Test
+    public void toProductBilling()
+    {
+        biz.turnonline.ecosystem.billing.model.Transaction message;
+        message = TransactionBatchPublisherTask.toProductBilling( api );
+        assertThat( message ).isNotNull();
+
+        Map<String, Object> map = mapOf( message );
+        Map<String, Object> properties = new Helper().flatMap( map, null );
+        assertThat( properties ).hasSize( 37 );
+
+        assertWithMessage( "Transaction amount" )
+                .that( properties.get( "amount" ) )
+                .isEqualTo( 35.0 );
+
+        assertWithMessage( "Transaction bill amount" )
+                .that( properties.get( "billAmount" ) )
+                .isEqualTo( 31.29 );
+
+        assertWithMessage( "Transaction bill currency" )
+                .that( properties.get( "billCurrency" ) )
+                .isEqualTo( "GBP" );
+
+        assertWithMessage( "Transaction bank account IBAN" )
+                .that( properties.get( "bankAccount.iban" ) )
+                .isNotNull();
+
+        assertWithMessage( "Transaction bill receipt Id" )
+                .that( properties.get( "bill.receipt" ) )
+                .isNotNull();
+
+        assertWithMessage( "Transaction bill order Id" )
+                .that( properties.get( "bill.order" ) )
+                .isNotNull();
+
+        assertWithMessage( "Transaction bill invoice Id" )
+                .that( properties.get( "bill.invoice" ) )
+                .isNotNull();
+
+        assertWithMessage( "Transaction merchant name" )
+                .that( properties.get( "merchant.name" ) )
+                .isEqualTo( "Pty Ltd" );
+
+        assertWithMessage( "Transaction status" )
+                .that( properties.get( "status" ) )
+                .isEqualTo( "COMPLETED" );
+
+        assertWithMessage( "Transaction type" )
+                .that( properties.get( "type" ) )
+                .isEqualTo( "TRANSFER" );
+
+        assertWithMessage( "Transaction bank account code" )
+                .that( properties.get( "bankAccount.code" ) )
+                .isEqualTo( "REVO" );
+
+        assertWithMessage( "Transaction ID" )
+                .that( properties.get( "transactionId" ) )
+                .isEqualTo( 645568 );
+
+        assertWithMessage( "Transaction counterparty IBAN" )
+                .that( properties.get( "counterparty.iban" ) )
+                .isEqualTo( "SK31 1200 0000 1987 4263 7541" );
+
+        assertWithMessage( "Transaction counterparty BIC" )
+                .that( properties.get( "counterparty.bic" ) )
+                .isEqualTo( "GIBASKBX" );
+
+        assertWithMessage( "Transaction exchange rate" )
+                .that( properties.get( "exchangeRate.rate" ) )
+                .isEqualTo( 0.826446281 );
+    }
+
+    @Test
+    public void contentHash_SameContentSameHash()
+    {
+        String hash = hashOf( api );
+
+        assertWithMessage( "Content hash of the same transaction" )
+                .that( hashOf( api ) )
+                .isEqualTo( hash );
+
+        api.setReference( "Changed reference" );
+        assertWithMessage( "Content hash of the changed transaction" )
+                .that( hashOf( api ) )
+                .isNotEqualTo( hash );
+    }
+
+    private String hashOf( Transaction input )
+    {
+        return TransactionBatchPublisherTask.contentHash( TransactionBatchPublisherTask.toProductBilling( input ) );
+    }
+
+    private Map<String, Object> mapOf( biz.turnonline.ecosystem.billing.model.Transaction input )
+    {
+        ObjectMapper mapper = new ObjectMapper();
+        return mapper.convertValue( input, new PropertiesHasher.MapType() );
+    }
+
+    private static class Helper
+            implements PropertiesHasher
+    {
+        @Override
+        public String calcPropsHashCode( @Nonnull String name )
+        {
+            return null;
+        }
+
+        @Override
+        public PropertiesHashCode getPropsHashCode()
+        {
+            return null;
+        }
+    }
+}
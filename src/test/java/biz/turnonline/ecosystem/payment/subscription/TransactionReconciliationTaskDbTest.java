@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.service.BackendServiceTestCase;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.ReconciliationCheckpoint;
+import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.Transaction;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionState;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.inject.Injector;
+import mockit.Capturing;
+import mockit.Expectations;
+import mockit.Verifications;
+import org.ctoolkit.agent.service.impl.ImportTask;
+import org.ctoolkit.restapi.client.RestFacade;
+import org.ctoolkit.services.task.Task;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * {@link TransactionReconciliationTask} testing against emulated (local) App Engine datastore.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionReconciliationTaskDbTest
+        extends BackendServiceTestCase
+{
+    private static final OffsetDateTime NOW = OffsetDateTime.now( ZoneOffset.UTC );
+
+    @Inject
+    private Injector injector;
+
+    @Capturing
+    private RestFacade facade;
+
+    @Capturing
+    private TaskExecutor executor;
+
+    @BeforeMethod
+    public void before()
+    {
+        // import test bank accounts and transactions
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        // saved in order to create external ID lookup records
+        ofy().load().type( CommonTransaction.class ).ids( 680L, 681L ).values().forEach( CommonTransaction::save );
+    }
+
+    @Test
+    public void execute_MissingAndChangedScheduled()
+    {
+        List<Transaction> page = new ArrayList<>();
+        // the same state as the local one
+        page.add( bankTransaction( "7fa8816a-1fe5-4fc7-9e86-fd659b753167", TransactionState.COMPLETED, 1 ) );
+        // the state has changed
+        page.add( bankTransaction( "33869cb7-de3f-433e-a148-4170fe042beb", TransactionState.REVERTED, 2 ) );
+        // missing locally, not settled yet
+        page.add( bankTransaction( "b1c2ddc7-7a8c-4d1f-a4a3-9c0e3e6c1b21", TransactionState.PENDING, 3 ) );
+
+        new Expectations()
+        {
+            {
+                facade.list( Transaction.class ).addCriteria( anyString, any ).finish();
+                result = page;
+            }
+        };
+
+        ReconciliationCheckpoint checkpoint = ReconciliationCheckpoint.start();
+        TransactionReconciliationTask task = new TransactionReconciliationTask( checkpoint );
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        new Verifications()
+        {
+            {
+                List<Task<?>> scheduled = new ArrayList<>();
+                List<TaskOptions> options = new ArrayList<>();
+                executor.schedule( withCapture( scheduled ), withCapture( options ) );
+                times = 2;
+
+                assertWithMessage( "Scheduled synchronization" )
+                        .that( scheduled.get( 0 ) )
+                        .isInstanceOf( TransactionCreatedTask.class );
+
+                assertWithMessage( "Synchronization coalesced with the web-hook events (task name)" )
+                        .that( options.get( 0 ).getTaskName() )
+                        .isEqualTo( "Revolut-Transaction-33869cb7-de3f-433e-a148-4170fe042beb-0" );
+            }
+        };
+
+        checkpoint = ofy().load().key( ReconciliationCheckpoint.key() ).now();
+        assertWithMessage( "Reconciliation finished" )
+                .that( checkpoint.isDone() )
+                .isTrue();
+
+        assertWithMessage( "Number of listed transactions" )
+                .that( checkpoint.getListed() )
+                .isEqualTo( 3 );
+
+        assertWithMessage( "Number of scheduled transactions" )
+                .that( checkpoint.getScheduled() )
+                .isEqualTo( 2 );
+
+        assertWithMessage( "High-water mark at the oldest pending transaction" )
+                .that( checkpoint.getHighWaterMark() )
+                .isEqualTo( Date.from( NOW.minusHours( 3 ).toInstant() ) );
+    }
+
+    @Test
+    public void execute_NextPageOverlapsBoundary()
+    {
+        // full page, the last two transactions created at the same time as the oldest one
+        List<Transaction> first = new ArrayList<>();
+        for ( int index = 0; index < TransactionReconciliationTask.PAGE_SIZE - 2; index++ )
+        {
+            first.add( bankTransaction( UUID.randomUUID().toString(), TransactionState.COMPLETED, 1 ) );
+        }
+        first.add( bankTransaction( "a3c7c7b6-52a4-4d7e-8f59-0d0c1a2b3c01", TransactionState.COMPLETED, 5 ) );
+        first.add( bankTransaction( "a3c7c7b6-52a4-4d7e-8f59-0d0c1a2b3c02", TransactionState.COMPLETED, 5 ) );
+
+        // overlapping page, the boundary transactions listed again together with the one missed otherwise
+        List<Transaction> second = new ArrayList<>();
+        second.add( bankTransaction( "a3c7c7b6-52a4-4d7e-8f59-0d0c1a2b3c01", TransactionState.COMPLETED, 5 ) );
+        second.add( bankTransaction( "a3c7c7b6-52a4-4d7e-8f59-0d0c1a2b3c02", TransactionState.COMPLETED, 5 ) );
+        second.add( bankTransaction( "a3c7c7b6-52a4-4d7e-8f59-0d0c1a2b3c03", TransactionState.COMPLETED, 5 ) );
+
+        new Expectations()
+        {
+            {
+                facade.list( Transaction.class ).addCriteria( anyString, any ).finish();
+                result = first;
+                result = second;
+            }
+        };
+
+        ReconciliationCheckpoint checkpoint = ReconciliationCheckpoint.start();
+        TransactionReconciliationTask task = new TransactionReconciliationTask( checkpoint );
+        injector.injectMembers( task );
+        task.execute();
+
+        List<Task<?>> scheduled = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                executor.schedule( withCapture( scheduled ) );
+            }
+        };
+
+        Task<?> last = scheduled.get( scheduled.size() - 1 );
+        assertWithMessage( "Next page scheduled" )
+                .that( last )
+                .isInstanceOf( TransactionReconciliationTask.class );
+
+        TransactionReconciliationTask next = ( TransactionReconciliationTask ) last;
+        assertWithMessage( "Next page ends at the oldest transaction of the page" )
+                .that( next.getTo() )
+                .isEqualTo( Date.from( NOW.minusHours( 5 ).toInstant() ) );
+
+        assertWithMessage( "Transactions listed by the page at its boundary" )
+                .that( next.getBoundary() )
+                .containsExactly( "a3c7c7b6-52a4-4d7e-8f59-0d0c1a2b3c01", "a3c7c7b6-52a4-4d7e-8f59-0d0c1a2b3c02" );
+
+        injector.injectMembers( next );
+        next.execute();
+        ofy().clear();
+
+        checkpoint = ofy().load().key( ReconciliationCheckpoint.key() ).now();
+        assertWithMessage( "Reconciliation finished" )
+                .that( checkpoint.isDone() )
+                .isTrue();
+
+        assertWithMessage( "Number of listed transactions (boundary listed once)" )
+                .that( checkpoint.getListed() )
+                .isEqualTo( TransactionReconciliationTask.PAGE_SIZE + 1 );
+
+        assertWithMessage( "Number of scheduled transactions" )
+                .that( checkpoint.getScheduled() )
+                .isEqualTo( TransactionReconciliationTask.PAGE_SIZE + 1 );
+    }
+
+    @Test
+    public void start_RunningNotStartedAgain()
+    {
+        ReconciliationCheckpoint checkpoint = ReconciliationCheckpoint.start();
+        assertWithMessage( "Reconciliation started" )
+                .that( checkpoint )
+                .isNotNull();
+
+        assertWithMessage( "Initial high-water mark" )
+                .that( checkpoint.getHighWaterMark() )
+                .isNotNull();
+
+        assertWithMessage( "Reconciliation still running" )
+                .that( ReconciliationCheckpoint.start() )
+                .isNull();
+    }
+
+    @Test
+    public void isSettled()
+    {
+        assertWithMessage( "Pending transaction settled" )
+                .that( TransactionReconciliationTask.isSettled( TransactionState.PENDING ) )
+                .isFalse();
+
+        assertWithMessage( "Completed transaction settled" )
+                .that( TransactionReconciliationTask.isSettled( TransactionState.COMPLETED ) )
+                .isTrue();
+    }
+
+    private Transaction bankTransaction( String id, TransactionState state, int hoursAgo )
+    {
+        Transaction transaction = new Transaction();
+        transaction.setId( id );
+        transaction.setState( state );
+        transaction.setCreatedAt( NOW.minusHours( hoursAgo ) );
+        return transaction;
+    }
+}
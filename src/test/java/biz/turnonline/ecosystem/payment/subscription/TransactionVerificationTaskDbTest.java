@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import biz.turnonline.ecosystem.payment.service.BackendServiceTestCase;
+import biz.turnonline.ecosystem.payment.service.model.CommonTransaction;
+import biz.turnonline.ecosystem.payment.service.model.TransactionOutbox;
+import biz.turnonline.ecosystem.payment.service.revolut.webhook.TransactionCreatedTask;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.Transaction;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionLeg;
+import biz.turnonline.ecosystem.revolut.business.transaction.model.TransactionState;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.inject.Injector;
+import mockit.Capturing;
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Verifications;
+import org.ctoolkit.agent.service.impl.ImportTask;
+import org.ctoolkit.restapi.client.NotFoundException;
+import org.ctoolkit.restapi.client.RestFacade;
+import org.ctoolkit.services.task.TaskExecutor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.util.Collections;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+/**
+ * {@link TransactionVerificationTask} testing against emulated (local) App Engine datastore.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+public class TransactionVerificationTaskDbTest
+        extends BackendServiceTestCase
+{
+    private static final String EXT_ID = "7fa8816a-1fe5-4fc7-9e86-fd659b753167";
+
+    @Inject
+    private Injector injector;
+
+    @Capturing
+    private RestFacade facade;
+
+    @Capturing
+    private TaskExecutor executor;
+
+    @BeforeMethod
+    public void before()
+    {
+        // import test bank accounts and transactions
+        ImportTask task = new ImportTask( "/testdataset/changeset_transactions.xml" );
+        task.run();
+
+        // transaction taken from the web-hook in trusted mode
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        transaction.verificationPending( true ).save();
+        ofy().clear();
+    }
+
+    @Test
+    public void execute_MatchingVerified()
+    {
+        TransactionLeg leg = new TransactionLeg();
+        leg.setAmount( -59.0 );
+
+        Transaction fromBank = new Transaction();
+        fromBank.setId( EXT_ID );
+        fromBank.setState( TransactionState.COMPLETED );
+        fromBank.setLegs( Collections.singletonList( leg ) );
+
+        new Expectations()
+        {
+            {
+                facade.list( Transaction.class ).finish();
+                result = Collections.singletonList( fromBank );
+            }
+        };
+
+        TransactionVerificationTask task = new TransactionVerificationTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        assertWithMessage( "Transaction verification pending" )
+                .that( transaction.isVerificationPending() )
+                .isFalse();
+
+        assertWithMessage( "Transaction status" )
+                .that( transaction.getStatus() )
+                .isEqualTo( CommonTransaction.State.COMPLETED );
+    }
+
+    @Test
+    public void execute_NotFoundNotVerified()
+    {
+        new Expectations()
+        {
+            {
+                facade.list( Transaction.class ).finish();
+                result = Collections.emptyList();
+
+                facade.get( Transaction.class ).identifiedBy( EXT_ID ).finish();
+                result = new NotFoundException();
+            }
+        };
+
+        TransactionVerificationTask task = new TransactionVerificationTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        assertWithMessage( "Transaction flagged as failure" )
+                .that( transaction.isFailure() )
+                .isTrue();
+
+        assertWithMessage( "Transaction status" )
+                .that( transaction.getStatus() )
+                .isEqualTo( CommonTransaction.State.FAILED );
+
+        assertWithMessage( "Transaction verification pending" )
+                .that( transaction.isVerificationPending() )
+                .isFalse();
+
+        assertWithMessage( "Transaction enqueued to be published" )
+                .that( ofy().load().type( TransactionOutbox.class ).id( EXT_ID ).now() )
+                .isNotNull();
+    }
+
+    @Test
+    public void execute_NotFoundConcurrentlySynchronizedNotOverwritten()
+    {
+        new Expectations()
+        {
+            {
+                facade.list( Transaction.class ).finish();
+                result = Collections.emptyList();
+
+                facade.get( Transaction.class ).identifiedBy( EXT_ID ).finish();
+                result = new Delegate<Transaction>()
+                {
+                    @SuppressWarnings( "unused" )
+                    Transaction finish()
+                    {
+                        // meanwhile the transaction has been synchronized from the bank
+                        ofy().transact( () -> ofy().load()
+                                .type( CommonTransaction.class )
+                                .id( 680L )
+                                .now()
+                                .verificationPending( false )
+                                .save() );
+
+                        throw new NotFoundException();
+                    }
+                };
+            }
+        };
+
+        TransactionVerificationTask task = new TransactionVerificationTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        assertWithMessage( "Transaction flagged as failure" )
+                .that( transaction.isFailure() )
+                .isFalse();
+
+        assertWithMessage( "Transaction status" )
+                .that( transaction.getStatus() )
+                .isEqualTo( CommonTransaction.State.COMPLETED );
+
+        assertWithMessage( "Transaction enqueued to be published" )
+                .that( ofy().load().type( TransactionOutbox.class ).id( EXT_ID ).now() )
+                .isNull();
+    }
+
+    @Test
+    public void execute_MismatchNotPendingAnymore()
+    {
+        TransactionLeg leg = new TransactionLeg();
+        leg.setAmount( -59.0 );
+
+        Transaction fromBank = new Transaction();
+        fromBank.setId( EXT_ID );
+        fromBank.setState( TransactionState.DECLINED );
+        fromBank.setLegs( Collections.singletonList( leg ) );
+
+        new Expectations()
+        {
+            {
+                facade.list( Transaction.class ).finish();
+                result = Collections.singletonList( fromBank );
+            }
+        };
+
+        TransactionVerificationTask task = new TransactionVerificationTask();
+        injector.injectMembers( task );
+        task.execute();
+        ofy().clear();
+
+        CommonTransaction transaction = ofy().load().type( CommonTransaction.class ).id( 680L ).now();
+        assertWithMessage( "Transaction verification pending" )
+                .that( transaction.isVerificationPending() )
+                .isFalse();
+
+        assertWithMessage( "Transaction status, to be taken from the bank by the sync" )
+                .that( transaction.getStatus() )
+                .isEqualTo( CommonTransaction.State.COMPLETED );
+
+        new Verifications()
+        {
+            {
+                executor.schedule( ( TransactionCreatedTask ) any, ( TaskOptions ) any );
+                times = 1;
+
+                // the batch is not full, no next batch
+                executor.schedule( ( TransactionVerificationTask ) any );
+                times = 0;
+            }
+        };
+
+        // next verification does not pick up the mismatched transaction again
+        task = new TransactionVerificationTask();
+        injector.injectMembers( task );
+        task.execute();
+
+        new Verifications()
+        {
+            {
+                facade.list( Transaction.class ).finish();
+                times = 1;
+            }
+        };
+    }
+}
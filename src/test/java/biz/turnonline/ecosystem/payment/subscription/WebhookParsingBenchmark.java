@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2021 TurnOnline.biz s.r.o. All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package biz.turnonline.ecosystem.payment.subscription;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Web-hook requests per second of the {@link RevolutWebhookSubscription} request handling, the part
+ * that runs before the task is being scheduled. The streaming {@link RevolutWebhookSubscription.Envelope}
+ * is compared against the previous way, the whole body parsed into a tree and the 'data' object
+ * serialized back to JSON.
+ * <p>
+ * Run by {@code mvn test-compile exec:java -Dexec.mainClass=<this class> -Dexec.classpathScope=test}
+ * or from the IDE.
+ *
+ * @author <a href="mailto:medvegy@turnonline.biz">Aurel Medvegy</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class WebhookParsingBenchmark
+{
+    @Param( {"transaction-created-card_payment.json",
+            "transaction-created-transfer-cross-currency.json",
+            "transaction-state-changed.json"} )
+    private String event;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private byte[] body;
+
+    public static void main( String[] args ) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include( WebhookParsingBenchmark.class.getSimpleName() )
+                .build();
+
+        new Runner( options ).run();
+    }
+
+    @Setup
+    public void setup() throws IOException
+    {
+        try ( InputStream stream = WebhookParsingBenchmark.class.getResourceAsStream( event ) )
+        {
+            body = ByteStreams.toByteArray( stream );
+        }
+    }
+
+    @Benchmark
+    public void streaming( Blackhole blackhole ) throws IOException
+    {
+        RevolutWebhookSubscription.Envelope envelope = RevolutWebhookSubscription.Envelope.parse( body );
+        blackhole.consume( envelope.deliveryKey() );
+        blackhole.consume( envelope.data( body ) );
+    }
+
+    @Benchmark
+    public void tree( Blackhole blackhole ) throws IOException
+    {
+        JsonNode root = mapper.readTree( body );
+        JsonNode data = root.get( "data" );
+
+        blackhole.consume( root.path( "event" ).asText() );
+        blackhole.consume( data.path( "id" ).asText() );
+        blackhole.consume( mapper.writeValueAsString( data ) );
+    }
+}